@@ -1,5 +1,6 @@
 package simpledb.buffer;
 
+import java.util.concurrent.atomic.*;
 import simpledb.file.*;
 import simpledb.log.LogMgr;
 
@@ -10,20 +11,42 @@ import simpledb.log.LogMgr;
  * the number of times the buffer has been pinned,
  * whether its contents have been modified,
  * and if so, the id and lsn of the modifying transaction.
+ * <P>
+ * The pin count is atomic, so that a buffer can be pinned
+ * without holding any lock.
+ * A pin count of {@link #CLAIMED} means that the buffer manager
+ * has taken the unpinned buffer for its exclusive use
+ * (for example, to assign it to another block),
+ * and that it cannot be pinned until it is released.
  * @author Edward Sciore
  */
 public class Buffer {
    private FileMgr fm;
    private LogMgr lm;
    private Page contents;
-   private BlockId blk = null;
-   private int pins = 0;
-   private int txnum = -1;
-   private int lsn = -1;
+   private int index;
+   private volatile BlockId blk = null;
+   private AtomicInteger pins = new AtomicInteger(0);
+   private volatile long txnum = -1;
+   private long lsn = -1;
+   private boolean unlogged = false;
+   private long recLSN = -1;
+   private volatile boolean writeRequested = false;
+   private AtomicBoolean prefetched = new AtomicBoolean(false);
 
-   public Buffer(FileMgr fm, LogMgr lm) {
+   static final int CLAIMED = -1;
+
+   /**
+    * Creates a buffer that occupies the specified slot
+    * of the buffer pool.
+    * @param fm the file manager
+    * @param lm the log manager
+    * @param index the position of the buffer in the pool
+    */
+   public Buffer(FileMgr fm, LogMgr lm, int index) {
       this.fm = fm;
       this.lm = lm;
+      this.index = index;
       contents = new Page(fm.blockSize());
    }
    
@@ -40,10 +63,60 @@ public class Buffer {
       return blk;
    }
 
-   public void setModified(int txnum, int lsn) {
+   /**
+    * Records that the page has been modified by the specified
+    * transaction. The LSN of the page is the largest LSN of the
+    * log records for its changes; the log is flushed up to that
+    * record before the page is written.
+    * A change that was not logged is remembered until the page
+    * is written, since it cannot be redone after a crash.
+    * @param txnum the id of the modifying transaction
+    * @param lsn the LSN of the change's log record, or -1 if it was not logged
+    */
+   public synchronized void setModified(long txnum, long lsn) {
       this.txnum = txnum;
-      if (lsn >= 0)
+      if (lsn > this.lsn)
          this.lsn = lsn;
+      if (lsn < 0)
+         unlogged = true;
+   }
+
+   /**
+    * Notes that the page is about to be changed by an update
+    * whose log record will have at least the specified LSN.
+    * The first such LSN since the page was last written is kept
+    * as the page's recovery LSN: the log from that point on
+    * is needed to redo the changes that are not yet on disk.
+    * @param lsn a bound on the LSN of the update's log record
+    */
+   public synchronized void setRecoveryLSN(long lsn) {
+      if (recLSN < 0)
+         recLSN = lsn;
+   }
+
+   /**
+    * Returns the page's recovery LSN, or -1 if the
+    * page has no logged changes that are not on disk.
+    * @return the recovery LSN of the page
+    */
+   synchronized long recoveryLSN() {
+      return recLSN;
+   }
+
+   /**
+    * Asks for the buffer to be written when it is next unpinned.
+    */
+   void requestWrite() {
+      writeRequested = true;
+   }
+
+   /**
+    * Returns true if the buffer is to be written
+    * when it is next unpinned.
+    * @return true if a write has been requested
+    */
+   boolean writeRequested() {
+      return writeRequested;
    }
 
    /**
@@ -52,49 +125,154 @@ public class Buffer {
     * @return true if the buffer is pinned
     */
    public boolean isPinned() {
-      return pins > 0;
+      return pins.get() != 0;
    }
    
-   public int modifyingTx() {
+   /**
+    * Returns the transaction that most recently modified the page,
+    * or -1 if the page has not been modified since it was written.
+    * Under record locking, transactions can modify different
+    * records of a page concurrently, and only the last is kept.
+    * It therefore identifies a modifier only when no other
+    * transaction can be writing the page, as during recovery;
+    * otherwise a transaction must go by the buffers it modified,
+    * as commit and rollback do.
+    * @return the id of the last modifying transaction, or -1
+    */
+   public long modifyingTx() {
       return txnum;
    }
 
+   /**
+    * Return true if the buffer has been modified
+    * since it was last written to disk.
+    * @return true if the buffer is dirty
+    */
+   public boolean isDirty() {
+      return txnum >= 0;
+   }
+
+   /**
+    * Returns the position of the buffer in the buffer pool.
+    * Replacement policies use it to index per-buffer state.
+    * @return the buffer's index in the pool
+    */
+   int index() {
+      return index;
+   }
+
    /**
     * Reads the contents of the specified block into
     * the contents of the buffer.
     * If the buffer was dirty, then its previous contents
     * are first written to disk.
+    * The caller must have claimed the buffer.
     * @param b a reference to the data block
     */
    void assignToBlock(BlockId b) {
       flush();
       blk = b;
       fm.read(blk, contents);
-      pins = 0;
    }
    
    /**
     * Write the buffer to its disk block if it is dirty.
+    * @return true if the buffer was dirty
     */
-   void flush() {
+   synchronized boolean flush() {
+      writeRequested = false;
       if (txnum >= 0) {
          lm.flush(lsn);
          fm.write(blk, contents);
          txnum = -1;
+         unlogged = false;
+         recLSN = -1;
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * Write the buffer to its disk block if it is dirty
+    * and the specified transaction was its last modifier;
+    * see {@link #modifyingTx()}.
+    * @param txnum the id of the transaction
+    * @return true if the buffer was written
+    */
+   synchronized boolean flushIfModifiedBy(long txnum) {
+      return this.txnum == txnum && flush();
+   }
+
+   /**
+    * Write the buffer to its disk block if it holds
+    * a change that was not logged.
+    * @return true if the buffer was written
+    */
+   synchronized boolean flushIfUnlogged() {
+      return unlogged && flush();
+   }
+
+   /**
+    * Increase the buffer's pin count, provided that the
+    * buffer is assigned to the specified block and is not claimed.
+    * The buffer can be claimed and reassigned between the check
+    * of its block and the increment, so the caller must check
+    * the block again once the buffer is pinned, and unpin it
+    * the usual way if it no longer holds that block.
+    * @param b the block that the caller expects the buffer to hold
+    * @return the previous pin count, or -1 if the buffer could not be pinned
+    */
+   int pinIfAssignedTo(BlockId b) {
+      while (true) {
+         if (!b.equals(blk))
+            return -1;
+         int p = pins.get();
+         if (p == CLAIMED)
+            return -1;
+         if (pins.compareAndSet(p, p+1))
+            return p;
       }
    }
 
    /**
-    * Increase the buffer's pin count.
+    * Marks the buffer as holding a block that was read ahead
+    * of any request for it.
     */
-   void pin() {
-      pins++;
+   void markPrefetched() {
+      prefetched.set(true);
+   }
+
+   /**
+    * Clears the prefetched mark.
+    * @return true if the buffer was marked as prefetched
+    */
+   boolean clearPrefetched() {
+      return prefetched.getAndSet(false);
    }
 
    /**
     * Decrease the buffer's pin count.
+    * @return the new pin count
+    */
+   int unpin() {
+      return pins.decrementAndGet();
+   }
+
+   /**
+    * Takes the buffer for the exclusive use of the caller,
+    * if it is unpinned.
+    * @return true if the buffer was claimed
+    */
+   boolean claim() {
+      return pins.compareAndSet(0, CLAIMED);
+   }
+
+   /**
+    * Ends the caller's claim on the buffer,
+    * leaving it with the specified pin count.
+    * @param pincount the new pin count
     */
-   void unpin() {
-      pins--;
+   void release(int pincount) {
+      pins.set(pincount);
    }
-}
\ No newline at end of file
+}
@@ -1,132 +1,742 @@
 package simpledb.buffer;
 
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
 import simpledb.file.*;
 import simpledb.log.LogMgr;
 
 /**
  * Manages the pinning and unpinning of buffers to blocks.
+ * The buffers that hold a block are found through a hash table,
+ * and the choice of which unpinned buffer to replace
+ * is delegated to a {@link ReplacementPolicy}.
+ * <P>
+ * The buffer manager has no global lock.
+ * A pin of a block that is already in the pool looks the block up
+ * in a concurrent hash table and atomically increments the
+ * buffer's pin count.
+ * A pin of a block that is not in the pool locks one of several
+ * stripes (chosen by the block), so that two threads never read
+ * the same block into two buffers, claims a victim chosen by the
+ * replacement policy, and reassigns it.
+ * Threads waiting for a buffer to become available are queued
+ * in FIFO order, and each unpin that frees a buffer
+ * wakes only the first of them.
+ * The queue's lock is held only to enqueue and to wait;
+ * a woken thread releases it before trying again,
+ * since that may read or write a page.
+ * <P>
+ * A {@link BufferWriter} thread can be started to clean
+ * dirty unpinned buffers in the background.
+ * The buffer manager counts the pages cleaned by that writer
+ * and the pages that a pin had to write itself
+ * when it replaced a dirty buffer.
+ * <P>
+ * When read-ahead is enabled, the buffer manager reads blocks
+ * into unpinned buffers before they are requested,
+ * using a small pool of prefetch threads.
+ * Read-ahead is triggered by an explicit hint from a scan,
+ * by two consecutive misses on adjacent blocks of a file,
+ * and by the first pin of a prefetched block, which
+ * keeps the window ahead of a sequential reader.
+ * The number of prefetched blocks that have not yet been pinned
+ * is capped at a fraction of the pool, so that read-ahead
+ * cannot take every unpinned buffer away from other pins.
+ * <P>
+ * A pin can be made through a {@link BufferRing}, in which case
+ * a miss recycles one of the ring's buffers instead of
+ * choosing a victim from the whole pool.
+ * Large sequential scans and temporary tables use rings,
+ * so that they do not evict the shared working set.
  * @author Edward Sciore
  *
  */
 public class BufferMgr {
    private Buffer[] bufferpool;
-   private int numAvailable;
+   private Map<BlockId,Buffer> bufferTable = new ConcurrentHashMap<>();
+   private Object[] stripes = new Object[NUM_STRIPES];
+   private ReplacementPolicy policy;
+   private AtomicInteger numAvailable;
+   private LongAdder hits = new LongAdder(), misses = new LongAdder();
+   private LongAdder writerCleaned = new LongAdder(), evictionCleaned = new LongAdder();
+   private BufferWriter writer = null;
+   private FileMgr fm;
+   private ExecutorService prefetcher = null;
+   private int readAheadWindow = 0;
+   private int maxPrefetched;
+   private int ringSize = 16;
+   private AtomicInteger numPrefetched = new AtomicInteger(0);
+   private Set<BlockId> inflight = ConcurrentHashMap.newKeySet();
+   private Map<String,Integer> readPosition = Collections.synchronizedMap(new PositionMap());
+   private LongAdder prefetchReads = new LongAdder(), prefetchHits = new LongAdder();
+   private ReentrantLock waitLock = new ReentrantLock();
+   private Deque<Waiter> waiters = new ArrayDeque<>();
+   private AtomicInteger numWaiting = new AtomicInteger(0);
    private static final long MAX_TIME = 10000; // 10 seconds
-   
+   private static final int NUM_STRIPES = 64;
+   private static final int MAX_READ_POSITIONS = 256; // files
+
    /**
-    * Creates a buffer manager having the specified number 
-    * of buffer slots.
+    * Creates a buffer manager having the specified number
+    * of buffer slots, using the clock replacement policy.
     * This constructor depends on a {@link FileMgr} and
     * {@link simpledb.log.LogMgr LogMgr} object.
     * @param numbuffs the number of buffer slots to allocate
     */
    public BufferMgr(FileMgr fm, LogMgr lm, int numbuffs) {
+      this(fm, lm, numbuffs, new ClockPolicy());
+   }
+
+   /**
+    * Creates a buffer manager having the specified number
+    * of buffer slots and replacement policy.
+    * @param numbuffs the number of buffer slots to allocate
+    * @param policy the replacement policy
+    */
+   public BufferMgr(FileMgr fm, LogMgr lm, int numbuffs, ReplacementPolicy policy) {
+      this.fm = fm;
       bufferpool = new Buffer[numbuffs];
-      numAvailable = numbuffs;
+      maxPrefetched = Math.max(1, numbuffs / 4);
+      numAvailable = new AtomicInteger(numbuffs);
       for (int i=0; i<numbuffs; i++)
-         bufferpool[i] = new Buffer(fm, lm);
+         bufferpool[i] = new Buffer(fm, lm, i);
+      for (int i=0; i<NUM_STRIPES; i++)
+         stripes[i] = new Object();
+      this.policy = policy;
+      policy.init(bufferpool);
    }
-   
+
    /**
     * Returns the number of available (i.e. unpinned) buffers.
     * @return the number of available buffers
     */
-   public synchronized int available() {
-      return numAvailable;
+   public int available() {
+      return numAvailable.get();
+   }
+
+   /**
+    * Returns the number of pins that found their block
+    * already in the pool.
+    * @return the number of buffer hits
+    */
+   public long hits() {
+      return hits.sum();
+   }
+
+   /**
+    * Returns the number of pins that had to read
+    * their block into the pool.
+    * @return the number of buffer misses
+    */
+   public long misses() {
+      return misses.sum();
+   }
+
+   /**
+    * Returns the number of dirty pages written by the background writer.
+    * @return the number of pages cleaned by the writer
+    */
+   public long pagesCleanedByWriter() {
+      return writerCleaned.sum();
+   }
+
+   /**
+    * Returns the number of dirty pages that a pin had to write
+    * before it could reuse their buffer.
+    * @return the number of pages cleaned by foreground eviction
+    */
+   public long pagesCleanedByEviction() {
+      return evictionCleaned.sum();
+   }
+
+   /**
+    * Starts a background writer thread for this buffer pool.
+    * @param interval the time between rounds, in milliseconds
+    * @param maxpages the maximum number of pages cleaned per round
+    * @param lowwater the fraction of dirty buffers at which a round stops
+    * @param highwater the fraction of dirty buffers at which a round starts
+    */
+   public synchronized void startBackgroundWriter(long interval, int maxpages,
+                                                  double lowwater, double highwater) {
+      if (writer != null)
+         return;
+      writer = new BufferWriter(this, bufferpool, interval, maxpages, lowwater, highwater);
+      Thread t = new Thread(writer, "buffer-writer");
+      t.setDaemon(true);
+      t.start();
+   }
+
+   /**
+    * Stops the background writer, if one is running.
+    */
+   public synchronized void stopBackgroundWriter() {
+      if (writer != null) {
+         writer.stop();
+         writer = null;
+      }
+   }
+
+   /**
+    * Sets the number of buffers in the rings created by {@link #newRing()}.
+    * A ring never gets more than a quarter of the pool.
+    * @param size the number of buffers in a ring
+    */
+   public void setRingSize(int size) {
+      ringSize = size;
+   }
+
+   /**
+    * Creates a ring of buffers for a large sequential scan
+    * or a temporary table.
+    * @return a new buffer ring
+    */
+   public BufferRing newRing() {
+      int size = Math.max(1, Math.min(ringSize, bufferpool.length / 4));
+      return new BufferRing(size);
+   }
+
+   /**
+    * Returns true if a file of the specified size is large enough
+    * that a sequential scan of it should use a buffer ring,
+    * namely if it exceeds a quarter of the pool.
+    * @param numblocks the number of blocks in the file
+    * @return true if a scan of the file should use a ring
+    */
+   public boolean isLargeFile(int numblocks) {
+      return numblocks > bufferpool.length / 4;
+   }
+
+   /**
+    * Enables read-ahead.
+    * @param window the number of blocks to read ahead of a sequential reader
+    * @param nthreads the number of prefetch threads
+    */
+   public synchronized void startReadAhead(int window, int nthreads) {
+      if (prefetcher != null || window <= 0)
+         return;
+      readAheadWindow = window;
+      prefetcher = Executors.newFixedThreadPool(nthreads, r -> {
+         Thread t = new Thread(r, "buffer-prefetch");
+         t.setDaemon(true);
+         return t;
+      });
+   }
+
+   /**
+    * Disables read-ahead. Reads already in progress complete.
+    */
+   public synchronized void stopReadAhead() {
+      if (prefetcher != null) {
+         prefetcher.shutdown();
+         prefetcher = null;
+         readAheadWindow = 0;
+      }
+   }
+
+   /**
+    * Returns the number of blocks read into the pool by read-ahead.
+    * @return the number of prefetched blocks
+    */
+   public long pagesPrefetched() {
+      return prefetchReads.sum();
+   }
+
+   /**
+    * Returns the number of prefetched blocks that were
+    * later pinned before being replaced.
+    * @return the number of useful prefetches
+    */
+   public long prefetchHits() {
+      return prefetchHits.sum();
+   }
+
+   /**
+    * Hints that the specified file is about to be read
+    * sequentially, starting at the specified block.
+    * The blocks within the read-ahead window are prefetched.
+    * @param filename the name of the file
+    * @param blknum the first block that will be read
+    * @param ring the reader's buffer ring, or null
+    */
+   public void readAhead(String filename, int blknum, BufferRing ring) {
+      int window = readAheadWindow;
+      if (window > 0)
+         prefetch(filename, blknum, window, ring);
    }
-   
+
    /**
-    * Flushes the dirty buffers modified by the specified transaction.
+    * Asynchronously reads the specified blocks into the pool,
+    * without pinning them.
+    * Blocks that are already in the pool or beyond the end
+    * of the file are skipped, and the request is cut short
+    * when the number of unpinned prefetched blocks reaches its cap.
+    * If a ring is given, the blocks are read into its buffers,
+    * and at most half the ring is read ahead.
+    * Does nothing if read-ahead is not enabled.
+    * @param filename the name of the file
+    * @param startblk the first block to read
+    * @param count the number of blocks to read
+    * @param ring the reader's buffer ring, or null
+    */
+   public void prefetch(String filename, int startblk, int count, BufferRing ring) {
+      ExecutorService exec = prefetcher;
+      if (exec == null)
+         return;
+      if (ring != null)
+         count = Math.min(count, ring.size() / 2);
+      int end = Math.min(startblk + count, fm.length(filename));
+      for (int n=startblk; n<end; n++) {
+         if (numPrefetched.get() + inflight.size() >= maxPrefetched)
+            return;
+         BlockId blk = new BlockId(filename, n);
+         if (bufferTable.containsKey(blk) || !inflight.add(blk))
+            continue;
+         try {
+            exec.execute(() -> {
+               try {
+                  load(blk, ring);
+               }
+               finally {
+                  inflight.remove(blk);
+               }
+            });
+         }
+         catch (RejectedExecutionException e) {
+            inflight.remove(blk);
+            return;  // read-ahead was stopped
+         }
+      }
+   }
+
+   /**
+    * Flushes every dirty buffer in the pool,
+    * whichever transaction modified it.
+    * Used at shutdown, when no transaction is running.
+    */
+   public void flushAll() {
+      for (Buffer buff : bufferpool)
+         buff.flush();
+   }
+
+   /**
+    * Flushes the dirty buffers last modified by the specified
+    * transaction, by examining every buffer in the pool.
+    * A buffer keeps only its last modifier
+    * (see {@link Buffer#modifyingTx()}), so a page that another
+    * transaction has modified since is not written.
     * @param txnum the transaction's id number
     */
-   public synchronized void flushAll(int txnum) {
+   public void flushAll(long txnum) {
       for (Buffer buff : bufferpool)
          if (buff.modifyingTx() == txnum)
          buff.flush();
    }
-   
-   
+
+   /**
+    * Flushes those of the specified buffers that are still dirty
+    * and were last modified by the specified transaction.
+    * Recovery uses it for the buffers it recovered,
+    * which no other transaction can modify meanwhile.
+    * The cost is proportional to the number of buffers given,
+    * not to the size of the pool.
+    * @param txnum the transaction's id number
+    * @param buffs the buffers that the transaction has modified
+    */
+   public void flushAll(long txnum, Collection<Buffer> buffs) {
+      for (Buffer buff : buffs)
+         buff.flushIfModifiedBy(txnum);
+   }
+
+   /**
+    * Flushes those of the specified buffers that are dirty,
+    * whichever transaction modified them last.
+    * @param buffs the buffers that a transaction has modified
+    */
+   public void flush(Collection<Buffer> buffs) {
+      for (Buffer buff : buffs)
+         buff.flush();
+   }
+
+   /**
+    * Flushes those of the specified buffers that hold
+    * changes made without a log record.
+    * Such a change cannot be redone after a crash,
+    * so it must be on disk when its transaction commits.
+    * A buffer that has been written since the change is skipped,
+    * unless it has received another unlogged change meanwhile.
+    * @param buffs the buffers that a transaction has modified
+    * @return true if any buffer was written
+    */
+   public boolean flushUnlogged(Collection<Buffer> buffs) {
+      boolean written = false;
+      for (Buffer buff : buffs)
+         written |= buff.flushIfUnlogged();
+      return written;
+   }
+
+
+   /**
+    * Returns the smallest recovery LSN of the pages in the pool,
+    * that is, the LSN from which the log is needed to redo
+    * the changes that have not yet been written.
+    * @return the smallest recovery LSN, or Long.MAX_VALUE if there is none
+    */
+   public long minRecoveryLSN() {
+      long min = Long.MAX_VALUE;
+      for (Buffer buff : bufferpool) {
+         long lsn = buff.recoveryLSN();
+         if (lsn >= 0 && lsn < min)
+            min = lsn;
+      }
+      return min;
+   }
+
+   /**
+    * Writes the pages whose recovery LSN
+    * is smaller than the specified LSN.
+    * Called by the checkpointer, so that pages that stay dirty
+    * do not hold back the truncation of the log.
+    * A page that is pinned is written when it is next unpinned.
+    * @param lsn the LSN before which the pages are written
+    * @return the number of pages written now
+    */
+   public int flushOlderThan(long lsn) {
+      int count = 0;
+      for (Buffer buff : bufferpool) {
+         long reclsn = buff.recoveryLSN();
+         if (reclsn >= 0 && reclsn < lsn) {
+            if (clean(buff))
+               count++;
+            else
+               buff.requestWrite();
+         }
+      }
+      return count;
+   }
+
    /**
     * Unpins the specified data buffer. If its pin count
-    * goes to zero, then notify any waiting threads.
+    * goes to zero, then wake the first waiting thread.
     * @param buff the buffer to be unpinned
     */
-   public synchronized void unpin(Buffer buff) {
-      if (buff != null) {
-    	  buff.unpin();
-          if (!buff.isPinned()) {
-              numAvailable++;
-              notifyAll();
-           }
+   public void unpin(Buffer buff) {
+      if (buff != null && buff.unpin() == 0) {
+         if (buff.writeRequested())
+            clean(buff);  // the checkpointer wants the page written
+         numAvailable.incrementAndGet();
+         policy.unpinned(buff);
+         if (numWaiting.get() > 0)
+            wakeFirstWaiter();
       }
-
    }
-   
+
    /**
     * Pins a buffer to the specified block, potentially
     * waiting until a buffer becomes available.
-    * If no buffer becomes available within a fixed 
+    * If no buffer becomes available within a fixed
     * time period, then a {@link BufferAbortException} is thrown.
     * @param blk a reference to a disk block
     * @return the buffer pinned to that block
     */
-   public synchronized Buffer pin(BlockId blk) {
+   public Buffer pin(BlockId blk) {
+      return pin(blk, null);
+   }
+
+   /**
+    * Pins a buffer to the specified block, as {@link #pin(BlockId)} does.
+    * If the block is not in the pool and a ring is given,
+    * it is read into one of the ring's buffers.
+    * @param blk a reference to a disk block
+    * @param ring the caller's buffer ring, or null
+    * @return the buffer pinned to that block
+    */
+   public Buffer pin(BlockId blk, BufferRing ring) {
+      Buffer buff = tryToPin(blk, ring);
+      if (buff != null)
+         return buff;
+      Waiter me = new Waiter(waitLock.newCondition());
+      waitLock.lock();
       try {
-         long timestamp = System.currentTimeMillis();
-         Buffer buff = tryToPin(blk);
-         while (buff == null && !waitingTooLong(timestamp)) {
-            wait(MAX_TIME);
-            buff = tryToPin(blk);
+         waiters.addLast(me);
+         numWaiting.incrementAndGet();
+      }
+      finally {
+         waitLock.unlock();
+      }
+      try {
+         long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_TIME);
+         // a buffer freed after enqueuing wakes this thread,
+         // so one freed before it is found by trying again
+         buff = tryToPin(blk, ring);
+         while (buff == null) {
+            waitLock.lock();
+            try {
+               while (!me.woken) {
+                  long remaining = deadline - System.nanoTime();
+                  if (remaining <= 0)
+                     throw new BufferAbortException();
+                  me.cond.awaitNanos(remaining);
+               }
+               me.woken = false;
+            }
+            finally {
+               waitLock.unlock();
+            }
+            buff = tryToPin(blk, ring);
          }
-         if (buff == null)
-            throw new BufferAbortException();
          return buff;
       }
       catch(InterruptedException e) {
          throw new BufferAbortException();
       }
-   }  
-   
-   private boolean waitingTooLong(long starttime) {
-      return System.currentTimeMillis() - starttime > MAX_TIME;
+      finally {
+         waitLock.lock();
+         try {
+            waiters.remove(me);
+            numWaiting.decrementAndGet();
+            // pass any remaining free buffer on to the next waiter
+            if (numAvailable.get() > 0)
+               wakeFirst();
+         }
+         finally {
+            waitLock.unlock();
+         }
+      }
    }
-   
+
    /**
-    * Tries to pin a buffer to the specified block. 
+    * Writes the specified buffer to disk if it is dirty and unpinned.
+    * The buffer is claimed for the duration of the write,
+    * so that nobody can pin and modify it while it is written.
+    * Called by the background writer and the checkpointer.
+    * @param buff the buffer to clean
+    * @return true if the buffer was written
+    */
+   boolean clean(Buffer buff) {
+      if (!buff.claim())
+         return false;
+      boolean written;
+      try {
+         written = buff.flush();
+      }
+      finally {
+         buff.release(0);
+      }
+      if (written)
+         writerCleaned.increment();
+      if (numWaiting.get() > 0)
+         wakeFirstWaiter();
+      return written;
+   }
+
+   private void wakeFirstWaiter() {
+      waitLock.lock();
+      try {
+         wakeFirst();
+      }
+      finally {
+         waitLock.unlock();
+      }
+   }
+
+   // The caller must hold the wait lock.
+   private void wakeFirst() {
+      Waiter first = waiters.peekFirst();
+      if (first != null) {
+         first.woken = true;
+         first.cond.signal();
+      }
+   }
+
+   /**
+    * Tries to pin a buffer to the specified block.
     * If there is already a buffer assigned to that block
-    * then that buffer is used;  
+    * then that buffer is used;
     * otherwise, an unpinned buffer from the pool is chosen.
     * Returns a null value if there are no available buffers.
     * @param blk a reference to a disk block
+    * @param ring the caller's buffer ring, or null
     * @return the pinned buffer
     */
-   private Buffer tryToPin(BlockId blk) {
-      Buffer buff = findExistingBuffer(blk);
-      if (buff == null) {
-         buff = chooseUnpinnedBuffer();
-         if (buff == null)
-            return null;
-         buff.assignToBlock(blk);
+   private Buffer tryToPin(BlockId blk, BufferRing ring) {
+      while (true) {
+         Buffer buff = bufferTable.get(blk);
+         if (buff != null) {
+            int prevpins = buff.pinIfAssignedTo(blk);
+            if (prevpins == 0)
+               numAvailable.decrementAndGet();
+            if (prevpins >= 0 && !blk.equals(buff.block())) {
+               // reassigned before it was pinned; a normal unpin
+               // makes it available again if the count goes to 0
+               unpin(buff);
+               continue;
+            }
+            if (prevpins >= 0) {
+               hits.increment();
+               policy.pinned(buff);
+               if (buff.clearPrefetched()) {
+                  numPrefetched.decrementAndGet();
+                  prefetchHits.increment();
+                  readPosition.put(blk.fileName(), blk.number());
+                  readAhead(blk.fileName(), blk.number() + 1, ring);
+               }
+               return buff;
+            }
+            // the buffer is being replaced; try again
+            Thread.yield();
+            continue;
+         }
+         synchronized (stripeFor(blk)) {
+            if (bufferTable.containsKey(blk))
+               continue;  // another thread read the block in
+            buff = claimAndReplace(blk, ring);
+            if (buff == null)
+               return null;
+            numAvailable.decrementAndGet();
+            misses.increment();
+            buff.release(1);
+            policy.pinned(buff);
+         }
+         Integer prev = readPosition.put(blk.fileName(), blk.number());
+         if (prev != null && prev == blk.number() - 1)
+            readAhead(blk.fileName(), blk.number() + 1, ring);
+         return buff;
       }
-      if (!buff.isPinned())
-         numAvailable--;
-      buff.pin();
-      return buff;
    }
-   
-   private Buffer findExistingBuffer(BlockId blk) {
-      for (Buffer buff : bufferpool) {
-         BlockId b = buff.block();
-         if (b != null && b.equals(blk))
-            return buff;
+
+   /**
+    * Reads the specified block into an unpinned buffer,
+    * unless it is already in the pool or a sequential reader
+    * of the file has already gone past it.
+    * Called by a prefetch thread.
+    * @param blk a reference to a disk block
+    * @param ring the reader's buffer ring, or null
+    */
+   private void load(BlockId blk, BufferRing ring) {
+      synchronized (stripeFor(blk)) {
+         Integer pos = readPosition.get(blk.fileName());
+         if (bufferTable.containsKey(blk) || (pos != null && pos >= blk.number())
+               || numPrefetched.get() >= maxPrefetched)
+            return;
+         Buffer buff = claimAndReplace(blk, ring);
+         if (buff == null)
+            return;
+         try {
+            buff.markPrefetched();
+            numPrefetched.incrementAndGet();
+            prefetchReads.increment();
+         }
+         finally {
+            buff.release(0);
+         }
+         policy.pinned(buff);
       }
-      return null;
+      if (numWaiting.get() > 0)
+         wakeFirstWaiter();
    }
-   
-   private Buffer chooseUnpinnedBuffer() {
-      for (Buffer buff : bufferpool)
-         if (!buff.isPinned())
+
+   /**
+    * Claims a victim, from the ring if one is given,
+    * and reassigns it to the specified block.
+    * The caller must hold the block's stripe.
+    * @param blk a reference to a disk block
+    * @param ring the caller's buffer ring, or null
+    * @return the claimed buffer, or null if none is available
+    */
+   private Buffer claimAndReplace(BlockId blk, BufferRing ring) {
+      if (ring == null) {
+         Buffer buff = claimUnpinnedBuffer();
+         if (buff != null)
+            replace(buff, blk);
          return buff;
-      return null;
+      }
+      synchronized (ring) {
+         Buffer buff = ring.claimNext();
+         if (buff == null)
+            buff = claimUnpinnedBuffer();
+         if (buff != null) {
+            replace(buff, blk);
+            ring.assigned(buff, blk);
+         }
+         return buff;
+      }
+   }
+
+   /**
+    * Reassigns a claimed buffer to the specified block.
+    * The old block is flushed before it is removed from the table,
+    * so that a thread that then reads the old block
+    * from disk sees its latest contents.
+    */
+   private void replace(Buffer buff, BlockId blk) {
+      BlockId oldblk = buff.block();
+      if (buff.clearPrefetched())
+         numPrefetched.decrementAndGet();  // it was never used
+      if (buff.flush())
+         evictionCleaned.increment();
+      if (oldblk != null)
+         bufferTable.remove(oldblk, buff);
+      buff.assignToBlock(blk);
+      bufferTable.put(blk, buff);
+   }
+
+   /**
+    * Asks the replacement policy for a victim and claims it.
+    * A victim can be pinned by a concurrent hit
+    * between being chosen and being claimed,
+    * in which case the policy is asked again;
+    * the policy is told only of the victim that is claimed.
+    * @return a claimed buffer, or null if none is available
+    */
+   private Buffer claimUnpinnedBuffer() {
+      synchronized (policy) {
+         for (int i=0; i<=bufferpool.length; i++) {
+            Buffer buff = policy.chooseUnpinnedBuffer();
+            if (buff == null)
+               return null;
+            if (buff.claim()) {
+               policy.claimed(buff);
+               return buff;
+            }
+         }
+         return null;
+      }
+   }
+
+   private Object stripeFor(BlockId blk) {
+      return stripes[(blk.hashCode() & 0x7fffffff) % NUM_STRIPES];
+   }
+
+   /**
+    * A thread waiting for a buffer.
+    * Its flag records a wakeup that came while the thread was
+    * trying to pin rather than waiting, so that it is not lost.
+    * Both fields are guarded by the wait lock.
+    */
+   private static class Waiter {
+      Condition cond;
+      boolean woken = false;
+
+      Waiter(Condition cond) {
+         this.cond = cond;
+      }
+   }
+
+   /**
+    * The last block read of each file, for detecting sequential
+    * readers. Only the most recently read files are remembered,
+    * so that temporary files do not accumulate entries.
+    */
+   @SuppressWarnings("serial")
+   private static class PositionMap extends LinkedHashMap<String,Integer> {
+      PositionMap() {
+         super(16, 0.75f, true);
+      }
+
+      protected boolean removeEldestEntry(Map.Entry<String,Integer> eldest) {
+         return size() > MAX_READ_POSITIONS;
+      }
    }
 }
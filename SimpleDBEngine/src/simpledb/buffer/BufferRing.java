@@ -0,0 +1,69 @@
+package simpledb.buffer;
+
+import simpledb.file.BlockId;
+
+/**
+ * A small ring of buffers that a large sequential scan
+ * or a temporary table recycles, instead of taking
+ * victims from the whole buffer pool.
+ * <P>
+ * A pin that misses with a ring reuses the ring's oldest buffer.
+ * The ring only grows (by taking a victim from the shared pool)
+ * until it reaches its size, so the access can displace at most
+ * that many pages of the shared working set.
+ * If the oldest buffer is still pinned, or has meanwhile been
+ * reassigned to another block by the shared pool,
+ * it leaves the ring and is replaced by a victim from the pool.
+ * <P>
+ * The buffer manager locks the ring for the duration of a miss.
+ */
+public class BufferRing {
+   private Buffer[] frames;
+   private BlockId[] blocks;
+   private int next = 0;
+
+   BufferRing(int size) {
+      frames = new Buffer[size];
+      blocks = new BlockId[size];
+   }
+
+   /**
+    * Returns the number of buffers that the ring can hold.
+    * @return the size of the ring
+    */
+   public int size() {
+      return frames.length;
+   }
+
+   /**
+    * Claims the ring's oldest buffer, if it still holds
+    * the block the ring assigned to it and is unpinned.
+    * @return the claimed buffer, or null if the caller
+    * must take a victim from the shared pool
+    */
+   Buffer claimNext() {
+      Buffer buff = frames[next];
+      if (buff == null)
+         return null;
+      if (buff.block() == blocks[next] && buff.claim()) {
+         if (buff.block() == blocks[next])
+            return buff;
+         buff.release(0);  // reassigned before it was claimed
+      }
+      frames[next] = null;
+      return null;
+   }
+
+   /**
+    * Records that the specified buffer has been assigned to
+    * the specified block on behalf of the ring, and
+    * moves on to the next position.
+    * @param buff the buffer
+    * @param blk the block now held by the buffer
+    */
+   void assigned(Buffer buff, BlockId blk) {
+      frames[next] = buff;
+      blocks[next] = blk;
+      next = (next + 1) % frames.length;
+   }
+}
@@ -0,0 +1,87 @@
+package simpledb.buffer;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import simpledb.file.*;
+import simpledb.server.SimpleDB;
+
+/**
+ * Measures the hit ratio of an OLTP workload that pins
+ * random blocks of a hot set that fits in the buffer pool
+ * (together with a ring),
+ * first on its own and then while another thread repeatedly
+ * scans a table several times larger than the pool,
+ * once with the scan using the shared pool and once
+ * with the scan using a buffer ring.
+ * <P>
+ * Every pin of the scan is a miss (the scanned file does not
+ * fit in the pool, and read-ahead is disabled), so the misses
+ * of the OLTP thread are the total misses less the scan's pins.
+ */
+public class BufferRingBenchmark {
+   private static final String HOTFILE = "hotbench";
+   private static final String SCANFILE = "scanbench";
+   private static final int NUM_BUFFS = 200;
+   private static final int HOT_BLOCKS = 180;
+   private static final int SCAN_BLOCKS = 2000;
+   private static final int OLTP_PINS = 200000;
+
+   public static void main(String[] args) throws InterruptedException {
+      SimpleDB.READ_AHEAD = 0;
+      System.out.printf("oltp alone:          %5.1f%%%n", 100*run(false, false));
+      System.out.printf("oltp + shared scan:  %5.1f%%%n", 100*run(true, false));
+      System.out.printf("oltp + ring scan:    %5.1f%%%n", 100*run(true, true));
+   }
+
+   private static double run(boolean withScan, boolean useRing)
+         throws InterruptedException {
+      SimpleDB db = new SimpleDB("ringbenchmark", 400, NUM_BUFFS);
+      FileMgr fm = db.fileMgr();
+      while (fm.length(HOTFILE) < HOT_BLOCKS)
+         fm.append(HOTFILE);
+      while (fm.length(SCANFILE) < SCAN_BLOCKS)
+         fm.append(SCANFILE);
+      BufferMgr bm = db.bufferMgr();
+      bm.stopBackgroundWriter();
+      for (int b=0; b<HOT_BLOCKS; b++)  // warm up the hot set
+         bm.unpin(bm.pin(new BlockId(HOTFILE, b)));
+      return runOltp(bm, useRing ? bm.newRing() : null, withScan);
+   }
+
+   private static double runOltp(BufferMgr bm, BufferRing ring, boolean withScan)
+         throws InterruptedException {
+      long[] scanpins = new long[1];
+      AtomicBoolean done = new AtomicBoolean(false);
+      // not interrupted, since that would close the file channel
+      Thread scanner = new Thread(() -> {
+         while (!done.get())
+            for (int b=0; b<SCAN_BLOCKS; b++) {
+               bm.unpin(bm.pin(new BlockId(SCANFILE, b), ring));
+               scanpins[0]++;
+            }
+      });
+      long hits0 = bm.hits(), misses0 = bm.misses();
+      if (withScan)
+         scanner.start();
+      Random rand = new Random(42);
+      for (int i=0; i<OLTP_PINS; i++) {
+         Buffer buff = bm.pin(new BlockId(HOTFILE, rand.nextInt(HOT_BLOCKS)));
+         process(buff.contents());
+         bm.unpin(buff);
+      }
+      done.set(true);
+      if (withScan)
+         scanner.join();
+      long hits = bm.hits() - hits0;
+      long misses = bm.misses() - misses0 - scanpins[0];
+      return (double) hits / (hits + misses);
+   }
+
+   private static int process(Page p) {
+      int sum = 0;
+      for (int pass=0; pass<20; pass++)
+         for (int pos=0; pos+4<=400; pos+=4)
+            sum += p.getInt(pos);
+      return sum;
+   }
+}
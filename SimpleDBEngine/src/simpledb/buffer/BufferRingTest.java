@@ -0,0 +1,70 @@
+package simpledb.buffer;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+
+/**
+ * Checks buffer rings.
+ * A scan through a ring must recycle the ring's buffers,
+ * so that the blocks already in the pool stay there,
+ * whereas the same scan through the shared pool evicts them.
+ * The pool uses LRU, so that without the ring
+ * the outcome does not depend on a clock hand.
+ */
+public class BufferRingTest {
+   private static final int BUFFERS = 16;
+   private static final int HOT_BLOCKS = 12;
+   private static final int SCAN_BLOCKS = 40;
+   private static BufferMgr bm;
+   private static int failures = 0;
+
+   public static void main(String[] args) {
+      SimpleDB.READ_AHEAD = 0;
+      scan(true);
+      scan(false);
+      System.out.println(failures == 0 ? "BufferRingTest passed"
+                                       : "BufferRingTest: " + failures + " failures");
+   }
+
+   private static void scan(boolean useRing) {
+      String mode = useRing ? "ring" : "shared";
+      SimpleDB db = new SimpleDB("bufferringtest/" + mode, 400, BUFFERS, new LRUPolicy());
+      FileMgr fm = db.fileMgr();
+      bm = db.bufferMgr();
+      Page p = new Page(fm.blockSize());
+      for (int i=0; i<SCAN_BLOCKS; i++) {
+         p.setInt(0, i);
+         fm.write(new BlockId("scan", i), p);
+      }
+      for (int i=0; i<HOT_BLOCKS; i++)
+         bm.unpin(bm.pin(new BlockId("hot", i)));
+
+      BufferRing ring = useRing ? bm.newRing() : null;
+      int wrong = 0;
+      for (int i=0; i<SCAN_BLOCKS; i++) {
+         Buffer buff = bm.pin(new BlockId("scan", i), ring);
+         if (buff.contents().getInt(0) != i)
+            wrong++;
+         bm.unpin(buff);
+      }
+      check(wrong == 0, mode + " scan read " + wrong + " wrong blocks");
+      check(bm.available() == BUFFERS, bm.available() + " buffers are available");
+
+      long hits = bm.hits();
+      for (int i=0; i<HOT_BLOCKS; i++)
+         bm.unpin(bm.pin(new BlockId("hot", i)));
+      long hothits = bm.hits() - hits;
+      if (useRing)
+         check(hothits == HOT_BLOCKS, "a ring scan evicted "
+               + (HOT_BLOCKS - hothits) + " blocks of the pool");
+      else
+         check(hothits == 0, "a shared scan kept " + hothits + " blocks of the pool");
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
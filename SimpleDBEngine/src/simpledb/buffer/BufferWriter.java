@@ -0,0 +1,86 @@
+package simpledb.buffer;
+
+/**
+ * A background thread that writes dirty, unpinned buffers
+ * to disk, so that the buffers chosen for replacement
+ * are usually clean and a pin does not have to wait
+ * for a log flush and a data write.
+ * <P>
+ * Every interval, the writer counts the dirty unpinned buffers.
+ * If they exceed the high watermark (a fraction of the pool),
+ * it sweeps the pool with its own clock hand and cleans buffers
+ * until they drop to the low watermark, but cleans at most
+ * a fixed number of pages per round.
+ * Each buffer is written through {@link Buffer#flush()},
+ * which flushes the log up to the buffer's LSN first.
+ */
+class BufferWriter implements Runnable {
+   private BufferMgr bm;
+   private Buffer[] pool;
+   private long interval;
+   private int maxpages;
+   private double highwater, lowwater;
+   private int hand = 0;
+   private volatile boolean stopped = false;
+
+   /**
+    * Creates a writer for the specified buffer pool.
+    * @param bm the buffer manager
+    * @param pool the buffers of the pool
+    * @param interval the time between rounds, in milliseconds
+    * @param maxpages the maximum number of pages cleaned per round
+    * @param lowwater the fraction of dirty buffers at which a round stops
+    * @param highwater the fraction of dirty buffers at which a round starts
+    */
+   BufferWriter(BufferMgr bm, Buffer[] pool, long interval, int maxpages,
+                double lowwater, double highwater) {
+      this.bm = bm;
+      this.pool = pool;
+      this.interval = interval;
+      this.maxpages = maxpages;
+      this.lowwater = lowwater;
+      this.highwater = highwater;
+   }
+
+   public void run() {
+      while (!stopped) {
+         synchronized (this) {
+            try {
+               wait(interval);
+            }
+            catch (InterruptedException e) {
+               return;
+            }
+         }
+         if (!stopped)
+            cleanRound();
+      }
+   }
+
+   /**
+    * Stops the writer after its current round.
+    */
+   synchronized void stop() {
+      stopped = true;
+      notifyAll();
+   }
+
+   private void cleanRound() {
+      int dirty = 0;
+      for (Buffer buff : pool)
+         if (buff.isDirty() && !buff.isPinned())
+            dirty++;
+      if (dirty < highwater * pool.length)
+         return;
+      int target = (int) (lowwater * pool.length);
+      int cleaned = 0;
+      for (int i=0; i<pool.length && cleaned<maxpages && dirty>target; i++) {
+         Buffer buff = pool[hand];
+         hand = (hand + 1) % pool.length;
+         if (buff.isDirty() && bm.clean(buff)) {
+            cleaned++;
+            dirty--;
+         }
+      }
+   }
+}
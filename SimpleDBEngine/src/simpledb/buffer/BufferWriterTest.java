@@ -0,0 +1,71 @@
+package simpledb.buffer;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+
+/**
+ * Checks the background writer.
+ * Dirty unpinned buffers must reach the disk without anyone
+ * flushing them, a pinned buffer must be left alone,
+ * and a pin that then replaces the cleaned buffers
+ * must not have to write any of them itself.
+ */
+public class BufferWriterTest {
+   private static final int BUFFERS = 8;
+   private static final String FILENAME = "writertest";
+   private static int failures = 0;
+
+   public static void main(String[] args) throws InterruptedException {
+      SimpleDB.BACKGROUND_WRITER = false;
+      SimpleDB db = new SimpleDB("bufferwritertest", 400, BUFFERS);
+      FileMgr fm = db.fileMgr();
+      BufferMgr bm = db.bufferMgr();
+      Page p = new Page(fm.blockSize());
+      for (int i=0; i<BUFFERS; i++)
+         fm.write(new BlockId(FILENAME, i), p);
+
+      // dirty half the pool, and keep the last buffer pinned
+      Buffer pinned = null;
+      for (int i=0; i<BUFFERS/2; i++) {
+         Buffer buff = bm.pin(new BlockId(FILENAME, i));
+         buff.contents().setInt(0, 100 + i);
+         buff.setModified(1, -1);
+         if (i < BUFFERS/2 - 1)
+            bm.unpin(buff);
+         else
+            pinned = buff;
+      }
+      bm.startBackgroundWriter(10, 64, 0.0, 0.1);
+      long deadline = System.currentTimeMillis() + 5000;
+      while (bm.pagesCleanedByWriter() < BUFFERS/2 - 1
+            && System.currentTimeMillis() < deadline)
+         Thread.sleep(10);
+
+      check(bm.pagesCleanedByWriter() == BUFFERS/2 - 1,
+            "the writer cleaned " + bm.pagesCleanedByWriter() + " pages");
+      for (int i=0; i<BUFFERS/2 - 1; i++) {
+         fm.read(new BlockId(FILENAME, i), p);
+         check(p.getInt(0) == 100 + i, "block " + i + " did not reach the disk");
+      }
+      check(pinned.isDirty(), "the writer cleaned a pinned buffer");
+      fm.read(pinned.block(), p);
+      check(p.getInt(0) == 0, "the writer wrote a pinned buffer");
+
+      // replacing the cleaned buffers writes nothing
+      bm.stopBackgroundWriter();
+      for (int i=BUFFERS; i<2*BUFFERS-1; i++)
+         bm.unpin(bm.pin(new BlockId(FILENAME, i)));
+      check(bm.pagesCleanedByEviction() == 0,
+            "pins wrote " + bm.pagesCleanedByEviction() + " pages themselves");
+      bm.unpin(pinned);
+      System.out.println(failures == 0 ? "BufferWriterTest passed"
+                                       : "BufferWriterTest: " + failures + " failures");
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
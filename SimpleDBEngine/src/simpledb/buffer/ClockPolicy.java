@@ -0,0 +1,49 @@
+package simpledb.buffer;
+
+/**
+ * The clock (second-chance) replacement policy.
+ * Each buffer has a reference bit that is set when it is pinned.
+ * The clock hand sweeps the pool, clearing reference bits,
+ * and chooses the first unpinned buffer whose bit is already clear.
+ * Setting a reference bit needs no synchronization,
+ * so pinning a resident block never takes a lock.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+   private Buffer[] pool;
+   private boolean[] referenced;
+   private int hand = 0;
+
+   public void init(Buffer[] bufferpool) {
+      pool = bufferpool;
+      referenced = new boolean[pool.length];
+   }
+
+   public void pinned(Buffer buff) {
+      referenced[buff.index()] = true;
+   }
+
+   public void unpinned(Buffer buff) {
+   }
+
+   /**
+    * Sweeps the pool at most twice: the first sweep may
+    * only clear reference bits, the second finds a victim
+    * unless every buffer is pinned.
+    */
+   public Buffer chooseUnpinnedBuffer() {
+      for (int i=0; i<2*pool.length; i++) {
+         Buffer buff = pool[hand];
+         int current = hand;
+         hand = (hand + 1) % pool.length;
+         if (buff.isPinned())
+            continue;
+         if (!referenced[current])
+            return buff;
+         referenced[current] = false;
+      }
+      return null;
+   }
+
+   public void claimed(Buffer buff) {
+   }
+}
@@ -0,0 +1,129 @@
+package simpledb.buffer;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+
+/**
+ * Checks the buffer manager under concurrent pins and unpins.
+ * More threads than buffers pin blocks of a file larger than the pool,
+ * so that pins hit, miss, replace and wait at the same time.
+ * Every pin must give a buffer holding its block's latest contents,
+ * no update may be lost when a modified buffer is replaced,
+ * and every buffer must be available again at the end.
+ * Finally, while a woken waiter writes out a dirty victim,
+ * an unpin must be able to wake the next waiter
+ * without waiting for the write.
+ */
+public class ConcurrentPinTest {
+   private static final int THREADS = 16;
+   private static final int BUFFERS = 8;
+   private static final int BLOCKS = 32;
+   private static final int ROUNDS = 2000;  // per thread
+   private static final String FILENAME = "pintest";
+   private static int failures = 0;
+
+   public static void main(String[] args) throws InterruptedException {
+      SimpleDB db = new SimpleDB("concurrentpintest", 400, BUFFERS);
+      FileMgr fm = db.fileMgr();
+      BufferMgr bm = db.bufferMgr();
+      Page p = new Page(fm.blockSize());
+      for (int i=0; i<BLOCKS; i++) {
+         p.setInt(0, i);
+         p.setInt(4, 0);
+         fm.write(new BlockId(FILENAME, i), p);
+      }
+
+      // an update of a block holds the block's lock, not the buffer's,
+      // so an update made in a second buffer for the block is lost
+      Object[] blklocks = new Object[BLOCKS];
+      for (int i=0; i<BLOCKS; i++)
+         blklocks[i] = new Object();
+      Thread[] threads = new Thread[THREADS];
+      int[] errors = new int[THREADS];
+      int[][] updates = new int[THREADS][BLOCKS];
+      for (int t=0; t<THREADS; t++) {
+         int id = t;
+         threads[t] = new Thread(() -> {
+            Random rand = new Random(id);
+            for (int i=0; i<ROUNDS; i++) {
+               int blknum = rand.nextInt(BLOCKS);
+               BlockId blk = new BlockId(FILENAME, blknum);
+               Buffer buff = bm.pin(blk);
+               if (!buff.block().equals(blk) || buff.contents().getInt(0) != blknum)
+                  errors[id]++;
+               synchronized (blklocks[blknum]) {
+                  Page bp = buff.contents();
+                  bp.setInt(4, bp.getInt(4) + 1);
+                  buff.setModified(id, -1);
+               }
+               updates[id][blknum]++;
+               bm.unpin(buff);
+            }
+         });
+         threads[t].start();
+      }
+      for (Thread t : threads)
+         t.join();
+
+      for (int t=0; t<THREADS; t++)
+         check(errors[t] == 0, "thread " + t + " was given " + errors[t] + " wrong buffers");
+      check(bm.available() == BUFFERS, bm.available() + " buffers are available");
+      for (int t=0; t<THREADS; t++)
+         bm.flushAll(t);
+      for (int i=0; i<BLOCKS; i++) {
+         fm.read(new BlockId(FILENAME, i), p);
+         int expected = 0;
+         for (int t=0; t<THREADS; t++)
+            expected += updates[t][i];
+         check(p.getInt(4) == expected, "block " + i + " holds " + p.getInt(4)
+               + " updates instead of " + expected);
+      }
+      unpinDuringWrite();
+      System.out.println(failures == 0 ? "ConcurrentPinTest passed"
+                                       : "ConcurrentPinTest: " + failures + " failures");
+   }
+
+   private static void unpinDuringWrite() throws InterruptedException {
+      CountDownLatch writing = new CountDownLatch(1), proceed = new CountDownLatch(1);
+      FileMgr fm = new FileMgr(new File("concurrentpintest"), 400) {
+         public void write(BlockId blk, Page p) {
+            if (blk.fileName().equals(FILENAME)) {
+               writing.countDown();
+               try {
+                  proceed.await();
+               }
+               catch (InterruptedException e) {}
+            }
+            super.write(blk, p);
+         }
+      };
+      BufferMgr bm = new BufferMgr(fm, new LogMgr(fm, "pintest.log"), 2);
+      Buffer buff0 = bm.pin(new BlockId(FILENAME, 0));
+      buff0.setModified(1, -1);
+      Buffer buff1 = bm.pin(new BlockId(FILENAME, 1));
+      Thread waiter = new Thread(() -> bm.pin(new BlockId(FILENAME, 2)));
+      waiter.start();
+      while (waiter.getState() != Thread.State.TIMED_WAITING)
+         Thread.sleep(1);
+      bm.unpin(buff0);  // the waiter claims it and writes it out
+      writing.await();
+      Thread unpinner = new Thread(() -> bm.unpin(buff1));
+      unpinner.start();
+      unpinner.join(1000);
+      check(!unpinner.isAlive(), "an unpin waited for a pin's write");
+      proceed.countDown();
+      waiter.join();
+      unpinner.join();
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
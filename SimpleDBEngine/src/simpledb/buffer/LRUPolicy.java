@@ -0,0 +1,34 @@
+package simpledb.buffer;
+
+import java.util.*;
+
+/**
+ * The least-recently-used replacement policy.
+ * Buffers are kept in order of their most recent pin;
+ * the victim is the unpinned buffer pinned longest ago.
+ */
+public class LRUPolicy implements ReplacementPolicy {
+   private LinkedHashSet<Buffer> order = new LinkedHashSet<>();
+
+   public synchronized void init(Buffer[] bufferpool) {
+      order.addAll(Arrays.asList(bufferpool));
+   }
+
+   public synchronized void pinned(Buffer buff) {
+      order.remove(buff);
+      order.add(buff);
+   }
+
+   public synchronized void unpinned(Buffer buff) {
+   }
+
+   public synchronized Buffer chooseUnpinnedBuffer() {
+      for (Buffer buff : order)
+         if (!buff.isPinned())
+            return buff;
+      return null;
+   }
+
+   public synchronized void claimed(Buffer buff) {
+   }
+}
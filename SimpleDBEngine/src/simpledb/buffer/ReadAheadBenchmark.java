@@ -0,0 +1,54 @@
+package simpledb.buffer;
+
+import simpledb.file.*;
+import simpledb.server.SimpleDB;
+
+/**
+ * Measures the time of a sequential scan through the
+ * buffer manager with and without read-ahead.
+ * Each pinned block is processed for a while before it is
+ * unpinned, so that with read-ahead the reads of the next
+ * blocks overlap with the processing of the current one.
+ * For realistic numbers the file should not be in the
+ * operating system's cache; run the benchmark once to create
+ * the file, drop the cache, and run it again.
+ */
+public class ReadAheadBenchmark {
+   private static final String FILENAME = "scanbench";
+   private static final int BLOCK_SIZE = 4096;
+   private static final int NUM_BLOCKS = 20000;
+   private static final int NUM_BUFFS = 256;
+   private static final int WORK_PASSES = 4;
+
+   public static void main(String[] args) {
+      for (int window : new int[] {0, 8, 32}) {
+         SimpleDB.READ_AHEAD = window;
+         SimpleDB db = new SimpleDB("readaheadbenchmark", BLOCK_SIZE, NUM_BUFFS);
+         FileMgr fm = db.fileMgr();
+         while (fm.length(FILENAME) < NUM_BLOCKS)
+            fm.append(FILENAME);
+         BufferMgr bm = db.bufferMgr();
+
+         long start = System.nanoTime();
+         long checksum = scan(bm);
+         long ms = (System.nanoTime() - start) / 1000000;
+         System.out.printf("read-ahead %2d: %6d ms  prefetched %6d  used %6d  (%d)%n",
+                           window, ms, bm.pagesPrefetched(), bm.prefetchHits(), checksum);
+         bm.stopReadAhead();
+         bm.stopBackgroundWriter();
+      }
+   }
+
+   private static long scan(BufferMgr bm) {
+      long sum = 0;
+      for (int b=0; b<NUM_BLOCKS; b++) {
+         Buffer buff = bm.pin(new BlockId(FILENAME, b));
+         Page p = buff.contents();
+         for (int pass=0; pass<WORK_PASSES; pass++)
+            for (int pos=0; pos+4<=BLOCK_SIZE; pos+=4)
+               sum += p.getInt(pos);
+         bm.unpin(buff);
+      }
+      return sum;
+   }
+}
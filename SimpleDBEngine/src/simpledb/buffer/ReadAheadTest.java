@@ -0,0 +1,71 @@
+package simpledb.buffer;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+
+/**
+ * Checks read-ahead in the buffer manager.
+ * A sequential reader must find most of its blocks
+ * already read ahead, with their correct contents;
+ * a prefetch request must bring its blocks into the pool;
+ * and the prefetched blocks that have not been pinned
+ * must never exceed a quarter of the pool.
+ */
+public class ReadAheadTest {
+   private static final int BUFFERS = 32;
+   private static final int BLOCKS = 64;
+   private static final String FILENAME = "readahead";
+   private static BufferMgr bm;
+   private static int failures = 0;
+
+   public static void main(String[] args) throws InterruptedException {
+      SimpleDB.READ_AHEAD = 0;
+      SimpleDB db = new SimpleDB("readaheadtest", 400, BUFFERS);
+      FileMgr fm = db.fileMgr();
+      bm = db.bufferMgr();
+      Page p = new Page(fm.blockSize());
+      for (int i=0; i<BLOCKS; i++) {
+         p.setInt(0, i);
+         fm.write(new BlockId(FILENAME, i), p);
+      }
+      bm.startReadAhead(4, 2);
+
+      // a sequential reader that spends some time on each block
+      int wrong = 0;
+      for (int i=0; i<BLOCKS/2; i++) {
+         Buffer buff = bm.pin(new BlockId(FILENAME, i));
+         if (buff.contents().getInt(0) != i)
+            wrong++;
+         Thread.sleep(5);
+         bm.unpin(buff);
+      }
+      check(wrong == 0, wrong + " blocks had the wrong contents");
+      check(bm.pagesPrefetched() > 0, "nothing was read ahead");
+      check(bm.prefetchHits() >= BLOCKS/4,
+            "only " + bm.prefetchHits() + " pins found their block read ahead");
+      check(bm.available() == BUFFERS, bm.available() + " buffers are available");
+
+      // an explicit request, longer than the cap allows
+      long before = bm.pagesPrefetched();
+      bm.prefetch(FILENAME, BLOCKS/2, BLOCKS/2, null);
+      Thread.sleep(500);
+      long prefetched = bm.pagesPrefetched() - before;
+      check(prefetched > 0, "the prefetch request read nothing");
+      check(prefetched <= BUFFERS/4, prefetched + " blocks were prefetched at once");
+      long hits = bm.hits();
+      Buffer buff = bm.pin(new BlockId(FILENAME, BLOCKS/2));
+      check(bm.hits() == hits + 1, "a prefetched block was not in the pool");
+      check(buff.contents().getInt(0) == BLOCKS/2, "a prefetched block has the wrong contents");
+      bm.unpin(buff);
+      bm.stopReadAhead();
+      System.out.println(failures == 0 ? "ReadAheadTest passed"
+                                       : "ReadAheadTest: " + failures + " failures");
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
@@ -0,0 +1,60 @@
+package simpledb.buffer;
+
+/**
+ * The strategy that the buffer manager uses to choose
+ * which unpinned buffer to replace.
+ * The buffer manager tells the policy about every pin and unpin,
+ * and asks it for a victim whenever a block is not in the pool.
+ * The buffer manager calls {@link #chooseUnpinnedBuffer()}
+ * and {@link #claimed(Buffer)} while synchronized on the
+ * policy object, but it calls
+ * {@link #pinned(Buffer)} and {@link #unpinned(Buffer)}
+ * without any lock, concurrently from many threads.
+ * A policy that needs to update shared structures on a pin
+ * must therefore synchronize those methods itself.
+ * @see ClockPolicy
+ * @see LRUPolicy
+ * @see TwoQueuePolicy
+ */
+public interface ReplacementPolicy {
+   /**
+    * Initializes the policy for the specified buffer pool.
+    * All buffers are initially unpinned and unassigned.
+    * @param bufferpool the buffers managed by the policy
+    */
+   void init(Buffer[] bufferpool);
+
+   /**
+    * Called each time a buffer is pinned.
+    * If the buffer was just chosen as a victim,
+    * it is already assigned to its new block.
+    * @param buff the pinned buffer
+    */
+   void pinned(Buffer buff);
+
+   /**
+    * Called when the pin count of a buffer drops to zero.
+    * @param buff the unpinned buffer
+    */
+   void unpinned(Buffer buff);
+
+   /**
+    * Chooses an unpinned buffer to be replaced.
+    * The chosen buffer is still assigned to its old block
+    * (if any) when this method is called.
+    * The buffer manager may fail to claim it, if a concurrent
+    * pin gets there first, so the policy must not yet treat it
+    * as evicted.
+    * @return an unpinned buffer, or null if all buffers are pinned
+    */
+   Buffer chooseUnpinnedBuffer();
+
+   /**
+    * Called when the buffer manager has claimed the buffer
+    * last chosen by {@link #chooseUnpinnedBuffer()},
+    * just before reassigning it.
+    * The buffer is still assigned to its old block (if any).
+    * @param buff the claimed buffer
+    */
+   void claimed(Buffer buff);
+}
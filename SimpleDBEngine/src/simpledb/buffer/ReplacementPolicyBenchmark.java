@@ -0,0 +1,93 @@
+package simpledb.buffer;
+
+import java.util.Random;
+import java.util.function.Supplier;
+import simpledb.file.*;
+import simpledb.server.SimpleDB;
+
+/**
+ * Compares the hit ratios of the replacement policies
+ * on a Zipfian workload, with and without an occasional
+ * sequential scan mixed in.
+ */
+public class ReplacementPolicyBenchmark {
+   private static final String FILENAME = "policybench";
+   private static final int NUM_BLOCKS = 2000;
+   private static final int NUM_BUFFS = 100;
+   private static final int NUM_PINS = 200000;
+   private static final double SKEW = 0.99;
+   private static final int SCAN_EVERY = 20000;
+
+   public static void main(String[] args) {
+      SimpleDB.READ_AHEAD = 0;  // measure the policies alone
+      run("clock", ClockPolicy::new);
+      run("lru", LRUPolicy::new);
+      run("2q", TwoQueuePolicy::new);
+   }
+
+   private static void run(String name, Supplier<ReplacementPolicy> policy) {
+      double zipf = hitRatio(policy.get(), false);
+      double scans = hitRatio(policy.get(), true);
+      System.out.printf("%-6s zipfian: %5.1f%%   zipfian+scans: %5.1f%%%n",
+                        name, 100*zipf, 100*scans);
+   }
+
+   private static double hitRatio(ReplacementPolicy policy, boolean withScans) {
+      SimpleDB db = new SimpleDB("policybenchmark", 400, NUM_BUFFS, policy);
+      FileMgr fm = db.fileMgr();
+      while (fm.length(FILENAME) < NUM_BLOCKS)
+         fm.append(FILENAME);
+      BufferMgr bm = db.bufferMgr();
+      ZipfGenerator gen = new ZipfGenerator(NUM_BLOCKS, SKEW, new Random(42));
+
+      long hits0 = bm.hits(), misses0 = bm.misses();
+      for (int i=1; i<=NUM_PINS; i++) {
+         access(bm, gen.next());
+         if (withScans && i % SCAN_EVERY == 0)
+            for (int b=0; b<NUM_BLOCKS; b++)
+               access(bm, b);
+      }
+      long hits = bm.hits() - hits0, misses = bm.misses() - misses0;
+      return (double) hits / (hits + misses);
+   }
+
+   private static void access(BufferMgr bm, int blknum) {
+      Buffer buff = bm.pin(new BlockId(FILENAME, blknum));
+      bm.unpin(buff);
+   }
+
+   /**
+    * Generates integers in [0, n) whose frequencies follow
+    * a Zipf distribution with the specified skew:
+    * value k is chosen with probability proportional to 1/(k+1)^skew.
+    */
+   static class ZipfGenerator {
+      private double[] cdf;
+      private Random rand;
+
+      ZipfGenerator(int n, double skew, Random rand) {
+         this.rand = rand;
+         cdf = new double[n];
+         double sum = 0;
+         for (int k=0; k<n; k++) {
+            sum += 1.0 / Math.pow(k+1, skew);
+            cdf[k] = sum;
+         }
+         for (int k=0; k<n; k++)
+            cdf[k] /= sum;
+      }
+
+      int next() {
+         double u = rand.nextDouble();
+         int lo = 0, hi = cdf.length - 1;
+         while (lo < hi) {
+            int mid = (lo + hi) / 2;
+            if (cdf[mid] < u)
+               lo = mid + 1;
+            else
+               hi = mid;
+         }
+         return lo;
+      }
+   }
+}
@@ -0,0 +1,117 @@
+package simpledb.buffer;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.BlockId;
+
+/**
+ * Checks the victims chosen by the replacement policies.
+ * LRU replaces the block pinned longest ago, and the clock
+ * replaces the first block whose reference bit it finds clear.
+ * Under 2Q, blocks that have proven hot survive a scan
+ * of more blocks than the pool holds, which LRU does not.
+ * A victim that the buffer manager fails to claim
+ * must remain available to 2Q.
+ */
+public class ReplacementPolicyTest {
+   private static BufferMgr bm;
+   private static int failures = 0;
+
+   public static void main(String[] args) {
+      lru();
+      clock();
+      scan(new TwoQueuePolicy(), true);
+      scan(new LRUPolicy(), false);
+      failedClaims();
+      System.out.println(failures == 0 ? "ReplacementPolicyTest passed"
+                                       : "ReplacementPolicyTest: " + failures + " failures");
+   }
+
+   /**
+    * Blocks 0, 1 and 2 fill the pool, and block 0 is pinned again.
+    * Block 3 must replace block 1.
+    */
+   private static void lru() {
+      open("lru", 3, new LRUPolicy());
+      access(0, 1, 2, 0, 3);
+      check(isResident(0) && isResident(2), "LRU replaced a recently used block");
+      check(!isResident(1), "LRU did not replace the least recently used block");
+   }
+
+   /**
+    * Blocks 0, 1 and 2 fill the pool, so all their reference
+    * bits are set. The clock clears them all, and block 3
+    * must replace block 0, where the hand started.
+    */
+   private static void clock() {
+      open("clock", 3, new ClockPolicy());
+      access(0, 1, 2, 3);
+      check(isResident(1) && isResident(2), "the clock replaced the wrong block");
+      check(!isResident(0), "the clock did not replace the block under its hand");
+   }
+
+   /**
+    * Blocks 100 and 101 are read, pushed out of the pool by a
+    * first scan, and read again; then a second, longer scan runs.
+    * Under 2Q the blocks are hot after their second read,
+    * so they must survive the second scan.
+    */
+   private static void scan(ReplacementPolicy policy, boolean survives) {
+      String name = policy.getClass().getSimpleName();
+      open("scan" + name, 8, policy);
+      access(100, 101);
+      for (int i=0; i<8; i++)
+         access(i);
+      access(100, 101);
+      for (int i=8; i<28; i++)
+         access(i);
+      boolean resident = isResident(100) && isResident(101);
+      check(resident == survives, name + (survives ? " lost" : " kept")
+            + " the hot blocks during a scan");
+   }
+
+   /**
+    * 2Q is asked for more victims than the pool has buffers,
+    * and none of them is claimed, as when concurrent pins get
+    * there first. The buffers must still be offered.
+    */
+   private static void failedClaims() {
+      SimpleDB db = new SimpleDB("replacementpolicytest/claims", 400, 2);
+      Buffer[] pool = { new Buffer(db.fileMgr(), db.logMgr(), 0),
+                        new Buffer(db.fileMgr(), db.logMgr(), 1) };
+      ReplacementPolicy policy = new TwoQueuePolicy();
+      policy.init(pool);
+      for (int i=0; i<3; i++)
+         policy.chooseUnpinnedBuffer();
+      Buffer buff = policy.chooseUnpinnedBuffer();
+      check(buff != null, "2Q lost the victims that were not claimed");
+      policy.claimed(buff);
+      check(policy.chooseUnpinnedBuffer() != buff, "2Q offered a claimed victim again");
+   }
+
+   private static void open(String dirname, int numbuffs, ReplacementPolicy policy) {
+      SimpleDB db = new SimpleDB("replacementpolicytest/" + dirname, 400, numbuffs, policy);
+      bm = db.bufferMgr();
+   }
+
+   private static void access(int... blknums) {
+      for (int blknum : blknums)
+         bm.unpin(bm.pin(new BlockId("testfile", blknum)));
+   }
+
+   /**
+    * Returns true if pinning the block is a hit;
+    * a miss replaces another block, as any access does.
+    */
+   private static boolean isResident(int blknum) {
+      long hits = bm.hits();
+      access(blknum);
+      return bm.hits() > hits;
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
@@ -0,0 +1,90 @@
+package simpledb.buffer;
+
+import java.util.*;
+import simpledb.file.BlockId;
+
+/**
+ * The 2Q replacement policy of Johnson and Shasha.
+ * A block read into the pool for the first time enters
+ * the FIFO queue A1in; repeated pins while it is there
+ * are treated as correlated references and do not promote it.
+ * When a block is evicted from A1in, its id is remembered
+ * in the ghost queue A1out. A block that is read again while
+ * its id is in A1out has proven to be hot, and enters the
+ * LRU queue Am. Victims are taken from A1in while it exceeds
+ * its share of the pool, and otherwise from the LRU end of Am.
+ * As a result, a single scan cannot flush the hot pages from Am.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+   private Deque<Buffer> free = new ArrayDeque<>();
+   private LinkedHashSet<Buffer> a1in = new LinkedHashSet<>();
+   private LinkedHashSet<Buffer> am = new LinkedHashSet<>();
+   private LinkedHashSet<BlockId> a1out = new LinkedHashSet<>();
+   private int kin, kout;
+
+   public synchronized void init(Buffer[] bufferpool) {
+      free.addAll(Arrays.asList(bufferpool));
+      kin  = Math.max(1, bufferpool.length / 4);
+      kout = Math.max(1, bufferpool.length / 2);
+   }
+
+   public synchronized void pinned(Buffer buff) {
+      if (am.remove(buff))
+         am.add(buff);
+      else if (!a1in.contains(buff)) {
+         // the buffer has just been assigned to a new block
+         if (a1out.remove(buff.block()))
+            am.add(buff);
+         else
+            a1in.add(buff);
+      }
+   }
+
+   public synchronized void unpinned(Buffer buff) {
+   }
+
+   /**
+    * Chooses a victim without removing it from its queue,
+    * since the buffer manager may fail to claim it.
+    */
+   public synchronized Buffer chooseUnpinnedBuffer() {
+      Buffer buff = free.peek();
+      if (buff != null)
+         return buff;
+      if (a1in.size() > kin || firstUnpinned(am) == null) {
+         buff = firstUnpinned(a1in);
+         if (buff != null)
+            return buff;
+      }
+      return firstUnpinned(am);
+   }
+
+   /**
+    * Removes the claimed victim from its queue;
+    * a victim from A1in has its block remembered in A1out.
+    */
+   public synchronized void claimed(Buffer buff) {
+      if (free.remove(buff))
+         return;
+      if (a1in.remove(buff))
+         remember(buff.block());
+      else
+         am.remove(buff);
+   }
+
+   private Buffer firstUnpinned(Collection<Buffer> queue) {
+      for (Buffer buff : queue)
+         if (!buff.isPinned())
+            return buff;
+      return null;
+   }
+
+   private void remember(BlockId blk) {
+      a1out.add(blk);
+      if (a1out.size() > kout) {
+         Iterator<BlockId> iter = a1out.iterator();
+         iter.next();
+         iter.remove();
+      }
+   }
+}
@@ -1,17 +1,62 @@
 package simpledb.file;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * The file manager, which reads and writes blocks of the
+ * database files.
+ * Reads and writes use positional channel I/O, so they
+ * do not share a file pointer and need no locking:
+ * requests for different blocks (of the same or of different
+ * files) can proceed concurrently.
+ * The only operation that needs coordination is append,
+ * which is serialized per file by synchronizing on that
+ * file's channel.
+ * <P>
+ * In mapped mode, database files (other than temporary tables)
+ * are also memory-mapped, and blocks are copied to and from
+ * the mapping instead of issuing a read or write system call.
+ * Pages are still private copies of their blocks, so a modified
+ * page reaches the file only when it is explicitly written,
+ * which preserves the write-ahead rule enforced by the buffers.
+ * <P>
+ * Files are opened without synchronous writes.
+ * Instead, the clients decide when their writes must be durable
+ * and call {@link #force(String)} or {@link #forceAll()} at those points.
+ * Concurrent forces of the same file are combined:
+ * a caller whose writes were covered by a force
+ * that finished while it waited does not force again.
+ * Temporary tables are never forced.
+ */
 public class FileMgr {
    private File dbDirectory;
    private int blocksize;
    private boolean isNew;
-   private Map<String,RandomAccessFile> openFiles = new HashMap<>();
+   private boolean mapped;
+   private Map<String,FileChannel> openFiles = new ConcurrentHashMap<>();
+   private Map<String,MappedFile> mappedFiles = new ConcurrentHashMap<>();
+   private Map<String,SyncState> syncStates = new ConcurrentHashMap<>();
+   private AtomicLong numForces = new AtomicLong();
 
    public FileMgr(File dbDirectory, int blocksize) {
+      this(dbDirectory, blocksize, false);
+   }
+
+   /**
+    * Creates a file manager for the specified database directory.
+    * @param dbDirectory the database directory
+    * @param blocksize the block size
+    * @param mapped true if the database files should be memory-mapped
+    */
+   public FileMgr(File dbDirectory, int blocksize, boolean mapped) {
       this.dbDirectory = dbDirectory;
       this.blocksize = blocksize;
+      this.mapped = mapped;
       isNew = !dbDirectory.exists();
 
       // create the directory if the database is new
@@ -24,36 +69,78 @@ public class FileMgr {
          		new File(dbDirectory, filename).delete();
    }
 
-   public synchronized void read(BlockId blk, Page p) {
+   /**
+    * Reads the contents of the specified block into the page.
+    * If the block lies (partly) beyond the end of the file,
+    * the missing bytes of the page are set to zero.
+    * @param blk a reference to a disk block
+    * @param p the page to read into
+    */
+   public void read(BlockId blk, Page p) {
       try {
-         RandomAccessFile f = getFile(blk.fileName());
-         f.seek(blk.number() * blocksize);
-         f.getChannel().read(p.contents());
+         ByteBuffer bb = p.contents();
+         MappedFile mf = getMappedFile(blk.fileName());
+         if (mf != null && bb.remaining() == blocksize && mf.read(blk.number(), bb))
+            return;
+         FileChannel fc = getFile(blk.fileName());
+         long pos = position(blk);
+         while (bb.hasRemaining()) {
+            int n = fc.read(bb, pos + bb.position());
+            if (n < 0)
+               break;
+         }
+         while (bb.hasRemaining())
+            bb.put((byte) 0);
       }
       catch (IOException e) {
          throw new RuntimeException("cannot read block " + blk);
       }
    }
 
-   public synchronized void write(BlockId blk, Page p) {
+   /**
+    * Writes the contents of the page to the specified block.
+    * A page that spans several blocks is written
+    * to consecutive blocks with a single write.
+    * @param blk a reference to a disk block
+    * @param p the page to write
+    */
+   public void write(BlockId blk, Page p) {
       try {
-         RandomAccessFile f = getFile(blk.fileName());
-         f.seek(blk.number() * blocksize);
-         f.getChannel().write(p.contents());
+         ByteBuffer bb = p.contents();
+         MappedFile mf = getMappedFile(blk.fileName());
+         if (mf == null || bb.remaining() != blocksize || !mf.write(blk.number(), bb)) {
+            FileChannel fc = getFile(blk.fileName());
+            long pos = position(blk);
+            while (bb.hasRemaining())
+               fc.write(bb, pos + bb.position());
+         }
+         noteWrite(blk.fileName());
       }
       catch (IOException e) {
          throw new RuntimeException("cannot write block" + blk);
       }
    }
 
-   public synchronized BlockId append(String filename) {
-      int newblknum = length(filename);
-      BlockId blk = new BlockId(filename, newblknum);
-      byte[] b = new byte[blocksize];
+   /**
+    * Appends a new, zeroed block to the end of the file.
+    * Appends to the same file are serialized, so that
+    * concurrent appenders receive distinct blocks.
+    * @param filename the name of the file
+    * @return a reference to the new block
+    */
+   public BlockId append(String filename) {
+      BlockId blk = null;
       try {
-         RandomAccessFile f = getFile(blk.fileName());
-         f.seek(blk.number() * blocksize);
-         f.write(b);
+         FileChannel fc = getFile(filename);
+         synchronized (fc) {
+            int newblknum = (int)(fc.size() / blocksize);
+            blk = new BlockId(filename, newblknum);
+            ByteBuffer bb = ByteBuffer.allocate(blocksize);
+            long pos = position(blk);
+            while (bb.hasRemaining())
+               fc.write(bb, pos + bb.position());
+         }
+         noteWrite(filename);
       }
       catch (IOException e) {
          throw new RuntimeException("cannot append block" + blk);
@@ -63,29 +150,159 @@ public class FileMgr {
 
    public int length(String filename) {
       try {
-         RandomAccessFile f = getFile(filename);
-         return (int)(f.length() / blocksize);
+         FileChannel fc = getFile(filename);
+         return (int)(fc.size() / blocksize);
       }
       catch (IOException e) {
          throw new RuntimeException("cannot access " + filename);
       }
    }
 
+   /**
+    * Makes all previous writes to the specified file durable.
+    * The method does nothing if the file has not been written
+    * since it was last forced.
+    * @param filename the name of the file
+    */
+   public void force(String filename) {
+      SyncState st = syncStates.get(filename);
+      if (st == null)
+         return;
+      long target = st.writes.get();
+      synchronized (st) {
+         if (st.synced >= target)
+            return;
+         long upto = st.writes.get();
+         try {
+            MappedFile mf = mappedFiles.get(filename);
+            if (mf != null)
+               mf.force();
+            getFile(filename).force(false);
+            numForces.incrementAndGet();
+         }
+         catch (IOException e) {
+            throw new RuntimeException("cannot force " + filename);
+         }
+         st.synced = upto;
+      }
+   }
+
+   /**
+    * Makes all previous writes to the (non-temporary) files durable.
+    */
+   public void forceAll() {
+      for (String filename : syncStates.keySet())
+         force(filename);
+   }
+
+   /**
+    * Returns the number of times a file has been forced to disk.
+    * @return the number of forces
+    */
+   public long forceCount() {
+      return numForces.get();
+   }
+
+   /**
+    * Returns the names of the files in the database directory
+    * that start with the specified prefix.
+    * @param prefix the beginning of the file names
+    * @return the names of those files
+    */
+   public List<String> files(String prefix) {
+      List<String> result = new ArrayList<>();
+      for (String filename : dbDirectory.list())
+         if (filename.startsWith(prefix))
+            result.add(filename);
+      return result;
+   }
+
+   /**
+    * Closes the specified file if it is open, and deletes it.
+    * @param filename the name of the file
+    */
+   public void delete(String filename) {
+      synchronized (openFiles) {
+         FileChannel fc = openFiles.remove(filename);
+         mappedFiles.remove(filename);
+         syncStates.remove(filename);
+         try {
+            if (fc != null)
+               fc.close();
+         }
+         catch (IOException e) {
+            throw new RuntimeException("cannot close " + filename);
+         }
+      }
+      new File(dbDirectory, filename).delete();
+   }
+
+   public boolean isMapped() {
+      return mapped;
+   }
+
    public boolean isNew() {
       return isNew;
    }
-   
+
    public int blockSize() {
       return blocksize;
    }
 
-   private RandomAccessFile getFile(String filename) throws IOException {
-      RandomAccessFile f = openFiles.get(filename);
-      if (f == null) {
-         File dbTable = new File(dbDirectory, filename);
-         f = new RandomAccessFile(dbTable, "rws");
-         openFiles.put(filename, f);
+   private void noteWrite(String filename) {
+      SyncState st = syncStates.get(filename);
+      if (st != null)
+         st.writes.incrementAndGet();
+   }
+
+   private long position(BlockId blk) {
+      return (long) blk.number() * blocksize;
+   }
+
+   /**
+    * Returns the mapping of the specified file,
+    * or null if the file is not to be mapped.
+    */
+   private MappedFile getMappedFile(String filename) throws IOException {
+      if (!mapped || filename.startsWith("temp"))
+         return null;
+      MappedFile mf = mappedFiles.get(filename);
+      if (mf == null) {
+         FileChannel fc = getFile(filename);
+         synchronized (openFiles) {
+            mf = mappedFiles.get(filename);
+            if (mf == null) {
+               mf = new MappedFile(fc, blocksize);
+               mappedFiles.put(filename, mf);
+            }
+         }
+      }
+      return mf;
+   }
+
+   private FileChannel getFile(String filename) throws IOException {
+      FileChannel fc = openFiles.get(filename);
+      if (fc == null) {
+         synchronized (openFiles) {
+            fc = openFiles.get(filename);
+            if (fc == null) {
+               File dbTable = new File(dbDirectory, filename);
+               fc = new RandomAccessFile(dbTable, "rw").getChannel();
+               if (!filename.startsWith("temp"))
+                  syncStates.put(filename, new SyncState());
+               openFiles.put(filename, fc);
+            }
+         }
       }
-      return f;
+      return fc;
+   }
+
+   /**
+    * The number of writes issued to a file,
+    * and how many of them are known to be durable.
+    */
+   private static class SyncState {
+      AtomicLong writes = new AtomicLong();
+      long synced = 0;
    }
 }
@@ -0,0 +1,92 @@
+package simpledb.file;
+
+import java.util.*;
+import simpledb.server.SimpleDB;
+
+/**
+ * Checks the file manager under concurrent use.
+ * Threads that write and read different blocks of the same file
+ * at the same time must each read back what they wrote,
+ * concurrent appenders must get distinct blocks,
+ * and a read past the end of a file must give a zeroed page.
+ */
+public class FileMgrTest {
+   private static final int THREADS = 8;
+   private static final int BLOCKS = 50;  // per thread
+   private static FileMgr fm;
+   private static int failures = 0;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = new SimpleDB("filemgrtest", 400, 8);
+      fm = db.fileMgr();
+      concurrentReadWrite();
+      concurrentAppends();
+      readPastEnd();
+      System.out.println(failures == 0 ? "FileMgrTest passed"
+                                       : "FileMgrTest: " + failures + " failures");
+   }
+
+   private static void concurrentReadWrite() throws InterruptedException {
+      Thread[] threads = new Thread[THREADS];
+      int[] errors = new int[THREADS];
+      for (int t=0; t<THREADS; t++) {
+         int id = t;
+         threads[t] = new Thread(() -> {
+            Page p = new Page(fm.blockSize());
+            for (int i=0; i<BLOCKS; i++) {
+               p.setInt(0, id*1000 + i);
+               p.setString(4, "block" + (id*BLOCKS + i));
+               fm.write(new BlockId("iotest", id*BLOCKS + i), p);
+            }
+            for (int i=0; i<BLOCKS; i++) {
+               fm.read(new BlockId("iotest", id*BLOCKS + i), p);
+               if (p.getInt(0) != id*1000 + i
+                     || !p.getString(4).equals("block" + (id*BLOCKS + i)))
+                  errors[id]++;
+            }
+         });
+         threads[t].start();
+      }
+      for (Thread t : threads)
+         t.join();
+      for (int t=0; t<THREADS; t++)
+         check(errors[t] == 0, "thread " + t + " read back " + errors[t] + " wrong blocks");
+   }
+
+   private static void concurrentAppends() throws InterruptedException {
+      int before = fm.length("appendtest");
+      Set<Integer> blknums = Collections.synchronizedSet(new HashSet<>());
+      Thread[] threads = new Thread[THREADS];
+      for (int t=0; t<THREADS; t++) {
+         threads[t] = new Thread(() -> {
+            for (int i=0; i<BLOCKS; i++)
+               blknums.add(fm.append("appendtest").number());
+         });
+         threads[t].start();
+      }
+      for (Thread t : threads)
+         t.join();
+      check(blknums.size() == THREADS*BLOCKS, "the appenders got "
+            + blknums.size() + " distinct blocks instead of " + THREADS*BLOCKS);
+      check(fm.length("appendtest") == before + THREADS*BLOCKS,
+            "the file grew to " + fm.length("appendtest") + " blocks");
+   }
+
+   private static void readPastEnd() {
+      Page p = new Page(fm.blockSize());
+      for (int pos=0; pos+Integer.BYTES<=fm.blockSize(); pos+=Integer.BYTES)
+         p.setInt(pos, -1);
+      fm.read(new BlockId("iotest", THREADS*BLOCKS + 10), p);
+      boolean zeroed = true;
+      for (int pos=0; pos+Integer.BYTES<=fm.blockSize(); pos+=Integer.BYTES)
+         zeroed = zeroed && p.getInt(pos) == 0;
+      check(zeroed, "a read past the end of the file left stale bytes");
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
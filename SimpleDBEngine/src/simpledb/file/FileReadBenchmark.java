@@ -0,0 +1,71 @@
+package simpledb.file;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import simpledb.server.SimpleDB;
+
+/**
+ * Measures block-read throughput of the file manager
+ * as the number of reader threads grows.
+ * Each thread reads random blocks of random files
+ * for a fixed amount of time.
+ * The benchmark is run with ordinary channel reads
+ * and again with the files memory-mapped.
+ */
+public class FileReadBenchmark {
+   private static final int NUM_FILES = 8;
+   private static final int BLOCKS_PER_FILE = 256;
+   private static final int MAX_THREADS = 16;
+   private static final long RUN_MILLIS = 2000;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = new SimpleDB("filereadbenchmark", 4096, 8);
+      FileMgr fm = db.fileMgr();
+      for (int i=0; i<NUM_FILES; i++) {
+         String filename = "benchfile" + i;
+         while (fm.length(filename) < BLOCKS_PER_FILE)
+            fm.append(filename);
+      }
+
+      System.out.println("channel reads:");
+      report(fm);
+      System.out.println("mapped reads:");
+      report(new FileMgr(new File("filereadbenchmark"), fm.blockSize(), true));
+   }
+
+   private static void report(FileMgr fm) throws InterruptedException {
+      double base = 0;
+      for (int nthreads=1; nthreads<=MAX_THREADS; nthreads*=2) {
+         double rate = run(fm, nthreads);
+         if (nthreads == 1)
+            base = rate;
+         System.out.printf("%2d threads: %10.0f reads/sec (%.2fx)%n",
+                           nthreads, rate, rate / base);
+      }
+   }
+
+   private static double run(FileMgr fm, int nthreads) throws InterruptedException {
+      AtomicLong reads = new AtomicLong();
+      long deadline = System.currentTimeMillis() + RUN_MILLIS;
+      Thread[] threads = new Thread[nthreads];
+      for (int t=0; t<nthreads; t++) {
+         long seed = t;
+         threads[t] = new Thread(() -> {
+            Random rand = new Random(seed);
+            Page p = new Page(fm.blockSize());
+            long count = 0;
+            while (System.currentTimeMillis() < deadline) {
+               String filename = "benchfile" + rand.nextInt(NUM_FILES);
+               fm.read(new BlockId(filename, rand.nextInt(BLOCKS_PER_FILE)), p);
+               count++;
+            }
+            reads.addAndGet(count);
+         });
+         threads[t].start();
+      }
+      for (Thread t : threads)
+         t.join();
+      return reads.get() * 1000.0 / RUN_MILLIS;
+   }
+}
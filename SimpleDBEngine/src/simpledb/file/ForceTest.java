@@ -0,0 +1,65 @@
+package simpledb.file;
+
+import java.io.File;
+
+/**
+ * Checks when the file manager forces files to disk.
+ * A file is forced only if it has been written since it was
+ * last forced, and a temporary table is never forced.
+ * Concurrent forces of a file after concurrent writes must leave
+ * every write durable, and nothing more to force.
+ */
+public class ForceTest {
+   private static final int THREADS = 8;
+   private static int failures = 0;
+
+   public static void main(String[] args) throws InterruptedException {
+      File dir = new File("forcetest");
+      FileMgr fm = new FileMgr(dir, 400);
+      Page p = new Page(400);
+      p.setInt(0, 1);
+      fm.write(new BlockId("data", 0), p);
+      long forces = fm.forceCount();
+      fm.forceAll();
+      check(fm.forceCount() == forces + 1, "a written file was not forced once");
+      fm.forceAll();
+      fm.force("data");
+      check(fm.forceCount() == forces + 1, "an unwritten file was forced");
+      fm.write(new BlockId("temp1", 0), p);
+      fm.forceAll();
+      check(fm.forceCount() == forces + 1, "a temporary table was forced");
+
+      Thread[] threads = new Thread[THREADS];
+      for (int t=0; t<THREADS; t++) {
+         int id = t;
+         threads[t] = new Thread(() -> {
+            Page tp = new Page(400);
+            tp.setInt(0, 100 + id);
+            fm.write(new BlockId("data", id), tp);
+            fm.force("data");
+         });
+         threads[t].start();
+      }
+      for (Thread t : threads)
+         t.join();
+      long after = fm.forceCount();
+      fm.force("data");
+      check(fm.forceCount() == after, "writes were left unforced");
+      check(after - forces - 1 <= THREADS, "the file was forced more than once per write");
+
+      FileMgr fm2 = new FileMgr(dir, 400);
+      for (int t=0; t<THREADS; t++) {
+         fm2.read(new BlockId("data", t), p);
+         check(p.getInt(0) == 100 + t, "block " + t + " holds " + p.getInt(0));
+      }
+      System.out.println(failures == 0 ? "ForceTest passed"
+                                       : "ForceTest: " + failures + " failures");
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
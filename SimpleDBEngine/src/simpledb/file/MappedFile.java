@@ -0,0 +1,100 @@
+package simpledb.file;
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * A database file that is accessed through memory-mapped segments.
+ * The file is divided into fixed-size segments, each of which
+ * is mapped lazily on first access.
+ * A segment covers only the part of the file that existed
+ * when it was mapped; when the file grows (via append),
+ * the last segment is remapped to cover the new blocks.
+ * Blocks lying beyond the end of the file are not mapped,
+ * so that mapping never changes the length of the file.
+ */
+class MappedFile {
+   static final int SEGMENT_SIZE = 8 * 1024 * 1024;
+
+   private FileChannel fc;
+   private int blocksize;
+   private int segblocks;
+   private List<MappedByteBuffer> segments = new ArrayList<>();
+
+   MappedFile(FileChannel fc, int blocksize) {
+      this.fc = fc;
+      this.blocksize = blocksize;
+      segblocks = Math.max(1, SEGMENT_SIZE / blocksize);
+   }
+
+   /**
+    * Copies the specified block from the mapping into the buffer.
+    * @param blknum the block number
+    * @param dst the buffer to fill, positioned at 0
+    * @return false if the block is beyond the end of the file
+    */
+   boolean read(int blknum, ByteBuffer dst) throws IOException {
+      ByteBuffer region = region(blknum);
+      if (region == null)
+         return false;
+      dst.put(region);
+      return true;
+   }
+
+   /**
+    * Copies the buffer into the mapping of the specified block.
+    * @param blknum the block number
+    * @param src the buffer to copy, positioned at 0
+    * @return false if the block is beyond the end of the file
+    */
+   boolean write(int blknum, ByteBuffer src) throws IOException {
+      ByteBuffer region = region(blknum);
+      if (region == null)
+         return false;
+      region.put(src);
+      return true;
+   }
+
+   /**
+    * Forces the changes made through the mapped segments to disk.
+    */
+   synchronized void force() {
+      for (MappedByteBuffer seg : segments)
+         if (seg != null)
+            seg.force();
+   }
+
+   /**
+    * Returns an independent view of the bytes of the block,
+    * mapping or remapping its segment if necessary.
+    */
+   private ByteBuffer region(int blknum) throws IOException {
+      int segnum = blknum / segblocks;
+      int offset = (blknum % segblocks) * blocksize;
+      MappedByteBuffer seg = segment(segnum, offset + blocksize);
+      if (seg == null)
+         return null;
+      return seg.slice(offset, blocksize);
+   }
+
+   private synchronized MappedByteBuffer segment(int segnum, int minsize) throws IOException {
+      while (segments.size() <= segnum)
+         segments.add(null);
+      MappedByteBuffer seg = segments.get(segnum);
+      if (seg != null && seg.capacity() >= minsize)
+         return seg;
+
+      // the segment is unmapped or the file has grown since it was mapped
+      long segstart = (long) segnum * segblocks * blocksize;
+      long available = fc.size() - segstart;
+      if (available < minsize)
+         return null;
+      int size = (int) Math.min(available, (long) segblocks * blocksize);
+      size -= size % blocksize;
+      seg = fc.map(FileChannel.MapMode.READ_WRITE, segstart, size);
+      segments.set(segnum, seg);
+      return seg;
+   }
+}
@@ -0,0 +1,62 @@
+package simpledb.file;
+
+import java.io.File;
+
+/**
+ * Checks the memory-mapped mode of the file manager.
+ * Blocks written through the mapping must be read back,
+ * also after the file has grown past its mapped segment
+ * and into a page that spans two blocks,
+ * and must reach the file itself, as a file manager
+ * that does not map the file sees it.
+ */
+public class MappedFileTest {
+   private static final int BLOCKS = 20;
+   private static int failures = 0;
+
+   public static void main(String[] args) {
+      File dir = new File("mappedfiletest");
+      String filename = "mapped";
+      new File(dir, filename).delete();  // left by an earlier run
+      FileMgr mfm = new FileMgr(dir, 400, true);
+      Page p = new Page(400);
+
+      // the first blocks are mapped before the file grows
+      for (int i=0; i<BLOCKS; i++) {
+         BlockId blk = mfm.append(filename);
+         p.setInt(0, i);
+         p.setString(4, "block" + i);
+         mfm.write(blk, p);
+         for (int j=0; j<=i; j++) {
+            mfm.read(new BlockId(filename, j), p);
+            check(p.getInt(0) == j, "mapped block " + j + " reads " + p.getInt(0)
+                  + " after block " + i + " was appended");
+         }
+      }
+      mfm.read(new BlockId(filename, BLOCKS), p);
+      check(p.getInt(0) == 0, "a block past the end of the mapped file is not zeroed");
+
+      // a page spanning two blocks is read from the file itself
+      Page p2 = new Page(new byte[800]);
+      mfm.read(new BlockId(filename, 3), p2);
+      check(p2.getInt(0) == 3 && p2.getInt(400) == 4,
+            "a two-block page reads " + p2.getInt(0) + " and " + p2.getInt(400));
+
+      FileMgr fm = new FileMgr(dir, 400, false);
+      check(fm.length(filename) == BLOCKS, "the file has " + fm.length(filename) + " blocks");
+      for (int i=0; i<BLOCKS; i++) {
+         fm.read(new BlockId(filename, i), p);
+         check(p.getInt(0) == i && p.getString(4).equals("block" + i),
+               "block " + i + " did not reach the file");
+      }
+      System.out.println(failures == 0 ? "MappedFileTest passed"
+                                       : "MappedFileTest: " + failures + " failures");
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
@@ -6,6 +6,7 @@ import java.nio.charset.*;
 public class Page {
    private ByteBuffer bb;
    public static Charset CHARSET = StandardCharsets.US_ASCII;
+   private static volatile CharSize charSize = new CharSize(CHARSET);
 
    // For creating data buffers
    public Page(int blocksize) {
@@ -17,6 +18,12 @@ public class Page {
       bb = ByteBuffer.wrap(b);
    }
 
+   // For creating a page over part of a larger array,
+   // such as one block of the log buffer
+   public Page(byte[] b, int offset, int length) {
+      bb = ByteBuffer.wrap(b, offset, length).slice();
+   }
+
    public int getInt(int offset) {
       return bb.getInt(offset);
    }
@@ -25,18 +32,18 @@ public class Page {
       bb.putInt(offset, n);
    }
 
+   // Absolute reads and writes only, so that transactions holding
+   // locks on different records of a page can use it concurrently
    public byte[] getBytes(int offset) {
-      bb.position(offset);
-      int length = bb.getInt();
+      int length = bb.getInt(offset);
       byte[] b = new byte[length];
-      bb.get(b);
+      bb.get(offset + Integer.BYTES, b);
       return b;
    }
 
    public void setBytes(int offset, byte[] b) {
-      bb.position(offset);
-      bb.putInt(b.length);
-      bb.put(b);
+      bb.putInt(offset, b.length);
+      bb.put(offset + Integer.BYTES, b);
    }
    
    public String getString(int offset) {
@@ -45,13 +52,147 @@ public class Page {
    }
 
    public void setString(int offset, String s) {
+      if (CHARSET == StandardCharsets.US_ASCII) {
+         // encode in place, without an intermediate array
+         bb.putInt(offset, asciiLength(s));
+         putAscii(offset + Integer.BYTES, s);
+         return;
+      }
       byte[] b = s.getBytes(CHARSET);
       setBytes(offset, b);
    }
 
+   public byte getByte(int offset) {
+      return bb.get(offset);
+   }
+
+   public void setByte(int offset, byte b) {
+      bb.put(offset, b);
+   }
+
+   // Variable-length integers: 7 bits per byte, low bits first,
+   // with the high bit set on every byte but the last.
+   // Small non-negative values take a single byte.
+
+   public int getVarInt(int offset) {
+      int n = 0;
+      for (int shift=0; ; shift+=7) {
+         byte b = bb.get(offset++);
+         n |= (b & 0x7f) << shift;
+         if (b >= 0)
+            return n;
+      }
+   }
+
+   public void setVarInt(int offset, int n) {
+      while ((n & ~0x7f) != 0) {
+         bb.put(offset++, (byte) ((n & 0x7f) | 0x80));
+         n >>>= 7;
+      }
+      bb.put(offset, (byte) n);
+   }
+
+   public static int varIntSize(int n) {
+      int size = 1;
+      while ((n & ~0x7f) != 0) {
+         n >>>= 7;
+         size++;
+      }
+      return size;
+   }
+
+   public long getVarLong(int offset) {
+      long n = 0;
+      for (int shift=0; ; shift+=7) {
+         byte b = bb.get(offset++);
+         n |= (long) (b & 0x7f) << shift;
+         if (b >= 0)
+            return n;
+      }
+   }
+
+   public void setVarLong(int offset, long n) {
+      while ((n & ~0x7fL) != 0) {
+         bb.put(offset++, (byte) ((n & 0x7f) | 0x80));
+         n >>>= 7;
+      }
+      bb.put(offset, (byte) n);
+   }
+
+   public static int varLongSize(long n) {
+      int size = 1;
+      while ((n & ~0x7fL) != 0) {
+         n >>>= 7;
+         size++;
+      }
+      return size;
+   }
+
+   // Length-exact strings: the number of bytes as a variable-length
+   // integer, followed by the bytes.
+
+   public String getExactString(int offset) {
+      int length = getVarInt(offset);
+      byte[] b = new byte[length];
+      bb.get(offset + varIntSize(length), b);
+      return new String(b, CHARSET);
+   }
+
+   public void setExactString(int offset, String s) {
+      if (CHARSET == StandardCharsets.US_ASCII) {
+         int len = asciiLength(s);
+         setVarInt(offset, len);
+         putAscii(offset + varIntSize(len), s);
+         return;
+      }
+      byte[] b = s.getBytes(CHARSET);
+      setVarInt(offset, b.length);
+      int pos = offset + varIntSize(b.length);
+      for (int i=0; i<b.length; i++)
+         bb.put(pos+i, b[i]);
+   }
+
+   public static int exactLength(String s) {
+      int len = (CHARSET == StandardCharsets.US_ASCII) ? asciiLength(s)
+                                                        : s.getBytes(CHARSET).length;
+      return varIntSize(len) + len;
+   }
+
    public static int maxLength(int strlen) {
-      float bytesPerChar = CHARSET.newEncoder().maxBytesPerChar();
-      return Integer.BYTES + (strlen * (int)bytesPerChar);
+      CharSize size = charSize;
+      if (size.charset != CHARSET) {
+         size = new CharSize(CHARSET);
+         charSize = size;
+      }
+      return Integer.BYTES + (strlen * size.bytesPerChar);
+   }
+
+   // US-ASCII is encoded in place the way String.getBytes encodes it:
+   // a character outside ASCII becomes '?', and so does a surrogate
+   // pair, since it stands for a single code point.
+
+   private static int asciiLength(String s) {
+      int len = s.length(), n = len;
+      for (int i=0; i<len-1; i++)
+         if (Character.isSurrogatePair(s.charAt(i), s.charAt(i+1))) {
+            n--;
+            i++;
+         }
+      return n;
+   }
+
+   private void putAscii(int pos, String s) {
+      int len = s.length();
+      for (int i=0; i<len; i++) {
+         char c = s.charAt(i);
+         if (c < 128)
+            bb.put(pos++, (byte) c);
+         else {
+            bb.put(pos++, (byte) '?');
+            if (i+1 < len && Character.isSurrogatePair(c, s.charAt(i+1)))
+               i++;
+         }
+      }
    }
 
    // a package private method, needed by FileMgr
@@ -59,4 +200,16 @@ public class Page {
       bb.position(0);
       return bb;
    }
+
+   // The maximum number of bytes per character of a charset,
+   // kept because creating an encoder to ask is expensive.
+   private static class CharSize {
+      final Charset charset;
+      final int bytesPerChar;
+
+      CharSize(Charset charset) {
+         this.charset = charset;
+         bytesPerChar = (int) charset.newEncoder().maxBytesPerChar();
+      }
+   }
 }
@@ -118,7 +118,10 @@ public class BTPage {
    }
  
    public void format(BlockId blk, int flag) {
-      tx.setInt(blk, 0, flag, false);
+      // a new block is all zeros, which is also what the other
+      // values are set to; only the flag must be logged, so that
+      // recovery can redo it
+      tx.setInt(blk, 0, flag, true);
       tx.setInt(blk, Integer.BYTES, 0, false);  // #records = 0
       int recsize = layout.slotSize();
       for (int pos=2*Integer.BYTES; pos+recsize<=tx.blockSize(); pos += recsize)
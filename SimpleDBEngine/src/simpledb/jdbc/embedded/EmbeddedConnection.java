@@ -3,6 +3,7 @@ package simpledb.jdbc.embedded;
 import java.sql.SQLException;
 import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
+import simpledb.tx.concurrency.IsolationLevel;
 import simpledb.plan.Planner;
 import simpledb.jdbc.ConnectionAdapter;
 
@@ -13,17 +14,18 @@ import simpledb.jdbc.ConnectionAdapter;
 
 class EmbeddedConnection extends ConnectionAdapter {
    private SimpleDB db;
-   private Transaction currentTx;
+   private Transaction currentTx = null;
+   private boolean readOnly = false;
+   private IsolationLevel isolation = IsolationLevel.SERIALIZABLE;
    private Planner planner;
 
    /**
-    * Creates a connection
-    * and begins a new transaction for it.
+    * Creates a connection.
+    * Its first transaction begins with its first statement.
     * @throws RemoteException
     */
    public EmbeddedConnection(SimpleDB db) {
       this.db = db;
-      currentTx = db.newTx();
       planner = db.planner();
    }
 
@@ -38,32 +40,78 @@ class EmbeddedConnection extends ConnectionAdapter {
     * Closes the connection by committing the current transaction.
     */
    public void close() throws SQLException {
-      currentTx.commit();
+      commit();
    }
 
    /**
-    * Commits the current transaction and begins a new one.
+    * Commits the current transaction.
+    * The next one begins with the next statement.
     */
    public void commit() throws SQLException {
-      currentTx.commit();
-      currentTx = db.newTx();
+      if (currentTx != null)
+         currentTx.commit();
+      currentTx = null;
    }
 
    /**
-    * Rolls back the current transaction and begins a new one.
+    * Rolls back the current transaction.
+    * The next one begins with the next statement.
     */
    public void rollback() throws SQLException {
-      currentTx.rollback();
-      currentTx = db.newTx();
+      if (currentTx != null)
+         currentTx.rollback();
+      currentTx = null;
+   }
+
+   /**
+    * Makes the transactions of this connection read-only, or not.
+    * A read-only transaction reads a snapshot of the database,
+    * without locking or logging.
+    * The mode cannot change during a transaction.
+    */
+   public void setReadOnly(boolean readOnly) throws SQLException {
+      if (currentTx != null && readOnly != this.readOnly)
+         throw new SQLException("cannot change read-only mode during a transaction");
+      this.readOnly = readOnly;
+   }
+
+   public boolean isReadOnly() throws SQLException {
+      return readOnly;
+   }
+
+   /**
+    * Sets the isolation level of the transactions of this connection.
+    * READ UNCOMMITTED is raised to READ COMMITTED,
+    * and REPEATABLE READ to SERIALIZABLE.
+    * The level cannot change during a transaction.
+    */
+   public void setTransactionIsolation(int level) throws SQLException {
+      if (level == TRANSACTION_NONE)
+         throw new SQLException("transactions cannot be turned off");
+      IsolationLevel isolation = (level <= TRANSACTION_READ_COMMITTED)
+            ? IsolationLevel.READ_COMMITTED : IsolationLevel.SERIALIZABLE;
+      if (currentTx != null && isolation != this.isolation)
+         throw new SQLException("cannot change isolation level during a transaction");
+      this.isolation = isolation;
+   }
+
+   public int getTransactionIsolation() throws SQLException {
+      return (isolation == IsolationLevel.READ_COMMITTED) ? TRANSACTION_READ_COMMITTED
+                                                         : TRANSACTION_SERIALIZABLE;
    }
 
    /**
     * Returns the transaction currently associated with
-    * this connection. Not public. Called by other JDBC classes.
+    * this connection, beginning one if necessary.
+    * The transaction is read-only if the connection is.
+    * Not public. Called by other JDBC classes.
     * @return the transaction associated with this connection
     */
-   Transaction getTransaction() {  
+   Transaction getTransaction() {
+      if (currentTx == null) {
+         currentTx = readOnly ? db.newReadOnlyTx() : db.newTx();
+         currentTx.setIsolation(isolation);
+      }
       return currentTx;
    }
 }
-
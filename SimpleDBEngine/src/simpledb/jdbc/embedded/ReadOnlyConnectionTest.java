@@ -0,0 +1,92 @@
+package simpledb.jdbc.embedded;
+
+import java.io.File;
+import java.sql.*;
+import simpledb.server.SimpleDB;
+import simpledb.jdbc.network.*;
+
+/**
+ * Checks that a connection runs read-only transactions
+ * only when it has been made read-only.
+ * A query on an ordinary connection must see a value that
+ * another connection commits after the query began; a query on
+ * a read-only connection must see the snapshot taken when
+ * it began, and an update on it must fail.
+ * Changing the mode or the isolation level during a transaction
+ * must fail with an SQLException, for embedded and network
+ * connections alike.
+ */
+public class ReadOnlyConnectionTest {
+   private static int failures = 0;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB db = open("readonlyconntest1");
+      check(new EmbeddedConnection(db), new EmbeddedConnection(db), "embedded");
+      SimpleDB db2 = open("readonlyconntest2");
+      RemoteDriverImpl driver = new RemoteDriverImpl(db2);
+      check(new NetworkConnection(driver.connect()), new NetworkConnection(driver.connect()), "network");
+      System.out.println(failures == 0 ? "ReadOnlyConnectionTest passed"
+                                       : "ReadOnlyConnectionTest: " + failures + " failures");
+      System.exit(0);  // the network connections keep RMI threads alive
+   }
+
+   private static SimpleDB open(String dirname) {
+      File dir = new File(dirname);
+      if (dir.exists())
+         for (File f : dir.listFiles())
+            f.delete();
+      return new SimpleDB(dirname);
+   }
+
+   private static void check(Connection conn, Connection other, String which) throws SQLException {
+      Statement stmt = conn.createStatement();
+      Statement otherstmt = other.createStatement();
+      stmt.executeUpdate("create table T(A int, B int)");
+      stmt.executeUpdate("insert into T(A, B) values (1, 1)");
+
+      ResultSet rs = stmt.executeQuery("select A from T");
+      otherstmt.executeUpdate("update T set A = 2 where B = 1");
+      check(rs.next() && rs.getInt("a") == 2,
+            which + ": a query on an ordinary connection read a snapshot");
+      try {
+         conn.setReadOnly(true);
+         check(false, which + ": the mode changed during a transaction");
+      }
+      catch (SQLException e) {}
+      try {
+         conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+         check(false, which + ": the isolation level changed during a transaction");
+      }
+      catch (SQLException e) {}
+      stmt.executeUpdate("update T set A = 3 where B = 1");
+
+      conn.setReadOnly(true);
+      rs = stmt.executeQuery("select A from T");
+      otherstmt.executeUpdate("update T set A = 4 where B = 1");
+      check(rs.next() && rs.getInt("a") == 3,
+            which + ": a query on a read-only connection did not read its snapshot");
+      try {
+         conn.setReadOnly(false);
+         check(false, which + ": the mode changed during a read-only transaction");
+      }
+      catch (SQLException e) {}
+      try {
+         stmt.executeUpdate("update T set A = 5 where B = 1");
+         check(false, which + ": a read-only connection updated a table");
+      }
+      catch (SQLException e) {}
+      conn.setReadOnly(false);
+      rs = stmt.executeQuery("select A from T");
+      check(rs.next() && rs.getInt("a") == 4, which + ": the table holds the wrong value");
+      rs.close();
+      conn.close();
+      other.close();
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
@@ -1,11 +1,13 @@
 package simpledb.jdbc.network;
 
 import java.rmi.RemoteException;
+import java.sql.Connection;
 import java.rmi.server.UnicastRemoteObject;
 
 import simpledb.plan.Planner;
 import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
+import simpledb.tx.concurrency.IsolationLevel;
 
 /**
  * The RMI server-side implementation of RemoteConnection.
@@ -14,17 +16,18 @@ import simpledb.tx.Transaction;
 @SuppressWarnings("serial") 
 class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteConnection {
    private SimpleDB db;
-   private Transaction currentTx;
+   private Transaction currentTx = null;
+   private boolean readOnly = false;
+   private IsolationLevel isolation = IsolationLevel.SERIALIZABLE;
    private Planner planner;
    
    /**
-    * Creates a remote connection
-    * and begins a new transaction for it.
+    * Creates a remote connection.
+    * Its first transaction begins with its first statement.
     * @throws RemoteException
     */
    RemoteConnectionImpl(SimpleDB db) throws RemoteException {
       this.db = db;
-      currentTx = db.newTx();
       planner = db.planner();
    }
    
@@ -42,36 +45,88 @@ class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteConnecti
     * @see simpledb.jdbc.network.RemoteConnection#close()
     */
    public void close() throws RemoteException {
-      currentTx.commit();
+      commit();
+   }
+
+   /**
+    * Makes the transactions of this connection read-only, or not.
+    * A read-only transaction reads a snapshot of the database,
+    * without locking or logging.
+    * The mode cannot change during a transaction.
+    * @see simpledb.jdbc.network.RemoteConnection#setReadOnly(boolean)
+    */
+   public void setReadOnly(boolean readOnly) throws RemoteException {
+      if (currentTx != null && readOnly != this.readOnly)
+         throw new RemoteException("cannot change read-only mode during a transaction");
+      this.readOnly = readOnly;
+   }
+
+   /**
+    * @see simpledb.jdbc.network.RemoteConnection#isReadOnly()
+    */
+   public boolean isReadOnly() throws RemoteException {
+      return readOnly;
+   }
+
+   /**
+    * Sets the isolation level of the transactions of this connection.
+    * READ UNCOMMITTED is raised to READ COMMITTED,
+    * and REPEATABLE READ to SERIALIZABLE.
+    * The level cannot change during a transaction.
+    * @see simpledb.jdbc.network.RemoteConnection#setTransactionIsolation(int)
+    */
+   public void setTransactionIsolation(int level) throws RemoteException {
+      if (level == Connection.TRANSACTION_NONE)
+         throw new RemoteException("transactions cannot be turned off");
+      IsolationLevel isolation = (level <= Connection.TRANSACTION_READ_COMMITTED)
+            ? IsolationLevel.READ_COMMITTED : IsolationLevel.SERIALIZABLE;
+      if (currentTx != null && isolation != this.isolation)
+         throw new RemoteException("cannot change isolation level during a transaction");
+      this.isolation = isolation;
+   }
+
+   /**
+    * @see simpledb.jdbc.network.RemoteConnection#getTransactionIsolation()
+    */
+   public int getTransactionIsolation() throws RemoteException {
+      return (isolation == IsolationLevel.READ_COMMITTED) ? Connection.TRANSACTION_READ_COMMITTED
+                                                         : Connection.TRANSACTION_SERIALIZABLE;
    }
    
 // The following methods are used by the server-side classes.
    
    /**
     * Returns the transaction currently associated with
-    * this connection.
+    * this connection, beginning one if necessary.
+    * The transaction is read-only if the connection is.
     * @return the transaction associated with this connection
     */
-   Transaction getTransaction() {  
+   Transaction getTransaction() {
+      if (currentTx == null) {
+         currentTx = readOnly ? db.newReadOnlyTx() : db.newTx();
+         currentTx.setIsolation(isolation);
+      }
       return currentTx;
    }
    
    /**
-    * Commits the current transaction,
-    * and begins a new one.
+    * Commits the current transaction.
+    * The next one begins with the next statement.
     */
    void commit() {
-      currentTx.commit();
-      currentTx = db.newTx();
+      if (currentTx != null)
+         currentTx.commit();
+      currentTx = null;
    }
    
    /**
-    * Rolls back the current transaction,
-    * and begins a new one.
+    * Rolls back the current transaction.
+    * The next one begins with the next statement.
     */
    void rollback() {
-      currentTx.rollback();
-      currentTx = db.newTx();
+      if (currentTx != null)
+         currentTx.rollback();
+      currentTx = null;
    }
 }
 
@@ -0,0 +1,105 @@
+package simpledb.log;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import simpledb.file.*;
+
+/**
+ * A persistent dictionary that assigns small integer ids
+ * to file names, so that log records can refer to a file
+ * by its id instead of by its name.
+ * <P>
+ * The names are stored in order of their ids in a file of their own,
+ * each block starting with the number of bytes it uses.
+ * A new id is written and forced to disk before it is returned,
+ * so a log record that uses it can never be durable without it.
+ * Temporary files are not given ids, since they do not survive
+ * a restart; their log records carry the file name instead.
+ */
+public class FileDictionary {
+   /** The id that stands for "the file name follows in the record". */
+   public static final int NO_ID = 0;
+   private FileMgr fm;
+   private String dictfile;
+   private Map<String,Integer> ids = new ConcurrentHashMap<>();
+   private Map<Integer,String> names = new ConcurrentHashMap<>();
+   private Page page;
+   private int lastblk;
+
+   /**
+    * Creates the dictionary stored in the specified file,
+    * reading the ids assigned so far.
+    * @param fm the file manager
+    * @param dictfile the name of the dictionary file
+    */
+   public FileDictionary(FileMgr fm, String dictfile) {
+      this.fm = fm;
+      this.dictfile = dictfile;
+      page = new Page(fm.blockSize());
+      int nextid = NO_ID + 1;
+      int size = fm.length(dictfile);
+      for (int b=0; b<size; b++) {
+         fm.read(new BlockId(dictfile, b), page);
+         int used = page.getInt(0);
+         int pos = Integer.BYTES;
+         while (pos < used) {
+            String name = page.getExactString(pos);
+            pos += Page.exactLength(name);
+            ids.put(name, nextid);
+            names.put(nextid, name);
+            nextid++;
+         }
+      }
+      if (size == 0) {
+         lastblk = fm.append(dictfile).number();
+         page.setInt(0, Integer.BYTES);
+      }
+      else
+         lastblk = size - 1;  // the page holds the last block
+   }
+
+   /**
+    * Returns the id of the specified file, assigning it
+    * a new id if it has none.
+    * Returns {@link #NO_ID} for temporary files.
+    * @param filename the name of the file
+    * @return the file's id
+    */
+   public int idOf(String filename) {
+      Integer id = ids.get(filename);
+      if (id != null)
+         return id;
+      if (filename.startsWith("temp"))
+         return NO_ID;
+      return assign(filename);
+   }
+
+   /**
+    * Returns the name of the file having the specified id.
+    * @param id the id of a file
+    * @return the name of the file
+    */
+   public String nameOf(int id) {
+      return names.get(id);
+   }
+
+   private synchronized int assign(String filename) {
+      Integer id = ids.get(filename);
+      if (id != null)
+         return id;
+      int used = page.getInt(0);
+      int len = Page.exactLength(filename);
+      if (used + len > fm.blockSize()) {
+         lastblk = fm.append(dictfile).number();
+         used = Integer.BYTES;
+      }
+      page.setExactString(used, filename);
+      page.setInt(0, used + len);
+      fm.write(new BlockId(dictfile, lastblk), page);
+      fm.force(dictfile);
+      int newid = NO_ID + 1 + ids.size();
+      names.put(newid, filename);
+      ids.put(filename, newid);
+      return newid;
+   }
+}
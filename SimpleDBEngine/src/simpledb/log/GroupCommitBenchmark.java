@@ -0,0 +1,52 @@
+package simpledb.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import simpledb.server.SimpleDB;
+
+/**
+ * Measures commits per second when several threads
+ * repeatedly append a commit-sized log record and flush it,
+ * and how many commits share each force of the log file.
+ * Each configuration runs with and without a group commit delay.
+ * The benefit of grouping grows with the latency of a force,
+ * so the database directory should be on a real disk.
+ */
+public class GroupCommitBenchmark {
+   private static final int[] THREADS = {1, 2, 4, 8, 16};
+   private static final long[] DELAYS = {0, 200};  // microseconds
+   private static final long DURATION = 2000;      // milliseconds
+
+   public static void main(String[] args) throws InterruptedException {
+      SimpleDB db = new SimpleDB("groupcommitbenchmark", 400, 8);
+      LogMgr lm = db.logMgr();
+      for (long delay : DELAYS) {
+         lm.setGroupCommitDelay(delay);
+         for (int n : THREADS)
+            run(lm, n, delay);
+      }
+   }
+
+   private static void run(LogMgr lm, int nthreads, long delay) throws InterruptedException {
+      AtomicLong commits = new AtomicLong(0);
+      long deadline = System.currentTimeMillis() + DURATION;
+      long flushes0 = lm.flushCount();
+      Thread[] threads = new Thread[nthreads];
+      for (int i=0; i<nthreads; i++) {
+         threads[i] = new Thread(() -> {
+            byte[] rec = new byte[8];
+            while (System.currentTimeMillis() < deadline) {
+               long lsn = lm.append(rec);
+               lm.flush(lsn);
+               commits.incrementAndGet();
+            }
+         });
+         threads[i].start();
+      }
+      for (Thread t : threads)
+         t.join();
+      long flushes = lm.flushCount() - flushes0;
+      System.out.printf("delay %3dus  %2d threads: %8.0f commits/s  %5.2f commits/flush%n",
+                        delay, nthreads, commits.get() * 1000.0 / DURATION,
+                        (double) commits.get() / Math.max(1, flushes));
+   }
+}
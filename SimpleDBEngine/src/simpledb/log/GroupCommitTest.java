@@ -0,0 +1,72 @@
+package simpledb.log;
+
+import java.io.File;
+import java.util.*;
+import simpledb.file.*;
+
+/**
+ * Checks group commit in the log manager.
+ * Threads append records and flush each of them, as committers do.
+ * Every flush that returns must have made its record durable,
+ * so that once they are done nothing of the log is left to force,
+ * and a new log manager must read back every record.
+ * With a group commit delay, the flushes must share forces.
+ */
+public class GroupCommitTest {
+   private static final int THREADS = 8;
+   private static final int RECORDS = 200;  // per thread
+   private static final String LOGFILE = "groupcommit.log";
+   private static int failures = 0;
+
+   public static void main(String[] args) throws InterruptedException {
+      File dir = new File("groupcommittest");
+      if (dir.exists())
+         for (File f : dir.listFiles())
+            f.delete();  // left by an earlier run
+      FileMgr fm = new FileMgr(dir, 400);
+      LogMgr lm = new LogMgr(fm, LOGFILE);
+      lm.setGroupCommitDelay(1000);
+
+      Thread[] threads = new Thread[THREADS];
+      for (int t=0; t<THREADS; t++) {
+         int id = t;
+         threads[t] = new Thread(() -> {
+            for (int i=0; i<RECORDS; i++) {
+               byte[] rec = new byte[2*Integer.BYTES];
+               Page p = new Page(rec);
+               p.setInt(0, id);
+               p.setInt(Integer.BYTES, i);
+               lm.flush(lm.append(rec));
+            }
+         });
+         threads[t].start();
+      }
+      for (Thread t : threads)
+         t.join();
+
+      long forces = fm.forceCount();
+      fm.force(LOGFILE);
+      check(fm.forceCount() == forces, "flushed records were not forced");
+      check(lm.flushCount() < THREADS*RECORDS,
+            "every one of the " + lm.flushCount() + " flushes forced the log");
+
+      LogMgr lm2 = new LogMgr(new FileMgr(dir, 400), LOGFILE);
+      Set<Integer> found = new HashSet<>();
+      Iterator<byte[]> iter = lm2.iterator();
+      while (iter.hasNext()) {
+         Page p = new Page(iter.next());
+         found.add(p.getInt(0)*RECORDS + p.getInt(Integer.BYTES));
+      }
+      check(found.size() == THREADS*RECORDS,
+            "the log holds " + found.size() + " of " + THREADS*RECORDS + " records");
+      System.out.println(failures == 0 ? "GroupCommitTest passed"
+                                       : "GroupCommitTest: " + failures + " failures");
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
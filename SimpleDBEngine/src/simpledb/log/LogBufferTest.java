@@ -0,0 +1,93 @@
+package simpledb.log;
+
+import java.io.File;
+import java.util.*;
+import simpledb.file.*;
+
+/**
+ * Checks the multi-block log buffer.
+ * Threads append records of varying sizes to a log whose buffer
+ * holds only four pages, so that appenders wait for the log writer,
+ * and whose segments hold sixteen, so that the log spans many of them.
+ * The log must then hold every record, intact and in the order
+ * of its appends, both when read through the live log manager
+ * and when read by a new one after the log is reopened.
+ */
+public class LogBufferTest {
+   private static final int THREADS = 4;
+   private static final int RECORDS = 500;  // per thread
+   private static final String LOGFILE = "logbuffer.log";
+   private static int failures = 0;
+
+   public static void main(String[] args) throws InterruptedException {
+      File dir = new File("logbuffertest");
+      if (dir.exists())
+         for (File f : dir.listFiles())
+            f.delete();  // left by an earlier run
+      FileMgr fm = new FileMgr(dir, 400);
+      LogMgr lm = new LogMgr(fm, LOGFILE, 4*400, 16*400);
+
+      Thread[] threads = new Thread[THREADS];
+      for (int t=0; t<THREADS; t++) {
+         int id = t;
+         threads[t] = new Thread(() -> {
+            for (int i=0; i<RECORDS; i++)
+               lm.append(record(id, i));
+         });
+         threads[t].start();
+      }
+      for (Thread t : threads)
+         t.join();
+
+      readBack(lm, "the live log");
+      readBack(new LogMgr(new FileMgr(dir, 400), LOGFILE, 4*400, 16*400), "the reopened log");
+      System.out.println(failures == 0 ? "LogBufferTest passed"
+                                       : "LogBufferTest: " + failures + " failures");
+   }
+
+   /**
+    * A record holds its thread and sequence number,
+    * followed by a number of bytes that depends on both.
+    */
+   private static byte[] record(int id, int i) {
+      int padding = (id*31 + i*7) % 100;
+      byte[] rec = new byte[2*Integer.BYTES + padding];
+      Page p = new Page(rec);
+      p.setInt(0, id);
+      p.setInt(Integer.BYTES, i);
+      for (int j=0; j<padding; j++)
+         rec[2*Integer.BYTES + j] = (byte) (i + j);
+      return rec;
+   }
+
+   /**
+    * The log iterator returns the newest record first,
+    * so the records of each thread must come in
+    * decreasing order of their sequence numbers.
+    */
+   private static void readBack(LogMgr lm, String which) {
+      int[] next = new int[THREADS];
+      Arrays.fill(next, RECORDS - 1);
+      int bad = 0;
+      Iterator<byte[]> iter = lm.iterator();
+      while (iter.hasNext()) {
+         byte[] rec = iter.next();
+         Page p = new Page(rec);
+         int id = p.getInt(0), i = p.getInt(Integer.BYTES);
+         if (id < 0 || id >= THREADS || i != next[id] || !Arrays.equals(rec, record(id, i)))
+            bad++;
+         else
+            next[id]--;
+      }
+      check(bad == 0, which + " returned " + bad + " records out of order or damaged");
+      for (int t=0; t<THREADS; t++)
+         check(next[t] == -1, which + " is missing records of thread " + t);
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
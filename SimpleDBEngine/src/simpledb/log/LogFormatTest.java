@@ -0,0 +1,56 @@
+package simpledb.log;
+
+import java.io.File;
+import simpledb.file.*;
+
+/**
+ * Checks that a log in the format of earlier versions is refused.
+ * A log manager must not start on a directory that holds
+ * a log file without a segment number, and must not change it;
+ * once that file has been deleted, the log must start afresh.
+ */
+public class LogFormatTest {
+   private static final String LOGFILE = "logformat.log";
+   private static int failures = 0;
+
+   public static void main(String[] args) {
+      File dir = new File("logformattest");
+      if (dir.exists())
+         for (File f : dir.listFiles())
+            f.delete();  // left by an earlier run
+      FileMgr fm = new FileMgr(dir, 400);
+
+      // the one block of an old log, holding a single record
+      Page p = new Page(400);
+      p.setInt(0, 400 - 8);
+      p.setInt(400 - 8, 4);
+      p.setInt(400 - 4, 1);
+      BlockId blk = new BlockId(LOGFILE, 0);
+      fm.write(blk, p);
+      try {
+         new LogMgr(fm, LOGFILE);
+         check(false, "the old log was opened");
+      }
+      catch (RuntimeException e) {}
+      check(fm.files(LOGFILE + ".").isEmpty(), "a segment was created next to the old log");
+      Page p2 = new Page(400);
+      fm.read(blk, p2);
+      check(fm.length(LOGFILE) == 1 && p2.getInt(0) == 400 - 8, "the old log was changed");
+
+      fm.delete(LOGFILE);
+      LogMgr lm = new LogMgr(fm, LOGFILE);
+      long lsn = lm.append(new byte[] {1, 2, 3});
+      lm.flush(lsn);
+      check(!fm.files(LOGFILE).contains(LOGFILE), "the new log recreated the old file");
+      check(lm.iterator().hasNext(), "the new log holds no record");
+      System.out.println(failures == 0 ? "LogFormatTest passed"
+                                       : "LogFormatTest: " + failures + " failures");
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
@@ -6,35 +6,38 @@ import simpledb.file.*;
 /**
  * A class that provides the ability to move through the
  * records of the log file in reverse order.
- * 
+ *
  * @author Edward Sciore
  */
-class LogIterator implements Iterator<byte[]> {
-   private FileMgr fm;
-   private BlockId blk;
+public class LogIterator implements Iterator<byte[]> {
+   private LogMgr lm;
+   private int blknum;
+   private int blocksize;
    private Page p;
    private int currentpos;
+   private int recordpos;
    private int boundary;
 
    /**
-    * Creates an iterator for the records in the log file,
+    * Creates an iterator for the records in the log,
     * positioned after the last log record.
     */
-   public LogIterator(FileMgr fm, BlockId blk) {
-      this.fm = fm;
-      this.blk = blk;
-      byte[] b = new byte[fm.blockSize()];
+   LogIterator(LogMgr lm, int blknum) {
+      this.lm = lm;
+      this.blknum = blknum;
+      blocksize = lm.blockSize();
+      byte[] b = new byte[blocksize];
       p = new Page(b);
-      moveToBlock(blk);
+      moveToBlock(blknum);
    }
 
    /**
     * Determines if the current log record
-    * is the earliest record in the log file.
+    * is the earliest record in the log.
     * @return true if there is an earlier record
     */
    public boolean hasNext() {
-      return currentpos<fm.blockSize() || blk.number()>0;
+      return currentpos<blocksize || blknum>lm.firstBlock();
    }
 
    /**
@@ -45,22 +48,32 @@ class LogIterator implements Iterator<byte[]> {
     * @return the next earliest log record
     */
    public byte[] next() {
-      if (currentpos == fm.blockSize()) {
-         blk = new BlockId(blk.fileName(), blk.number()-1);
-         moveToBlock(blk);
+      if (currentpos == blocksize) {
+         blknum--;
+         moveToBlock(blknum);
       }
       byte[] rec = p.getBytes(currentpos);
+      recordpos = currentpos;
       currentpos += Integer.BYTES + rec.length;
       return rec;
    }
 
+   /**
+    * Returns the LSN of the record most recently
+    * returned by {@link #next()}.
+    * @return the LSN of that record
+    */
+   public long lsn() {
+      return (long) blknum * blocksize + (blocksize - recordpos);
+   }
+
    /**
     * Moves to the specified log block
     * and positions it at the first record in that block
     * (i.e., the most recent one).
     */
-   private void moveToBlock(BlockId blk) {
-      fm.read(blk, p);
+   private void moveToBlock(int blknum) {
+      lm.readBlock(blknum, p);
       boundary = p.getInt(0);
       currentpos = boundary;
    }
@@ -1,41 +1,264 @@
 package simpledb.log;
 
-import java.util.Iterator;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
 import simpledb.file.*;
 
 /**
- * The log manager, which is responsible for 
- * writing log records into a log file. The tail of 
- * the log is kept in a bytebuffer, which is flushed
- * to disk when needed. 
+ * The log manager, which is responsible for
+ * writing log records into a log file. The tail of
+ * the log is kept in a ring of block-sized pages in memory,
+ * which a log writer thread drains to disk.
+ * <P>
+ * Appenders fill the current page of the ring and move on
+ * to the next page when a record does not fit; they wait only
+ * if every page of the ring is still waiting to be written.
+ * The log writer writes the full pages, and the current page
+ * when a flush or a read of the log asks for it,
+ * with one sequential write per contiguous run of pages,
+ * and forces the log file when a flush is pending.
+ * A call to {@link #flush(int)} waits until the writer has made
+ * its record durable, so the commits that arrive while the writer
+ * is forcing the log are grouped into its next force.
+ * When several flushes are pending, the writer can first wait
+ * a configurable short delay, so that more committers append
+ * their records and share the force.
+ * <P>
+ * The LSN of a record is its byte address in the log:
+ * the number of its block times the block size,
+ * plus the distance of the record from the end of the block.
+ * Since records are written right to left, later records have
+ * larger LSNs, and a record can be read back by its LSN
+ * with {@link #read(long)}.
+ * <P>
+ * The log is stored in a sequence of segment files, each holding
+ * a fixed number of blocks; the segment holding block b of the log
+ * is the file whose name is the log file's name followed by
+ * "." and b divided by the number of blocks per segment.
+ * Segments that recovery will no longer need are deleted by
+ * {@link #truncate(long)}.
+ * The log also keeps track of the LSN from which each active
+ * transaction may need its records, so that they are not truncated.
+ * <P>
+ * A record can be appended either as a byte array, or
+ * serialized directly into the log buffer by a
+ * {@link RecordWriter} passed to {@link #append(int, RecordWriter)}.
+ * <P>
+ * This format cannot read the single log file of earlier versions,
+ * whose LSNs were record numbers and whose records had no
+ * transaction chains. Since that file has the log's own name,
+ * without a segment number, the log manager refuses to start
+ * when it finds one; the database must first be restarted
+ * by the earlier version, which recovers it,
+ * and the old log then deleted.
  * @author Edward Sciore
  */
 public class LogMgr {
    private FileMgr fm;
    private String logfile;
-   private Page logpage;
-   private BlockId currentblk;
-   private int latestLSN = 0;
-   private int lastSavedLSN = 0;
+   private FileDictionary files;
+   private int blocksize;
+   private int segblocks;       // the number of blocks per segment
+   private volatile int firstBlk; // the first block of the oldest segment
+   private int unforcedSeg;     // the first segment that may need a force
+   private Map<Long,Long> retained = new ConcurrentHashMap<>();
+   private byte[] ringBytes;
+   private Page[] ring;
+   private long[] lastLSNInPage;
+   private Page logpage;        // the page being filled
+   private int currentBlk;      // the block number of that page
+   private int firstUnwritten;  // the first full block not yet written
+   private int firstInRing;     // the first block that this run has put in the ring
+   private byte[] currentCopyBytes;
+   private Page currentCopy;
+   private volatile long latestLSN;
+   private int reservedPos;
+   private long lastWrittenLSN;
+   private volatile long lastSavedLSN;
+   private long writeRequest = 0, flushRequest = 0;
+   private int pendingFlushes = 0;
+   private long groupDelay = 0;
+   private long numFlushes = 0;
+   private RuntimeException writerFailure = null;
+   private ReentrantLock lock = new ReentrantLock();
+   private Condition work = lock.newCondition();
+   private Condition written = lock.newCondition();
+
+   /**
+    * Creates the manager for the specified log file,
+    * with a log buffer of 1MB and segments of 4MB.
+    * @param FileMgr the file manager
+    * @param logfile the name of the log file
+    */
+   public LogMgr(FileMgr fm, String logfile) {
+      this(fm, logfile, 1 << 20, 1 << 22);
+   }
 
    /**
     * Creates the manager for the specified log file.
-    * If the log file does not yet exist, it is created
+    * If the log does not yet exist, its first segment is created
     * with an empty first block.
+    * A log in the format of earlier versions is not read;
+    * a RuntimeException is thrown instead.
+    * The dictionary of file ids is read from the file whose name
+    * is the log file's name followed by ".files".
+    * The log writer thread is started.
     * @param FileMgr the file manager
     * @param logfile the name of the log file
+    * @param buffsize the size of the log buffer in bytes
+    * @param segsize the size of a log segment in bytes
     */
-   public LogMgr(FileMgr fm, String logfile) {
+   public LogMgr(FileMgr fm, String logfile, int buffsize, int segsize) {
       this.fm = fm;
       this.logfile = logfile;
-      byte[] b = new byte[fm.blockSize()];
-      logpage = new Page(b);
-      int logsize = fm.length(logfile);
-      if (logsize == 0)
-         currentblk = appendNewBlock();
+      if (fm.files(logfile).contains(logfile))
+         throw new RuntimeException("the log " + logfile + " was written by an earlier version;"
+               + " restart the database with that version, then delete the log");
+      blocksize = fm.blockSize();
+      segblocks = Math.max(1, segsize / blocksize);
+      int numpages = Math.max(2, buffsize / blocksize);
+      ringBytes = new byte[numpages * blocksize];
+      ring = new Page[numpages];
+      for (int i=0; i<numpages; i++)
+         ring[i] = new Page(ringBytes, i*blocksize, blocksize);
+      lastLSNInPage = new long[numpages];
+      currentCopyBytes = new byte[blocksize];
+      currentCopy = new Page(currentCopyBytes);
+
+      List<Integer> segments = segments();
+      int lastseg = segments.isEmpty() ? 0 : segments.get(segments.size()-1);
+      firstBlk = segments.isEmpty() ? 0 : segments.get(0) * segblocks;
+      int logsize = fm.length(segmentName(lastseg));
+      if (logsize == 0) {
+         currentBlk = lastseg * segblocks;
+         logpage = ring[currentBlk % numpages];
+         logpage.setInt(0, blocksize);
+         fm.write(logBlock(currentBlk), logpage);
+      }
       else {
-         currentblk = new BlockId(logfile, logsize-1);
-         fm.read(currentblk, logpage);
+         currentBlk = lastseg * segblocks + logsize-1;
+         logpage = ring[currentBlk % numpages];
+         fm.read(logBlock(currentBlk), logpage);
+      }
+      firstUnwritten = currentBlk;
+      unforcedSeg = lastseg;
+      firstInRing = currentBlk;
+      latestLSN = lsn(currentBlk, logpage.getInt(0));
+      lastWrittenLSN = lastSavedLSN = latestLSN;
+      files = new FileDictionary(fm, logfile + ".files");
+
+      Thread t = new Thread(this::writeLoop, "log-writer");
+      t.setDaemon(true);
+      t.start();
+   }
+
+   /**
+    * Returns the dictionary of file ids that log records
+    * use to refer to files.
+    * @return the file dictionary
+    */
+   public FileDictionary fileDictionary() {
+      return files;
+   }
+
+   /**
+    * Returns a bound on the LSNs of the records in the log:
+    * every record appended from now on has a larger LSN.
+    * @return the LSN just after the most recent record
+    */
+   public long endOfLog() {
+      return latestLSN + 1;
+   }
+
+   /**
+    * Records that the specified transaction may need the log
+    * from the specified LSN on, for example to roll back.
+    * @param txnum the id of the transaction
+    * @param lsn the first LSN that the transaction needs
+    */
+   public void retain(long txnum, long lsn) {
+      retained.put(txnum, lsn);
+   }
+
+   /**
+    * Records that the specified transaction no longer needs the log.
+    * @param txnum the id of the transaction
+    */
+   public void release(long txnum) {
+      retained.remove(txnum);
+   }
+
+   /**
+    * Returns the smallest LSN that an active transaction needs,
+    * or the end of the log if there is none.
+    * @return the first LSN needed by an active transaction
+    */
+   public long retainedFrom() {
+      long lsn = endOfLog();
+      for (long n : retained.values())
+         lsn = Math.min(lsn, n);
+      return lsn;
+   }
+
+   /**
+    * Deletes the segments whose records all precede the specified LSN.
+    * The segment holding the most recent record is never deleted.
+    * The segments are deleted while holding the log's lock,
+    * so that concurrent calls delete each segment once and
+    * never move the start of the log backwards.
+    * @param lsn the first LSN that must be kept
+    */
+   public void truncate(long lsn) {
+      lock.lock();
+      try {
+         int keepseg = Math.min((int) (lsn / blocksize), currentBlk) / segblocks;
+         int firstseg = firstBlk / segblocks;
+         if (keepseg <= firstseg)
+            return;
+         firstBlk = keepseg * segblocks;
+         for (int seg=firstseg; seg<keepseg; seg++)
+            fm.delete(segmentName(seg));
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Returns the number of log segments currently on disk.
+    * @return the number of segments
+    */
+   public int segmentCount() {
+      lock.lock();
+      try {
+         return currentBlk / segblocks - firstBlk / segblocks + 1;
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Sets how long the log writer waits for other committers
+    * before it writes the log, when several flushes are pending.
+    * @param micros the delay in microseconds; 0 means no delay
+    */
+   public void setGroupCommitDelay(long micros) {
+      groupDelay = TimeUnit.MICROSECONDS.toNanos(micros);
+   }
+
+   /**
+    * Returns the number of times the log has been forced to disk.
+    * @return the number of log flushes
+    */
+   public long flushCount() {
+      lock.lock();
+      try {
+         return numFlushes;
+      }
+      finally {
+         lock.unlock();
       }
    }
 
@@ -45,19 +268,101 @@ public class LogMgr {
     * All earlier log records will also be written to disk.
     * @param lsn the LSN of a log record
     */
-   public void flush(int lsn) {
-      if (lsn >= lastSavedLSN)
-         flush();
+   public void flush(long lsn) {
+      if (lsn <= lastSavedLSN)
+         return;
+      lock.lock();
+      try {
+         if (lsn > flushRequest)
+            flushRequest = lsn;
+         pendingFlushes++;
+         work.signal();
+         try {
+            while (lastSavedLSN < lsn)
+               awaitWriter();
+         }
+         finally {
+            pendingFlushes--;
+         }
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Returns an iterator over the log records, from the most recent
+    * to the oldest. The log is written, but not forced, first.
+    * @return an iterator over the log records
+    */
+   public LogIterator iterator() {
+      lock.lock();
+      try {
+         long lsn = latestLSN;
+         if (lsn > writeRequest)
+            writeRequest = lsn;
+         work.signal();
+         while (lastWrittenLSN < lsn)
+            awaitWriter();
+         return new LogIterator(this, currentBlk);
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Returns the log record having the specified LSN.
+    * The record is copied from the log buffer if its block
+    * is still there, and read from the log file otherwise.
+    * @param lsn the LSN of a log record
+    * @return the bytes of the record
+    */
+   public byte[] read(long lsn) {
+      int blknum = (int) (lsn / blocksize);
+      int pos = blocksize - (int) (lsn % blocksize);
+      lock.lock();
+      try {
+         if (blknum >= firstInRing && blknum > currentBlk - ring.length) {
+            int slot = blknum % ring.length;
+            byte[] rec = new byte[ring[slot].getInt(pos)];
+            System.arraycopy(ringBytes, slot*blocksize + pos + Integer.BYTES, rec, 0, rec.length);
+            return rec;
+         }
+      }
+      finally {
+         lock.unlock();
+      }
+      // the block left the ring, so it has been written
+      Page p = new Page(new byte[blocksize]);
+      readBlock(blknum, p);
+      return p.getBytes(pos);
+   }
+
+   /**
+    * Reads the specified block of the log from its segment.
+    * @param blknum the number of the block in the log
+    * @param p the page to read into
+    */
+   void readBlock(int blknum, Page p) {
+      fm.read(logBlock(blknum), p);
+   }
+
+   int blockSize() {
+      return blocksize;
    }
 
-   public Iterator<byte[]> iterator() {
-      flush();
-      return new LogIterator(fm, currentblk);
+   /**
+    * Returns the first block of the log that has not been truncated.
+    * @return the number of that block
+    */
+   int firstBlock() {
+      return firstBlk;
    }
 
    /**
-    * Appends a log record to the log buffer. 
-    * The record consists of an arbitrary array of bytes. 
+    * Appends a log record to the log buffer.
+    * The record consists of an arbitrary array of bytes.
     * Log records are written right to left in the buffer.
     * The size of the record is written before the bytes.
     * The beginning of the buffer contains the location
@@ -65,40 +370,249 @@ public class LogMgr {
     * Storing the records backwards makes it easy to read
     * them in reverse order.
     * @param logrec a byte buffer containing the bytes.
-    * @return the LSN of the final value
+    * @return the LSN of the record
     */
-   public synchronized int append(byte[] logrec) {
+   public long append(byte[] logrec) {
+      return append(logrec.length, (p, pos) -> {
+         int offset = (currentBlk % ring.length) * blocksize;
+         System.arraycopy(logrec, 0, ringBytes, offset + pos, logrec.length);
+      });
+   }
+
+   /**
+    * Appends a log record of the specified length, which the
+    * writer writes directly into the log page, so that the
+    * record is not first built in a separate array.
+    * The writer is called with the lock held, so it should
+    * do nothing but write the record; other appenders wait for it.
+    * If it fails, the record is not added to the log.
+    * @param reclen the length of the record in bytes
+    * @param writer writes the record into the page at the given position
+    * @return the LSN of the record
+    * @throws IllegalArgumentException if the record cannot fit in a log block
+    */
+   public long append(int reclen, RecordWriter writer) {
+      if (reclen > blocksize - 2 * Integer.BYTES)
+         throw new IllegalArgumentException("log record of " + reclen
+               + " bytes does not fit in a log block of " + blocksize + " bytes");
+      lock.lock();
+      try {
+         int pos = reserve(reclen);
+         writer.write(logpage, pos);
+         return commitRecord();
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Writes a log record into the space reserved for it.
+    */
+   public interface RecordWriter {
+      /**
+       * Writes the record into the page.
+       * @param p the log page
+       * @param pos the position at which the record's bytes begin
+       */
+      void write(Page p, int pos);
+   }
+
+   /**
+    * Reserves space for a log record of the specified length
+    * in the current log page, and returns the position in
+    * that page at which the record's bytes begin.
+    * Called with the lock held.
+    */
+   private int reserve(int reclen) {
       int boundary = logpage.getInt(0);
-      int recsize = logrec.length;
-      int bytesneeded = recsize + Integer.BYTES;
+      int bytesneeded = reclen + Integer.BYTES;
       if (boundary - bytesneeded < Integer.BYTES) { // the log record doesn't fit,
-         flush();        // so move to the next block.
-         currentblk = appendNewBlock();
+         moveToNextPage();                         // so move to the next block.
          boundary = logpage.getInt(0);
       }
-      int recpos = boundary - bytesneeded;
+      reservedPos = boundary - bytesneeded;
+      logpage.setInt(reservedPos, reclen);
+      return reservedPos + Integer.BYTES;
+   }
 
-      logpage.setBytes(recpos, logrec);
-      logpage.setInt(0, recpos); // the new boundary
-      latestLSN += 1;
+   /**
+    * Adds the record written into the reserved space to the log.
+    * Called with the lock held.
+    */
+   private long commitRecord() {
+      logpage.setInt(0, reservedPos); // the new boundary
+      latestLSN = lsn(currentBlk, reservedPos);
       return latestLSN;
    }
 
+   private long lsn(int blknum, int pos) {
+      return (long) blknum * blocksize + (blocksize - pos);
+   }
+
+   /**
+    * Hands the current page over to the log writer and
+    * starts the next block in the next page of the ring,
+    * waiting if that page has not yet been written.
+    * Called with the lock held.
+    */
+   private void moveToNextPage() {
+      lastLSNInPage[currentBlk % ring.length] = latestLSN;
+      while (currentBlk + 1 - firstUnwritten >= ring.length) {
+         work.signal();
+         awaitWriter();
+      }
+      currentBlk++;
+      logpage = ring[currentBlk % ring.length];
+      logpage.setInt(0, blocksize);
+      work.signal();
+   }
+
    /**
-    * Initialize the bytebuffer and append it to the log file.
+    * Waits for the log writer to make progress.
+    * Called with the lock held.
+    * A failure of the writer is rethrown to the waiting thread.
     */
-   private BlockId appendNewBlock() {
-      BlockId blk = fm.append(logfile);     
-      logpage.setInt(0, fm.blockSize());
-      fm.write(blk, logpage);
-      return blk;
+   private void awaitWriter() {
+      if (writerFailure != null)
+         throw writerFailure;
+      written.awaitUninterruptibly();
    }
 
    /**
-    * Write the buffer to the log file.
+    * The body of the log writer thread.
+    * Each round writes the full pages that have not yet
+    * been written, and a copy of the current page if a thread
+    * is waiting for it, and then forces the log if a flush is pending.
+    * The writes and the force are done without holding the lock,
+    * so that appenders can continue meanwhile.
     */
-   private void flush() {
-      fm.write(currentblk, logpage);
-      lastSavedLSN = latestLSN;
+   private void writeLoop() {
+      while (true) {
+         int from, to;
+         long lsn;
+         boolean withCurrent, force;
+         lock.lock();
+         try {
+            while (firstUnwritten == currentBlk
+                   && writeRequest <= lastWrittenLSN && flushRequest <= lastSavedLSN)
+               work.awaitUninterruptibly();
+            if (flushRequest > lastSavedLSN && groupDelay > 0 && pendingFlushes > 1)
+               awaitGroupDelay();
+            force = flushRequest > lastSavedLSN;
+            withCurrent = force || writeRequest > lastWrittenLSN;
+            from = firstUnwritten;
+            to = currentBlk;
+            if (withCurrent) {
+               int offset = (currentBlk % ring.length) * blocksize;
+               System.arraycopy(ringBytes, offset, currentCopyBytes, 0, blocksize);
+               lsn = latestLSN;
+            }
+            else
+               lsn = lastLSNInPage[(to-1) % ring.length];
+         }
+         finally {
+            lock.unlock();
+         }
+
+         try {
+            writeRange(from, to);
+            if (withCurrent)
+               fm.write(logBlock(to), currentCopy);
+            if (force)
+               forceSegments(to);
+         }
+         catch (RuntimeException e) {
+            lock.lock();
+            try {
+               writerFailure = e;
+               written.signalAll();
+            }
+            finally {
+               lock.unlock();
+            }
+            return;
+         }
+
+         lock.lock();
+         try {
+            firstUnwritten = to;
+            if (lsn > lastWrittenLSN)
+               lastWrittenLSN = lsn;
+            if (force) {
+               if (lsn > lastSavedLSN)
+                  lastSavedLSN = lsn;
+               numFlushes++;
+            }
+            written.signalAll();
+         }
+         finally {
+            lock.unlock();
+         }
+      }
+   }
+
+   private void awaitGroupDelay() {
+      long remaining = groupDelay;
+      while (remaining > 0) {
+         try {
+            remaining = work.awaitNanos(remaining);
+         }
+         catch (InterruptedException e) {
+            return;
+         }
+      }
+   }
+
+   /**
+    * Writes the full blocks from the first block up to
+    * (but not including) the second,
+    * with one write for each contiguous run of ring pages
+    * within a segment.
+    */
+   private void writeRange(int from, int to) {
+      while (from < to) {
+         int slot = from % ring.length;
+         int n = Math.min(to - from, ring.length - slot);
+         n = Math.min(n, segblocks - from % segblocks);
+         Page run = new Page(ringBytes, slot*blocksize, n*blocksize);
+         fm.write(logBlock(from), run);
+         from += n;
+      }
+   }
+
+   /**
+    * Forces the segments written since the last force,
+    * up to the segment holding the specified block.
+    * Called only by the log writer.
+    */
+   private void forceSegments(int blknum) {
+      int lastseg = blknum / segblocks;
+      for (int seg=unforcedSeg; seg<=lastseg; seg++)
+         fm.force(segmentName(seg));
+      unforcedSeg = lastseg;
+   }
+
+   private BlockId logBlock(int blknum) {
+      return new BlockId(segmentName(blknum / segblocks), blknum % segblocks);
+   }
+
+   private String segmentName(int seg) {
+      return logfile + "." + seg;
+   }
+
+   /**
+    * Returns the numbers of the segments on disk, in increasing order.
+    */
+   private List<Integer> segments() {
+      List<Integer> segs = new ArrayList<>();
+      String prefix = logfile + ".";
+      for (String filename : fm.files(prefix)) {
+         String suffix = filename.substring(prefix.length());
+         if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit))
+            segs.add(Integer.parseInt(suffix));
+      }
+      Collections.sort(segs);
+      return segs;
    }
 }
@@ -31,9 +31,11 @@ public class TempTable {
    
    /**
     * Open a table scan for the temporary table.
+    * The transaction reads and writes the table's pages
+    * through a buffer ring.
     */
    public UpdateScan open() {
-      return new TableScan(tx, tblname, layout);
+      return new TableScan(tx, tblname, layout, tx.newBufferRing());
    }
    
    public String tableName() {
@@ -0,0 +1,87 @@
+package simpledb.record;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+import simpledb.tx.concurrency.*;
+
+/**
+ * Measures concurrent updates of a hot table.
+ * The table has a few hundred records, so that its
+ * blocks are shared by many of them.
+ * For an increasing number of threads, each thread runs
+ * short transactions that update two random records,
+ * first with record locks and then with an XLock
+ * on the whole table, which is how the transactions
+ * would run if they locked whole blocks of the hot table.
+ * The committed transactions per second
+ * and the deadlock aborts are reported.
+ */
+public class RecordLockBenchmark {
+   private static final int RECORDS = 400;
+   private static final int UPDATES = 2;      // per transaction
+   private static final int DURATION = 2000;  // milliseconds per run
+   private static SimpleDB db;
+   private static Layout layout;
+   private static List<RID> rids = new ArrayList<>();
+
+   public static void main(String[] args) throws InterruptedException {
+      SimpleDB.GROUP_COMMIT_DELAY = 200;
+      db = new SimpleDB("recordlockbenchmark", 400, 64);
+      Schema sch = new Schema();
+      sch.addIntField("A");
+      layout = new Layout(sch);
+      Transaction tx = db.newTx();
+      TableScan ts = new TableScan(tx, "hot", layout);
+      for (int i=0; i<RECORDS; i++) {
+         ts.insert();
+         ts.setInt("A", i);
+         rids.add(ts.getRid());
+      }
+      ts.close();
+      tx.commit();
+      for (int n=1; n<=16; n*=2) {
+         run(n, false);
+         run(n, true);
+      }
+   }
+
+   private static void run(int nthreads, boolean tablelock) throws InterruptedException {
+      AtomicBoolean stop = new AtomicBoolean(false);
+      LongAdder commits = new LongAdder(), aborts = new LongAdder();
+      Thread[] threads = new Thread[nthreads];
+      for (int i=0; i<nthreads; i++) {
+         Random rand = new Random(i);
+         threads[i] = new Thread(() -> {
+            while (!stop.get()) {
+               Transaction tx = db.newTx();
+               try {
+                  if (tablelock)
+                     tx.lockTable("hot.tbl", LockMode.X);
+                  TableScan ts = new TableScan(tx, "hot", layout);
+                  for (int k=0; k<UPDATES; k++) {
+                     ts.moveToRid(rids.get(rand.nextInt(RECORDS)));
+                     ts.setInt("A", ts.getInt("A") + 1);
+                  }
+                  ts.close();
+                  tx.commit();
+                  commits.increment();
+               }
+               catch (LockAbortException e) {
+                  tx.rollback();
+                  aborts.increment();
+               }
+            }
+         });
+         threads[i].start();
+      }
+      Thread.sleep(DURATION);
+      stop.set(true);
+      for (Thread t : threads)
+         t.join();
+      System.out.printf("%2d threads, %-13s: %6d tx/s, %5d deadlock aborts%n", nthreads,
+                        tablelock ? "table lock" : "record locks",
+                        commits.sum() * 1000 / DURATION, aborts.sum());
+   }
+}
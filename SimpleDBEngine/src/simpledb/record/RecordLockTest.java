@@ -0,0 +1,208 @@
+package simpledb.record;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.tx.Transaction;
+import simpledb.tx.concurrency.LockAbortException;
+import simpledb.tx.concurrency.LockMode;
+
+/**
+ * Checks how table scans lock records.
+ * A scan must not pass over a record whose deletion
+ * has not committed, since the deletion may be rolled back.
+ * Scans that update different records must not deadlock,
+ * and an insertion must wait for a scan that would miss it.
+ * A page modified by two transactions must still be written
+ * when the first rolls back, if it holds an unlogged change.
+ */
+public class RecordLockTest {
+   private static final int RECORDS = 10;
+   private static SimpleDB db;
+   private static Layout layout;
+   private static int failures = 0;
+
+   public static void main(String[] args) throws Exception {
+      db = new SimpleDB("recordlocktest", 400, 16);
+      Schema sch = new Schema();
+      sch.addIntField("K");
+      sch.addIntField("V");
+      layout = new Layout(sch);
+      Transaction tx = db.newTx();
+      TableScan ts = new TableScan(tx, "T", layout);
+      for (int k=0; k<RECORDS; k++) {
+         ts.insert();
+         ts.setInt("K", k);
+         ts.setInt("V", 0);
+      }
+      ts.close();
+      tx.commit();
+
+      deleteRolledBack();
+      twoUpdaters();
+      insertDuringScan();
+      rollbackAfterOtherModifier();
+      System.out.println(failures == 0 ? "RecordLockTest passed"
+                                       : "RecordLockTest: " + failures + " failures");
+   }
+
+   /**
+    * A transaction deletes a record; while it is uncommitted,
+    * another transaction counts the records of the table.
+    * The deletion is then rolled back, so the count must include
+    * the deleted record.
+    */
+   private static void deleteRolledBack() throws Exception {
+      Transaction deleter = db.newTx();
+      TableScan ts = new TableScan(deleter, "T", layout);
+      while (ts.next())
+         if (ts.getInt("K") == RECORDS / 2)
+            ts.delete();
+      ts.close();
+
+      int[] count = new int[1];
+      Thread reader = new Thread(() -> {
+         Transaction tx = db.newTx();
+         TableScan rs = new TableScan(tx, "T", layout);
+         while (rs.next())
+            count[0]++;
+         rs.close();
+         tx.commit();
+      });
+      reader.start();
+      Thread.sleep(200);  // until the reader waits for the deleted record
+      deleter.rollback();
+      reader.join();
+      check(count[0] == RECORDS, "the reader counted " + count[0]
+            + " records instead of " + RECORDS);
+   }
+
+   /**
+    * Two transactions scan the table, each updating one record.
+    * The first has updated a record near the end of the table
+    * when the second updates one near the start, which must wait
+    * for the first's SLock on it. The first then finishes its scan,
+    * and both must commit.
+    */
+   private static void twoUpdaters() throws Exception {
+      Transaction tx1 = db.newTx();
+      TableScan ts1 = new TableScan(tx1, "T", layout);
+      while (ts1.next() && ts1.getInt("K") != RECORDS - 2)
+         ;
+      ts1.setInt("V", ts1.getInt("V") + 1);
+
+      boolean[] aborted = new boolean[2];
+      Thread updater = new Thread(() -> {
+         Transaction tx2 = db.newTx();
+         try {
+            TableScan ts2 = new TableScan(tx2, "T", layout);
+            while (ts2.next())
+               if (ts2.getInt("K") == 1)
+                  ts2.setInt("V", ts2.getInt("V") + 1);
+            ts2.close();
+            tx2.commit();
+         }
+         catch (LockAbortException e) {
+            tx2.rollback();
+            aborted[1] = true;
+         }
+      });
+      updater.start();
+      Thread.sleep(200);  // until the second updater waits for record 1
+      try {
+         while (ts1.next())
+            ;
+         ts1.close();
+         tx1.commit();
+      }
+      catch (LockAbortException e) {
+         tx1.rollback();
+         aborted[0] = true;
+      }
+      updater.join();
+      check(!aborted[0] && !aborted[1], "an updater was aborted");
+
+      Transaction tx = db.newTx();
+      TableScan ts = new TableScan(tx, "T", layout);
+      while (ts.next()) {
+         int k = ts.getInt("K");
+         int expected = (k == 1 || k == RECORDS - 2) ? 1 : 0;
+         check(ts.getInt("V") == expected,
+               "record " + k + " has value " + ts.getInt("V"));
+      }
+      ts.close();
+      tx.commit();
+   }
+
+   /**
+    * A transaction counts the records of the table; another one
+    * inserts a record meanwhile. The insertion must wait until the
+    * counting transaction commits, which counts the same twice.
+    */
+   private static void insertDuringScan() throws Exception {
+      Transaction tx = db.newTx();
+      TableScan ts = new TableScan(tx, "T", layout);
+      int before = 0;
+      while (ts.next())
+         before++;
+
+      AtomicBoolean inserted = new AtomicBoolean(false);
+      Thread inserter = new Thread(() -> {
+         Transaction tx2 = db.newTx();
+         TableScan ts2 = new TableScan(tx2, "T", layout);
+         ts2.insert();
+         ts2.setInt("K", RECORDS);
+         ts2.close();
+         tx2.commit();
+         inserted.set(true);
+      });
+      inserter.start();
+      Thread.sleep(200);  // the inserter should be waiting
+      check(!inserted.get(), "the insertion did not wait for the scan");
+      int after = 0;
+      ts.beforeFirst();
+      while (ts.next())
+         after++;
+      ts.close();
+      tx.commit();
+      inserter.join();
+      check(before == after, "the scan counted " + before
+            + " records and then " + after);
+   }
+
+   /**
+    * Two transactions modify different parts of a page,
+    * the first without logging, which it cannot undo;
+    * its logged change is to another page.
+    * When it rolls back after the second has modified the page,
+    * its unlogged change must be on disk, as after a commit.
+    */
+   private static void rollbackAfterOtherModifier() {
+      Transaction tx = db.newTx();
+      BlockId blk = tx.append("sharedpage");
+      BlockId blk2 = tx.append("sharedpage");
+      tx.commit();
+      Transaction tx1 = db.newTx();
+      Transaction tx2 = db.newTx();
+      tx1.lockTable("sharedpage", LockMode.IX);
+      tx2.lockTable("sharedpage", LockMode.IX);
+      tx1.pin(blk);
+      tx1.pin(blk2);
+      tx2.pin(blk);
+      tx1.setInt(blk, 0, 7, false);
+      tx1.setInt(blk2, 0, 8, true);
+      tx2.setInt(blk, 8, 9, true);
+      tx1.rollback();
+      Page p = new Page(db.fileMgr().blockSize());
+      db.fileMgr().read(blk, p);
+      check(p.getInt(0) == 7, "the unlogged change of a rolled-back transaction was not written");
+      tx2.commit();
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
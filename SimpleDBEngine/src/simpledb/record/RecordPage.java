@@ -2,10 +2,20 @@ package simpledb.record;
 
 import static java.sql.Types.INTEGER;
 import simpledb.file.*;
+import simpledb.buffer.BufferRing;
 import simpledb.tx.Transaction;
+import simpledb.tx.concurrency.LockMode;
 
 /**
  * Store a record at a given location in a block. 
+ * The records are locked individually: a record is SLocked
+ * before its values are read, and XLocked before they are written.
+ * The empty/inuse flags are examined without a lock, and checked
+ * again once the record is locked, since the transaction that
+ * changed a flag may still roll back. For the same reason, a scan
+ * only passes over an empty slot without locking it if the
+ * transaction that emptied it has committed; otherwise it waits
+ * for the record's lock, like for a used slot.
  * @author Edward Sciore
  */
 public class RecordPage {
@@ -15,10 +25,20 @@ public class RecordPage {
    private Layout layout;
 
    public RecordPage(Transaction tx, BlockId blk, Layout layout) {
+      this(tx, blk, layout, null);
+   }
+
+   /**
+    * Creates a record page whose block is pinned
+    * through the specified buffer ring.
+    * @param ring the scan's buffer ring, or null
+    */
+   public RecordPage(Transaction tx, BlockId blk, Layout layout, BufferRing ring) {
       this.tx = tx;
       this.blk = blk;
       this.layout = layout;
-      tx.pin(blk);
+      tx.lockTable(blk.fileName(), LockMode.IS);
+      tx.pin(blk, ring);
    }
 
    /**
@@ -28,6 +48,7 @@ public class RecordPage {
     * @return the integer stored in that field
     */
    public int getInt(int slot, String fldname) {
+      tx.sLockRecord(blk, slot);
       int fldpos = offset(slot) + layout.offset(fldname);
       return tx.getInt(blk, fldpos);
    }
@@ -39,6 +60,7 @@ public class RecordPage {
     * @return the string stored in that field
     */
    public String getString(int slot, String fldname) {
+      tx.sLockRecord(blk, slot);
       int fldpos = offset(slot) + layout.offset(fldname);
       return tx.getString(blk, fldpos);
    }
@@ -50,6 +72,7 @@ public class RecordPage {
     * @param val the integer value stored in that field
     */
    public void setInt(int slot, String fldname, int val) {
+      tx.xLockRecord(blk, slot);
       int fldpos = offset(slot) + layout.offset(fldname);
       tx.setInt(blk, fldpos, val, true);
    }
@@ -61,6 +84,7 @@ public class RecordPage {
     * @param val the string value stored in that field
     */
    public void setString(int slot, String fldname, String val) {
+      tx.xLockRecord(blk, slot);
       int fldpos = offset(slot) + layout.offset(fldname);
       tx.setString(blk, fldpos, val, true);
    }
@@ -89,15 +113,40 @@ public class RecordPage {
       }
    }
 
+   /**
+    * Return the next used slot after the specified one,
+    * SLocking its record, or -1 if there is none.
+    * A slot that is not known to be empty is locked before
+    * its flag is relied on, since a deletion that
+    * has not committed yet may still be rolled back.
+    */
    public int nextAfter(int slot) {
-      return searchAfter(slot, USED);
+      for (slot++; isValidSlot(slot); slot++) {
+         if (tx.isCommittedInt(blk, offset(slot), EMPTY))
+            continue;
+         tx.sLockRecord(blk, slot);
+         if (tx.getInt(blk, offset(slot)) == USED)
+            return slot;
+      }
+      return -1;
    }
- 
+
+   /**
+    * Claim the next empty slot after the specified one
+    * and mark it as used, or return -1 if there is none.
+    * A slot whose record another transaction has locked
+    * is passed over.
+    */
    public int insertAfter(int slot) {
-      int newslot = searchAfter(slot, EMPTY);
-      if (newslot >= 0)
-         setFlag(newslot, USED);
-      return newslot;
+      slot = searchAfter(slot, EMPTY);
+      while (slot >= 0) {
+         if (tx.tryXLockRecord(blk, slot) && tx.getInt(blk, offset(slot)) == EMPTY) {
+            setFlag(slot, USED);
+            return slot;
+         }
+         slot = searchAfter(slot, EMPTY);
+      }
+      return -1;
    }
   
    public BlockId block() {
@@ -110,6 +159,7 @@ public class RecordPage {
     * Set the record's empty/inuse flag.
     */
    private void setFlag(int slot, int flag) {
+      tx.xLockRecord(blk, slot);
       tx.setInt(blk, offset(slot), flag, true); 
    }
 
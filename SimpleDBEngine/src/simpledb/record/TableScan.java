@@ -2,12 +2,27 @@ package simpledb.record;
 
 import static java.sql.Types.INTEGER;
 import simpledb.file.BlockId;
+import simpledb.buffer.BufferRing;
 import simpledb.query.*;
 import simpledb.tx.Transaction;
+import simpledb.tx.concurrency.*;
 
 /**
  * Provides the abstraction of an arbitrarily large array
  * of records.
+ * The scan IS-locks its table, and its record page locks
+ * the records it reads or writes.
+ * A scan that reads through the table SLocks the end of
+ * the table's file, and an insertion IX-locks it,
+ * so that no other transaction can insert a record
+ * that the scan should have seen; updates and deletions
+ * are not affected.
+ * At the READ_COMMITTED isolation level, the end of the file
+ * is not SLocked, and the scan releases its record SLocks
+ * when it leaves a block.
+ * A scan that moves sequentially through a large table pins
+ * its blocks through its own buffer ring;
+ * {@link #moveToRid(RID)} pins through the shared pool.
  * @author sciore
  */
 public class TableScan implements UpdateScan {
@@ -16,11 +31,26 @@ public class TableScan implements UpdateScan {
    private RecordPage rp;
    private String filename;
    private int currentslot;
+   private BufferRing ring;
+   private boolean scanning = false;
 
    public TableScan(Transaction tx, String tblname, Layout layout) {
+      this(tx, tblname, layout, null);
+   }
+
+   /**
+    * Creates a table scan whose sequential pins go through
+    * the specified buffer ring.
+    * Without a ring, the scan gets one when it finds
+    * that it is reading a large table.
+    * @param ring the buffer ring, or null
+    */
+   public TableScan(Transaction tx, String tblname, Layout layout, BufferRing ring) {
       this.tx = tx;
+      this.ring = ring;
       this.layout = layout;
       filename = tblname + ".tbl";
+      tx.lockTable(filename, LockMode.IS);
       if (tx.size(filename) == 0)
          moveToNewBlock();
       else 
@@ -34,6 +64,11 @@ public class TableScan implements UpdateScan {
    }
 
    public boolean next() {
+      if (!scanning) {
+         if (tx.isolation() == IsolationLevel.SERIALIZABLE)
+            tx.lockEndOfFile(filename, LockMode.S);
+         scanning = true;
+      }
       currentslot = rp.nextAfter(currentslot);
       while (currentslot < 0) {
          if (atLastBlock())
@@ -64,8 +99,10 @@ public class TableScan implements UpdateScan {
    }
 
    public void close() {
-      if (rp != null)
+      if (rp != null) {
+         tx.releaseReadLocks(rp.block());
          tx.unpin(rp.block());
+      }
    }
 
    // Methods that implement UpdateScan
@@ -86,6 +123,7 @@ public class TableScan implements UpdateScan {
    }
 
    public void insert() {
+      tx.lockEndOfFile(filename, LockMode.IX);
       currentslot = rp.insertAfter(currentslot);
       while (currentslot < 0) {
          if (atLastBlock()) 
@@ -115,16 +153,23 @@ public class TableScan implements UpdateScan {
 
    private void moveToBlock(int blknum) {
       close();
+      if (blknum == 1)  // the scan is moving through the file
+         ring = tx.startScan(filename, blknum, ring);
       BlockId blk = new BlockId(filename, blknum);
-      rp = new RecordPage(tx, blk, layout);
+      rp = new RecordPage(tx, blk, layout, ring);
       currentslot = -1;
    }
 
+   /**
+    * Appends a new block to the table.
+    * The block is not formatted: an appended block is zeroed,
+    * which is the formatted state (empty slots, zero values),
+    * and other transactions may already be inserting into it.
+    */
    private void moveToNewBlock() {
       close();
       BlockId blk = tx.append(filename);
-      rp = new RecordPage(tx, blk, layout);
-      rp.format();
+      rp = new RecordPage(tx, blk, layout, ring);
       currentslot = -1;
    }
 
@@ -3,8 +3,10 @@ package simpledb.server;
 import java.io.File;
 import simpledb.file.FileMgr;
 import simpledb.log.LogMgr;
-import simpledb.buffer.BufferMgr;
+import simpledb.buffer.*;
 import simpledb.tx.Transaction;
+import simpledb.tx.recovery.*;
+import simpledb.tx.concurrency.ConcurrencyMgr;
 import simpledb.metadata.MetadataMgr;
 import simpledb.plan.*;
 import simpledb.index.planner.IndexUpdatePlanner;
@@ -20,12 +22,27 @@ public class SimpleDB {
    public static int BLOCK_SIZE = 400;
    public static int BUFFER_SIZE = 8;
    public static String LOG_FILE = "simpledb.log";
+   public static boolean MAPPED_FILES = false;
+   public static int LOG_BUFFER_SIZE = 1 << 20;   // bytes
+   public static int LOG_SEGMENT_SIZE = 1 << 22;  // bytes
+   public static long CHECKPOINT_INTERVAL = 10000; // milliseconds; 0 disables checkpoints
+   public static int RECOVERY_THREADS = Runtime.getRuntime().availableProcessors();
+   public static int LOCK_ESCALATION = 1000;      // record locks per table
+   public static long GROUP_COMMIT_DELAY = 0;     // microseconds
+   public static boolean BACKGROUND_WRITER = true;
+   public static long WRITER_INTERVAL = 100;      // milliseconds
+   public static int WRITER_MAX_PAGES = 64;       // pages per round
+   public static double WRITER_LOW_WATER = 0.05;  // fraction of the pool
+   public static double WRITER_HIGH_WATER = 0.10; // fraction of the pool
+   public static int READ_AHEAD = 8;              // blocks; 0 disables read-ahead
+   public static int PREFETCH_THREADS = 2;
 
    private  FileMgr     fm;
    private  BufferMgr   bm;
    private  LogMgr      lm;
    private  MetadataMgr mdm;
    private  Planner planner;
+   private  Checkpointer checkpointer;
 
    /**
     * A constructor useful for debugging.
@@ -34,10 +51,30 @@ public class SimpleDB {
     * @param buffsize the number of buffers
     */
    public SimpleDB(String dirname, int blocksize, int buffsize) {
+      this(dirname, blocksize, buffsize, new ClockPolicy());
+   }
+
+   /**
+    * A constructor useful for debugging,
+    * which also chooses the buffer replacement policy.
+    * @param dirname the name of the database directory
+    * @param blocksize the block size
+    * @param buffsize the number of buffers
+    * @param policy the buffer replacement policy
+    */
+   public SimpleDB(String dirname, int blocksize, int buffsize, ReplacementPolicy policy) {
       File dbDirectory = new File(dirname);
-      fm = new FileMgr(dbDirectory, blocksize);
-      lm = new LogMgr(fm, LOG_FILE);
-      bm = new BufferMgr(fm, lm, buffsize); 
+      fm = new FileMgr(dbDirectory, blocksize, MAPPED_FILES);
+      lm = new LogMgr(fm, LOG_FILE, LOG_BUFFER_SIZE, LOG_SEGMENT_SIZE);
+      lm.setGroupCommitDelay(GROUP_COMMIT_DELAY);
+      bm = new BufferMgr(fm, lm, buffsize, policy); 
+      RecoveryMgr.setRecoveryThreads(RECOVERY_THREADS);
+      ConcurrencyMgr.setEscalationThreshold(LOCK_ESCALATION);
+      if (BACKGROUND_WRITER)
+         bm.startBackgroundWriter(WRITER_INTERVAL, WRITER_MAX_PAGES,
+                                  WRITER_LOW_WATER, WRITER_HIGH_WATER);
+      if (READ_AHEAD > 0)
+         bm.startReadAhead(READ_AHEAD, PREFETCH_THREADS);
    }
    
    /**
@@ -46,11 +83,24 @@ public class SimpleDB {
     * @param dirname the name of the database directory
     */
    public SimpleDB(String dirname) {
-      this(dirname, BLOCK_SIZE, BUFFER_SIZE); 
-      Transaction tx = newTx();
+      this(dirname, new ClockPolicy());
+   }
+
+   /**
+    * Like the 1-arg constructor, but using the specified
+    * buffer replacement policy.
+    * @param dirname the name of the database directory
+    * @param policy the buffer replacement policy
+    */
+   public SimpleDB(String dirname, ReplacementPolicy policy) {
+      this(dirname, BLOCK_SIZE, BUFFER_SIZE, policy); 
       boolean isnew = fm.isNew();
+      boolean clean = !isnew && RecoveryMgr.wasShutDownCleanly(fm, lm);
+      Transaction tx = newTx();
       if (isnew)
          System.out.println("creating new database");
+      else if (clean)
+         System.out.println("opening cleanly shut down database");
       else {
          System.out.println("recovering existing database");
          tx.recover();
@@ -66,6 +116,48 @@ public class SimpleDB {
       UpdatePlanner up = new IndexUpdatePlanner(mdm);
       planner = new Planner(qp, up);
       tx.commit();
+      if (CHECKPOINT_INTERVAL > 0)
+         startCheckpointer(CHECKPOINT_INTERVAL);
+   }
+
+   /**
+    * Starts a thread that takes a checkpoint at the specified interval,
+    * unless one is already running.
+    * It must not be started before the database has been recovered.
+    * @param interval the time between checkpoints, in milliseconds
+    */
+   public synchronized void startCheckpointer(long interval) {
+      if (checkpointer != null)
+         return;
+      checkpointer = new Checkpointer(fm, lm, bm, interval);
+      checkpointer.start();
+   }
+
+   /**
+    * Stops the checkpointer, if one is running,
+    * and waits for its current round to finish.
+    */
+   public synchronized void stopCheckpointer() {
+      if (checkpointer != null) {
+         checkpointer.stop();
+         checkpointer = null;
+      }
+   }
+   
+   /**
+    * Shuts the database down: stops the background threads,
+    * writes the buffer pool and a final checkpoint, and marks
+    * the database as cleanly shut down, so that the next startup
+    * skips recovery. All transactions should have completed;
+    * otherwise no marker is written, and the next startup recovers.
+    * The database must not be used afterwards.
+    */
+   public synchronized void shutdown() {
+      stopCheckpointer();
+      bm.stopBackgroundWriter();
+      bm.stopReadAhead();
+      if (!RecoveryMgr.shutdown(fm, lm, bm))
+         System.out.println("transactions still active; recovery needed at restart");
    }
    
    /**
@@ -75,7 +167,25 @@ public class SimpleDB {
    public Transaction newTx() {
       return new Transaction(fm, lm, bm);
    }
-   
+
+   /**
+    * Creates a read-only transaction, which reads a snapshot
+    * of the database and takes no locks.
+    */
+   public Transaction newReadOnlyTx() {
+      return new Transaction(fm, lm, bm, true);
+   }
+
+   /**
+    * Creates an optimistic transaction, which takes no locks
+    * until it is validated at commit.
+    */
+   public Transaction newOptimisticTx() {
+      Transaction tx = newTx();
+      tx.setOptimistic(true);
+      return tx;
+   }
+
    public MetadataMgr mdMgr() {
       return mdm;
    }
@@ -5,12 +5,14 @@ import simpledb.file.BlockId;
 import simpledb.buffer.*;
 
 /**
- * Manage the transaction's currently-pinned buffers. 
+ * Manage the transaction's currently-pinned buffers,
+ * and remember the buffers that the transaction has modified.
  * @author Edward Sciore
  */
 class BufferList {
    private Map<BlockId,Buffer> buffers = new HashMap<>();
    private List<BlockId> pins = new ArrayList<>();
+   private Set<Buffer> modified = new HashSet<>();
    private BufferMgr bm;
   
    public BufferList(BufferMgr bm) {
@@ -31,9 +33,10 @@ class BufferList {
    /**
     * Pin the block and keep track of the buffer internally.
     * @param blk a reference to the disk block
+    * @param ring the buffer ring to read the block into, or null
     */
-   void pin(BlockId blk) {
-      Buffer buff = bm.pin(blk);
+   void pin(BlockId blk, BufferRing ring) {
+      Buffer buff = bm.pin(blk, ring);
       buffers.put(blk, buff);
       pins.add(blk);
    }
@@ -50,6 +53,24 @@ class BufferList {
          buffers.remove(blk);
    }
    
+   /**
+    * Remember that the transaction has modified the buffer.
+    * @param buff the modified buffer
+    */
+   void markModified(Buffer buff) {
+      modified.add(buff);
+   }
+
+   /**
+    * Return the buffers that the transaction has modified.
+    * A buffer in this collection may since have been
+    * written to disk and reassigned to another block.
+    * @return the buffers modified by the transaction
+    */
+   Collection<Buffer> modifiedBuffers() {
+      return Collections.unmodifiableSet(modified);
+   }
+
    /**
     * Unpin any buffers still pinned by this transaction.
     */
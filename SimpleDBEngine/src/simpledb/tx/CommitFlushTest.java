@@ -0,0 +1,70 @@
+package simpledb.tx;
+
+import simpledb.server.SimpleDB;
+import simpledb.buffer.*;
+import simpledb.file.*;
+
+/**
+ * Checks which buffers a commit writes to disk.
+ * A change that the transaction did not log must be on disk
+ * once it commits, but the dirty buffers of another
+ * transaction must not be, even when one of them reuses a
+ * buffer that the committing transaction had modified.
+ */
+public class CommitFlushTest {
+   private static final String FILENAME = "commitflush";
+   private static FileMgr fm;
+   private static int failures = 0;
+
+   public static void main(String[] args) {
+      SimpleDB.BACKGROUND_WRITER = false;
+      SimpleDB.READ_AHEAD = 0;
+      SimpleDB db = new SimpleDB("commitflushtest", 400, 4, new LRUPolicy());
+      fm = db.fileMgr();
+      Page p = new Page(fm.blockSize());
+      for (int i=0; i<5; i++)
+         fm.write(new BlockId(FILENAME, i), p);
+      BlockId blkA = new BlockId(FILENAME, 0);
+      BlockId blkU = new BlockId(FILENAME, 1);
+
+      Transaction tx1 = db.newTx();
+      tx1.pin(blkA);
+      tx1.setInt(blkA, 0, 1, true);
+      tx1.unpin(blkA);
+      tx1.pin(blkU);
+      tx1.setInt(blkU, 0, 2, false);
+      tx1.unpin(blkU);
+
+      // the third block takes the buffer of block A, the least recently used
+      Transaction tx2 = db.newTx();
+      for (int i=2; i<5; i++) {
+         BlockId blk = new BlockId(FILENAME, i);
+         tx2.pin(blk);
+         tx2.setInt(blk, 0, 100 + i, true);
+         tx2.unpin(blk);
+      }
+      tx1.commit();
+
+      check(diskValue(blkU) == 2, "an unlogged change was not written at commit");
+      check(diskValue(blkA) == 1, "a change of the committed transaction was lost");
+      for (int i=2; i<5; i++)
+         check(diskValue(new BlockId(FILENAME, i)) == 0,
+               "block " + i + " of the other transaction was written at commit");
+      tx2.rollback();
+      System.out.println(failures == 0 ? "CommitFlushTest passed"
+                                       : "CommitFlushTest: " + failures + " failures");
+   }
+
+   private static int diskValue(BlockId blk) {
+      Page p = new Page(fm.blockSize());
+      fm.read(blk, p);
+      return p.getInt(0);
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
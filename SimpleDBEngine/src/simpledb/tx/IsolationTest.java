@@ -0,0 +1,98 @@
+package simpledb.tx;
+
+import simpledb.server.SimpleDB;
+import simpledb.record.*;
+import simpledb.tx.concurrency.IsolationLevel;
+
+/**
+ * Checks the locks of the isolation levels.
+ * A scanning transaction reads a table that spans two blocks,
+ * and stops in the second one while another transaction
+ * updates a record of the first.
+ * At the SERIALIZABLE level, the update must wait for the scan;
+ * at the READ_COMMITTED level, it must not, unless the scan
+ * updated that record itself. A READ_COMMITTED scan must not
+ * make insertions wait either.
+ */
+public class IsolationTest {
+   private static final int RECORDS = 80;  // 50 fit in a block
+   private static SimpleDB db;
+   private static Layout layout;
+   private static RID first;
+   private static int failures = 0;
+
+   public static void main(String[] args) throws Exception {
+      db = new SimpleDB("isolationtest", 400, 16);
+      Schema sch = new Schema();
+      sch.addIntField("K");
+      layout = new Layout(sch);
+      Transaction tx = db.newTx();
+      TableScan ts = new TableScan(tx, "T", layout);
+      for (int k=0; k<RECORDS; k++) {
+         ts.insert();
+         ts.setInt("K", k);
+         if (k == 0)
+            first = ts.getRid();
+      }
+      ts.close();
+      tx.commit();
+
+      check(waits(IsolationLevel.SERIALIZABLE, false, false),
+            "a serializable scan let a record it read be updated");
+      check(!waits(IsolationLevel.READ_COMMITTED, false, false),
+            "a read-committed scan kept the lock of a block it left");
+      check(waits(IsolationLevel.READ_COMMITTED, true, false),
+            "a read-committed scan released the lock of a record it updated");
+      check(!waits(IsolationLevel.READ_COMMITTED, false, true),
+            "an insertion waited for a read-committed scan");
+      System.out.println(failures == 0 ? "IsolationTest passed"
+                                       : "IsolationTest: " + failures + " failures");
+   }
+
+   /**
+    * Scans the table at the specified level up to the second block,
+    * updating the first record if specified, and returns true if
+    * another transaction then has to wait to update the first record,
+    * or to insert a record if specified.
+    */
+   private static boolean waits(IsolationLevel level, boolean update, boolean insert)
+         throws InterruptedException {
+      Transaction scanner = db.newTx();
+      scanner.setIsolation(level);
+      TableScan ts = new TableScan(scanner, "T", layout);
+      while (ts.next() && ts.getRid().blockNumber() == 0)
+         if (update && ts.getRid().equals(first))
+            ts.setInt("K", 0);
+
+      boolean[] done = new boolean[1];
+      Thread writer = new Thread(() -> {
+         Transaction tx = db.newTx();
+         TableScan ws = new TableScan(tx, "T", layout);
+         if (insert) {
+            ws.insert();
+            ws.setInt("K", RECORDS);
+         }
+         else {
+            ws.moveToRid(first);
+            ws.setInt("K", 0);
+         }
+         ws.close();
+         tx.commit();
+         done[0] = true;
+      });
+      writer.start();
+      writer.join(500);
+      boolean waited = !done[0];
+      ts.close();
+      scanner.commit();
+      writer.join();
+      return waited;
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
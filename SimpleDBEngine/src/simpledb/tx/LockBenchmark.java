@@ -0,0 +1,108 @@
+package simpledb.tx;
+
+import java.util.Random;
+import java.util.concurrent.atomic.*;
+import simpledb.file.BlockId;
+import simpledb.server.SimpleDB;
+import simpledb.tx.concurrency.LockAbortException;
+
+/**
+ * Measures the lock table under contention.
+ * <P>
+ * First, two transactions lock two blocks in opposite orders,
+ * and the time until one of them is aborted is reported.
+ * Then, for an increasing number of threads, each thread runs
+ * short transactions that read or write a few random blocks
+ * of a small hot set, and the committed transactions per second
+ * and the deadlock aborts are reported.
+ * Updates are not logged, so that the locks dominate the cost.
+ */
+public class LockBenchmark {
+   private static final int HOT_BLOCKS = 32;
+   private static final int ACCESSES = 4;     // per transaction
+   private static final int DURATION = 2000;  // milliseconds per run
+   private static SimpleDB db;
+
+   public static void main(String[] args) throws InterruptedException {
+      db = new SimpleDB("lockbenchmark", 400, 64);
+      while (db.fileMgr().length("hot") < HOT_BLOCKS)
+         db.fileMgr().append("hot");
+      deadlock();
+      for (int n=1; n<=16; n*=2)
+         run(n);
+   }
+
+   private static void deadlock() throws InterruptedException {
+      BlockId a = new BlockId("hot", 0);
+      BlockId b = new BlockId("hot", 1);
+      AtomicLong abortedAt = new AtomicLong();
+      Runnable r1 = () -> lockBoth(a, b, abortedAt);
+      Runnable r2 = () -> lockBoth(b, a, abortedAt);
+      Thread t1 = new Thread(r1), t2 = new Thread(r2);
+      long start = System.nanoTime();
+      t1.start(); t2.start();
+      t1.join(); t2.join();
+      System.out.printf("deadlock resolved after %d ms%n",
+                        (abortedAt.get() - start) / 1000000);
+   }
+
+   private static void lockBoth(BlockId first, BlockId second, AtomicLong abortedAt) {
+      Transaction tx = db.newTx();
+      try {
+         tx.pin(first);
+         tx.pin(second);
+         tx.setInt(first, 0, 1, false);
+         sleep(100);
+         tx.setInt(second, 0, 1, false);
+         tx.commit();
+      }
+      catch (LockAbortException e) {
+         abortedAt.set(System.nanoTime());
+         tx.rollback();
+      }
+   }
+
+   private static void run(int nthreads) throws InterruptedException {
+      AtomicBoolean stop = new AtomicBoolean(false);
+      LongAdder commits = new LongAdder(), aborts = new LongAdder();
+      Thread[] threads = new Thread[nthreads];
+      for (int i=0; i<nthreads; i++) {
+         Random rand = new Random(i);
+         threads[i] = new Thread(() -> {
+            while (!stop.get()) {
+               Transaction tx = db.newTx();
+               try {
+                  for (int k=0; k<ACCESSES; k++) {
+                     BlockId blk = new BlockId("hot", rand.nextInt(HOT_BLOCKS));
+                     tx.pin(blk);
+                     if (rand.nextBoolean())
+                        tx.getInt(blk, 0);
+                     else
+                        tx.setInt(blk, 0, k, false);
+                  }
+                  tx.commit();
+                  commits.increment();
+               }
+               catch (LockAbortException e) {
+                  tx.rollback();
+                  aborts.increment();
+               }
+            }
+         });
+         threads[i].start();
+      }
+      Thread.sleep(DURATION);
+      stop.set(true);
+      for (Thread t : threads)
+         t.join();
+      System.out.printf("%2d threads: %8d tx/s, %6d deadlock aborts%n", nthreads,
+                        commits.sum() * 1000 / DURATION, aborts.sum());
+   }
+
+   private static void sleep(long ms) {
+      try {
+         Thread.sleep(ms);
+      }
+      catch (InterruptedException e) {}
+   }
+}
@@ -0,0 +1,95 @@
+package simpledb.tx;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import simpledb.record.*;
+import simpledb.server.SimpleDB;
+import simpledb.tx.concurrency.*;
+
+/**
+ * Compares locking and optimistic transactions
+ * as the contention increases.
+ * Each thread runs short transactions that read a few random
+ * records of a table and increment one of them; the records
+ * are chosen among a hot set, which gets smaller from run to run.
+ * Each run is made with locking transactions and then
+ * with optimistic ones. An aborted transaction is retried.
+ * The committed transactions per second and the aborts
+ * (deadlocks or failed validations) are reported.
+ */
+public class OptimisticBenchmark {
+   private static final int RECORDS = 2000;
+   private static final int READS = 4;        // per transaction
+   private static final int THREADS = 8;
+   private static final int DURATION = 2000;  // milliseconds per run
+   private static SimpleDB db;
+   private static Layout layout;
+   private static List<RID> rids = new ArrayList<>();
+
+   public static void main(String[] args) throws InterruptedException {
+      SimpleDB.GROUP_COMMIT_DELAY = 200;
+      db = new SimpleDB("optimisticbenchmark", 400, 64);
+      Schema sch = new Schema();
+      sch.addIntField("A");
+      layout = new Layout(sch);
+      Transaction tx = db.newTx();
+      TableScan ts = new TableScan(tx, "T", layout);
+      for (int i=0; i<RECORDS; i++) {
+         ts.insert();
+         ts.setInt("A", 0);
+         rids.add(ts.getRid());
+      }
+      ts.close();
+      tx.commit();
+      for (int hot=RECORDS; hot>=10; hot/=5) {
+         run(hot, false);
+         run(hot, true);
+      }
+   }
+
+   private static void run(int hot, boolean optimistic) throws InterruptedException {
+      AtomicBoolean stop = new AtomicBoolean(false);
+      LongAdder commits = new LongAdder(), aborts = new LongAdder();
+      Thread[] threads = new Thread[THREADS];
+      for (int i=0; i<THREADS; i++) {
+         Random rand = new Random(i);
+         threads[i] = new Thread(() -> {
+            while (!stop.get()) {
+               List<RID> chosen = new ArrayList<>();
+               for (int k=0; k<READS; k++)
+                  chosen.add(rids.get(rand.nextInt(hot) * (RECORDS / hot)));
+               while (!update(chosen, optimistic))
+                  aborts.increment();
+               commits.increment();
+            }
+         });
+         threads[i].start();
+      }
+      Thread.sleep(DURATION);
+      stop.set(true);
+      for (Thread t : threads)
+         t.join();
+      System.out.printf("%4d hot records, %-10s: %6d tx/s, %6d aborts%n", hot,
+                        optimistic ? "optimistic" : "locking",
+                        commits.sum() * 1000 / DURATION, aborts.sum());
+   }
+
+   private static boolean update(List<RID> chosen, boolean optimistic) {
+      Transaction tx = optimistic ? db.newOptimisticTx() : db.newTx();
+      try {
+         TableScan ts = new TableScan(tx, "T", layout);
+         for (RID rid : chosen) {
+            ts.moveToRid(rid);
+            ts.getInt("A");
+         }
+         ts.setInt("A", ts.getInt("A") + 1);
+         ts.close();
+         tx.commit();
+         return true;
+      }
+      catch (LockAbortException e) {
+         tx.rollback();
+         return false;
+      }
+   }
+}
@@ -0,0 +1,111 @@
+package simpledb.tx;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.BlockId;
+import simpledb.tx.concurrency.ValidationException;
+
+/**
+ * Checks the validation of optimistic transactions.
+ * Of two transactions that increment the same value,
+ * the second to commit must fail its validation, and
+ * so must a transaction whose reads another one has changed.
+ * Transactions that use different blocks must both commit.
+ */
+public class OptimisticTest {
+   private static SimpleDB db;
+   private static BlockId blk0, blk1;
+   private static int failures = 0;
+
+   public static void main(String[] args) {
+      db = new SimpleDB("optimistictest", 400, 8);
+      Transaction tx = db.newTx();
+      blk0 = tx.append("testfile");
+      blk1 = tx.append("testfile");
+      tx.pin(blk0);
+      tx.pin(blk1);
+      tx.setInt(blk0, 0, 0, true);
+      tx.setInt(blk1, 0, 0, true);
+      tx.commit();
+
+      lostUpdate();
+      writeSkew();
+      disjointWrites();
+      System.out.println(failures == 0 ? "OptimisticTest passed"
+                                       : "OptimisticTest: " + failures + " failures");
+   }
+
+   /**
+    * Both transactions increment the value in block 0.
+    */
+   private static void lostUpdate() {
+      Transaction t1 = db.newOptimisticTx();
+      Transaction t2 = db.newOptimisticTx();
+      increment(t1, blk0);
+      increment(t2, blk0);
+      check(commit(t1), "the first transaction failed its validation");
+      check(!commit(t2), "the second transaction passed its validation");
+      check(value(blk0) == 1, "block 0 has the value " + value(blk0));
+   }
+
+   /**
+    * Each transaction reads the block that the other one writes.
+    */
+   private static void writeSkew() {
+      Transaction t1 = db.newOptimisticTx();
+      Transaction t2 = db.newOptimisticTx();
+      t1.pin(blk1);
+      t1.getInt(blk1, 0);
+      t2.pin(blk0);
+      t2.getInt(blk0, 0);
+      increment(t1, blk0);
+      increment(t2, blk1);
+      check(commit(t1), "the first transaction failed its validation");
+      check(!commit(t2), "the second transaction passed its validation");
+   }
+
+   /**
+    * The transactions increment the values of different blocks.
+    */
+   private static void disjointWrites() {
+      Transaction t1 = db.newOptimisticTx();
+      Transaction t2 = db.newOptimisticTx();
+      increment(t1, blk0);
+      increment(t2, blk1);
+      check(commit(t1) && commit(t2), "a transaction failed its validation");
+   }
+
+   private static void increment(Transaction tx, BlockId blk) {
+      tx.pin(blk);
+      tx.setInt(blk, 0, tx.getInt(blk, 0) + 1, true);
+   }
+
+   /**
+    * Commits the transaction, or rolls it back
+    * if it fails its validation.
+    */
+   private static boolean commit(Transaction tx) {
+      try {
+         tx.commit();
+         return true;
+      }
+      catch (ValidationException e) {
+         tx.rollback();
+         return false;
+      }
+   }
+
+   private static int value(BlockId blk) {
+      Transaction tx = db.newReadOnlyTx();
+      tx.pin(blk);
+      int val = tx.getInt(blk, 0);
+      tx.commit();
+      return val;
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
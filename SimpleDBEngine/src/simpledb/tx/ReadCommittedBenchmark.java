@@ -0,0 +1,114 @@
+package simpledb.tx;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import simpledb.record.*;
+import simpledb.server.SimpleDB;
+import simpledb.tx.concurrency.*;
+
+/**
+ * Measures writers running alongside a reporting query.
+ * Writer threads move amounts between random accounts, so that
+ * the total of the accounts never changes. A reader thread
+ * repeatedly scans the accounts and checks their total,
+ * first in serializable transactions and then in read-committed
+ * ones, which release their locks on the records of a block
+ * when they leave it.
+ * The committed writer transactions per second, the scans
+ * per second, the scans aborted by a deadlock
+ * and the scans that saw a wrong total are reported.
+ */
+public class ReadCommittedBenchmark {
+   private static final int ACCOUNTS = 500;
+   private static final int BALANCE = 100;
+   private static final int WRITERS = 4;
+   private static final int DURATION = 3000;  // milliseconds per run
+   private static SimpleDB db;
+   private static Layout layout;
+   private static List<RID> rids = new ArrayList<>();
+
+   public static void main(String[] args) throws InterruptedException {
+      db = new SimpleDB("readcommittedbenchmark", 400, 64);
+      Schema sch = new Schema();
+      sch.addIntField("balance");
+      layout = new Layout(sch);
+      Transaction tx = db.newTx();
+      TableScan ts = new TableScan(tx, "accounts", layout);
+      for (int i=0; i<ACCOUNTS; i++) {
+         ts.insert();
+         ts.setInt("balance", BALANCE);
+         rids.add(ts.getRid());
+      }
+      ts.close();
+      tx.commit();
+      run(IsolationLevel.SERIALIZABLE);
+      run(IsolationLevel.READ_COMMITTED);
+   }
+
+   private static void run(IsolationLevel isolation) throws InterruptedException {
+      AtomicBoolean stop = new AtomicBoolean(false);
+      LongAdder transfers = new LongAdder(), scans = new LongAdder();
+      LongAdder aborted = new LongAdder(), wrong = new LongAdder();
+      Thread[] threads = new Thread[WRITERS + 1];
+      for (int i=0; i<WRITERS; i++) {
+         Random rand = new Random(i);
+         threads[i] = new Thread(() -> {
+            while (!stop.get()) {
+               if (transfer(rand))
+                  transfers.increment();
+            }
+         });
+      }
+      threads[WRITERS] = new Thread(() -> {
+         while (!stop.get()) {
+            Transaction tx = db.newTx();
+            tx.setIsolation(isolation);
+            try {
+               TableScan ts = new TableScan(tx, "accounts", layout);
+               long total = 0;
+               while (ts.next())
+                  total += ts.getInt("balance");
+               ts.close();
+               tx.commit();
+               scans.increment();
+               if (total != (long) ACCOUNTS * BALANCE)
+                  wrong.increment();
+            }
+            catch (LockAbortException e) {
+               tx.rollback();
+               aborted.increment();
+            }
+         }
+      });
+      for (Thread t : threads)
+         t.start();
+      Thread.sleep(DURATION);
+      stop.set(true);
+      for (Thread t : threads)
+         t.join();
+      System.out.printf("%-14s reader: %6d transfers/s, %6.1f scans/s, "
+                        + "%d aborted scans, %d wrong totals%n",
+                        isolation.toString().toLowerCase().replace('_', ' '),
+                        transfers.sum() * 1000 / DURATION,
+                        scans.sum() * 1000.0 / DURATION, aborted.sum(), wrong.sum());
+   }
+
+   private static boolean transfer(Random rand) {
+      Transaction tx = db.newTx();
+      try {
+         TableScan ts = new TableScan(tx, "accounts", layout);
+         int amount = rand.nextInt(10);
+         ts.moveToRid(rids.get(rand.nextInt(ACCOUNTS)));
+         ts.setInt("balance", ts.getInt("balance") - amount);
+         ts.moveToRid(rids.get(rand.nextInt(ACCOUNTS)));
+         ts.setInt("balance", ts.getInt("balance") + amount);
+         ts.close();
+         tx.commit();
+         return true;
+      }
+      catch (LockAbortException e) {
+         tx.rollback();
+         return false;
+      }
+   }
+}
@@ -0,0 +1,51 @@
+package simpledb.tx;
+
+import simpledb.record.*;
+import simpledb.server.SimpleDB;
+
+/**
+ * Measures short queries in ordinary and in read-only transactions.
+ * Each transaction reads a small table and commits.
+ * The transactions per second and the bytes that each
+ * run appended to the log are reported.
+ */
+public class ReadOnlyBenchmark {
+   private static final int RECORDS = 20;
+   private static final int TXS = 20000;
+
+   public static void main(String[] args) {
+      SimpleDB db = new SimpleDB("readonlybenchmark", 400, 64);
+      Schema sch = new Schema();
+      sch.addIntField("A");
+      Layout layout = new Layout(sch);
+      Transaction tx = db.newTx();
+      TableScan ts = new TableScan(tx, "T", layout);
+      for (int i=0; i<RECORDS; i++) {
+         ts.insert();
+         ts.setInt("A", i);
+      }
+      ts.close();
+      tx.commit();
+      for (int round=0; round<2; round++) {
+         run(db, layout, false);
+         run(db, layout, true);
+      }
+   }
+
+   private static void run(SimpleDB db, Layout layout, boolean readOnly) {
+      long logstart = db.logMgr().endOfLog();
+      long start = System.nanoTime();
+      for (int i=0; i<TXS; i++) {
+         Transaction tx = readOnly ? db.newReadOnlyTx() : db.newTx();
+         TableScan ts = new TableScan(tx, "T", layout);
+         while (ts.next())
+            ts.getInt("A");
+         ts.close();
+         tx.commit();
+      }
+      long ns = System.nanoTime() - start;
+      System.out.printf("%-9s: %7d tx/s, %9d log bytes%n",
+                        readOnly ? "read-only" : "ordinary",
+                        TXS * 1000000000L / ns, db.logMgr().endOfLog() - logstart);
+   }
+}
@@ -0,0 +1,12 @@
+package simpledb.tx;
+
+/**
+ * A runtime exception indicating that a read-only
+ * transaction tried to modify the database.
+ * @author Edward Sciore
+ */
+@SuppressWarnings("serial")
+public class ReadOnlyException extends RuntimeException {
+   public ReadOnlyException() {
+   }
+}
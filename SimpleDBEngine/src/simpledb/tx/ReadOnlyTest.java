@@ -0,0 +1,60 @@
+package simpledb.tx;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.BlockId;
+import simpledb.log.LogMgr;
+
+/**
+ * Checks that a read-only transaction does not use the log.
+ * It must read committed values and write its own temporary
+ * table without adding anything to the log, even when it
+ * commits or rolls back, and it must not modify any other file.
+ */
+public class ReadOnlyTest {
+   private static int failures = 0;
+
+   public static void main(String[] args) {
+      SimpleDB db = new SimpleDB("readonlytest", 400, 8);
+      LogMgr lm = db.logMgr();
+      Transaction tx = db.newTx();
+      BlockId blk = tx.append("testfile");
+      tx.pin(blk);
+      tx.setInt(blk, 0, 1, true);
+      tx.commit();
+
+      long end = lm.endOfLog();
+      Transaction reader = db.newReadOnlyTx();
+      reader.pin(blk);
+      check(reader.getInt(blk, 0) == 1, "the reader does not see the committed value");
+      try {
+         reader.setInt(blk, 0, 2, true);
+         check(false, "the reader modified a table");
+      }
+      catch (ReadOnlyException e) {}
+      BlockId tempblk = reader.append("temp1");
+      reader.pin(tempblk);
+      reader.setInt(tempblk, 0, 3, true);
+      check(reader.getInt(tempblk, 0) == 3, "the reader lost its temporary value");
+      reader.commit();
+      Transaction reader2 = db.newReadOnlyTx();
+      reader2.pin(blk);
+      reader2.getInt(blk, 0);
+      reader2.rollback();
+      check(lm.endOfLog() == end, "read-only transactions wrote "
+            + (lm.endOfLog() - end) + " bytes to the log");
+
+      Transaction tx2 = db.newTx();
+      tx2.pin(blk);
+      check(tx2.getInt(blk, 0) == 1, "the table holds the value " + tx2.getInt(blk, 0));
+      tx2.commit();
+      System.out.println(failures == 0 ? "ReadOnlyTest passed"
+                                       : "ReadOnlyTest: " + failures + " failures");
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
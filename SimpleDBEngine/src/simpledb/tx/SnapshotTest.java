@@ -0,0 +1,83 @@
+package simpledb.tx;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.BlockId;
+
+/**
+ * Checks that a read-only transaction reads the snapshot
+ * of the database as of its start.
+ * A write that commits after the reader started must stay
+ * invisible to it, whether the reader had already read
+ * the value or not, while a later reader must see it.
+ */
+public class SnapshotTest {
+   private static SimpleDB db;
+   private static BlockId blk;
+   private static int failures = 0;
+
+   public static void main(String[] args) {
+      db = new SimpleDB("snapshottest", 400, 8);
+      Transaction tx = db.newTx();
+      blk = tx.append("testfile");
+      tx.pin(blk);
+      tx.setInt(blk, 0, 1, true);
+      tx.setString(blk, 20, "one", true);
+      tx.commit();
+
+      readBeforeCommit();
+      startBeforeCommit();
+      System.out.println(failures == 0 ? "SnapshotTest passed"
+                                       : "SnapshotTest: " + failures + " failures");
+   }
+
+   /**
+    * The reader reads the values, a writer changes them and
+    * commits, and the reader reads them again.
+    */
+   private static void readBeforeCommit() {
+      Transaction reader = db.newReadOnlyTx();
+      reader.pin(blk);
+      check(reader.getInt(blk, 0) == 1, "the reader does not see the initial value");
+
+      Transaction writer = db.newTx();
+      writer.pin(blk);
+      writer.setInt(blk, 0, 2, true);
+      writer.setString(blk, 20, "two", true);
+      check(reader.getInt(blk, 0) == 1, "the reader sees an uncommitted value");
+      writer.commit();
+      check(reader.getInt(blk, 0) == 1, "the reader sees the value "
+            + reader.getInt(blk, 0) + " committed after it started");
+      check(reader.getString(blk, 20).equals("one"), "the reader sees the string "
+            + reader.getString(blk, 20) + " committed after it started");
+
+      Transaction later = db.newReadOnlyTx();
+      later.pin(blk);
+      check(later.getInt(blk, 0) == 2, "a later reader does not see the committed value");
+      later.commit();
+      reader.commit();
+   }
+
+   /**
+    * The reader starts, a writer changes the value and commits,
+    * and only then does the reader read it for the first time.
+    */
+   private static void startBeforeCommit() {
+      Transaction reader = db.newReadOnlyTx();
+      Transaction writer = db.newTx();
+      writer.pin(blk);
+      writer.setInt(blk, 0, 3, true);
+      writer.commit();
+
+      reader.pin(blk);
+      check(reader.getInt(blk, 0) == 2, "the reader sees the value "
+            + reader.getInt(blk, 0) + " committed after it started");
+      reader.commit();
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
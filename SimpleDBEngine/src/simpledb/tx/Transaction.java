@@ -1,26 +1,46 @@
 package simpledb.tx;
 
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import simpledb.file.*;
 import simpledb.log.LogMgr;
 import simpledb.buffer.*;
 import simpledb.tx.recovery.*;
-import simpledb.tx.concurrency.ConcurrencyMgr;
+import simpledb.tx.concurrency.*;
 
 /**
  * Provide transaction management for clients,
  * ensuring that all transactions are serializable, recoverable,
  * and in general satisfy the ACID properties.
+ * A read-only transaction reads a snapshot of the database
+ * as of its start, and takes no locks.
+ * It does not use the log either: it writes no log records,
+ * and its commit flushes nothing.
+ * <P>
+ * A transaction gets its number when it first needs one,
+ * to lock or to modify a block, and writes its START record
+ * with its first log record; a transaction that logs nothing
+ * leaves no trace in the log. The numbers continue
+ * across restarts, so that they are never reused in the log.
+ * <P>
+ * An optimistic transaction takes no locks while it runs,
+ * and keeps its writes to itself; its commit validates it,
+ * and then logs and writes the values to the buffers.
+ * If the validation fails, a {@link ValidationException}
+ * is thrown, and the transaction must be rolled back.
  * @author Edward Sciore
  */
 public class Transaction {
-   private static int nextTxNum = 0;
+   private static AtomicLong lastTxNum = new AtomicLong(0);
    private static final int END_OF_FILE = -1;
    private RecoveryMgr    recoveryMgr;
    private ConcurrencyMgr concurMgr;
    private BufferMgr bm;
    private FileMgr fm;
-   private int txnum;
+   private long txnum = -1;
+   private boolean readOnly;
    private BufferList mybuffers;
+   private List<Runnable> deferred = new ArrayList<>();
    
    /**
     * Create a new transaction and its associated 
@@ -35,53 +55,90 @@ public class Transaction {
     * is called first.
     */
    public Transaction(FileMgr fm, LogMgr lm, BufferMgr bm) {
+      this(fm, lm, bm, false);
+   }
+
+   /**
+    * Create a new transaction, which is read-only
+    * if so specified. A read-only transaction sees the
+    * database as the transactions committed before it started
+    * left it, and takes no locks; it may only modify
+    * its own temporary tables, without logging.
+    * It has no recovery manager, so nothing is written
+    * to the log when it starts or ends.
+    * @param fm the file manager
+    * @param lm the log manager
+    * @param bm the buffer manager
+    * @param readOnly true if the transaction is read-only
+    */
+   public Transaction(FileMgr fm, LogMgr lm, BufferMgr bm, boolean readOnly) {
       this.fm = fm;
       this.bm = bm;
-      txnum       = nextTxNumber();
-      recoveryMgr = new RecoveryMgr(this, txnum, lm, bm);
-      concurMgr   = new ConcurrencyMgr();
+      this.readOnly = readOnly;
       mybuffers = new BufferList(bm);
+      if (!readOnly)
+         recoveryMgr = new RecoveryMgr(this, fm, lm, bm, mybuffers.modifiedBuffers());
+      concurMgr   = new ConcurrencyMgr(this, readOnly);
    }
    
    /**
     * Commit the current transaction.
-    * Flush all modified buffers (and their log records),
-    * write and flush a commit record to the log,
+    * An optimistic transaction is first validated,
+    * and its deferred writes are made.
+    * Write and flush a commit record to the log,
+    * make the changes visible to later snapshots,
     * release all locks, and unpin any pinned buffers.
     */
    public void commit() {
-      recoveryMgr.commit();
-      System.out.println("transaction " + txnum + " committed");
-      concurMgr.release();
+      if (concurMgr.isOptimistic()) {
+         concurMgr.validate();
+         for (Runnable write : deferred)
+            write.run();
+      }
+      if (!readOnly)
+         recoveryMgr.commit();
+      System.out.println(this + " committed");
+      concurMgr.commit();
       mybuffers.unpinAll();
    }
    
    /**
     * Rollback the current transaction.
     * Undo any modified values,
-    * flush those buffers,
     * write and flush a rollback record to the log,
     * release all locks, and unpin any pinned buffers.
     */
    public void rollback() {
-      recoveryMgr.rollback();
-      System.out.println("transaction " + txnum + " rolled back");
-      concurMgr.release();
+      if (!readOnly)
+         recoveryMgr.rollback();
+      System.out.println(this + " rolled back");
+      deferred.clear();
+      concurMgr.rollback();
       mybuffers.unpinAll();
    }
    
    /**
-    * Flush all modified buffers.
-    * Then go through the log, rolling back all
-    * uncommitted transactions.  Finally, 
+    * Go through the log, redoing the logged changes
+    * and then rolling back all uncommitted transactions.
+    * Finally, flush the recovered buffers and
     * write a quiescent checkpoint record to the log.
     * This method is called during system startup,
     * before user transactions begin.
     */
    public void recover() {
-      bm.flushAll(txnum);
       recoveryMgr.recover();
    }
+
+   /**
+    * Returns the number of the transaction,
+    * giving it the next number if it has none yet.
+    * @return the transaction's number
+    */
+   public long txNumber() {
+      if (txnum < 0)
+         txnum = lastTxNum.incrementAndGet();
+      return txnum;
+   }
    
    /**
     * Pin the specified block.
@@ -89,7 +146,20 @@ public class Transaction {
     * @param blk a reference to the disk block
     */
    public void pin(BlockId blk) {
-      mybuffers.pin(blk);
+      mybuffers.pin(blk, null);
+   }
+
+   /**
+    * Pin the specified block, reading it into one of the
+    * buffers of the specified ring if it is not in the pool.
+    * Used by sequential scans, so that they do not flush
+    * the buffer pool; other pins of the same file,
+    * such as index lookups, still use the shared pool.
+    * @param blk a reference to the disk block
+    * @param ring the scan's buffer ring, or null
+    */
+   public void pin(BlockId blk, BufferRing ring) {
+      mybuffers.pin(blk, ring);
    }
    
    /**
@@ -107,6 +177,7 @@ public class Transaction {
     * specified offset of the specified block.
     * The method first obtains an SLock on the block,
     * then it calls the buffer to retrieve the value.
+    * A read-only transaction gets the value as of its snapshot.
     * @param blk a reference to a disk block
     * @param offset the byte offset within the block
     * @return the integer stored at that offset
@@ -114,7 +185,24 @@ public class Transaction {
    public int getInt(BlockId blk, int offset) {
       concurMgr.sLock(blk);
       Buffer buff = mybuffers.getBuffer(blk);
-      return buff.contents().getInt(offset);
+      return concurMgr.getInt(blk, buff.contents(), offset);
+   }
+
+   /**
+    * Returns true if the integer stored at the specified offset
+    * of the specified block has the specified value, and was written
+    * by a committed transaction, so that no other transaction
+    * can roll it back. Like getInt, the method first obtains
+    * an SLock on the block.
+    * @param blk a reference to a disk block
+    * @param offset the byte offset within the block
+    * @param val the expected value
+    * @return true if the committed value is the expected one
+    */
+   public boolean isCommittedInt(BlockId blk, int offset, int val) {
+      concurMgr.sLock(blk);
+      Buffer buff = mybuffers.getBuffer(blk);
+      return concurMgr.isCommittedInt(blk, buff.contents(), offset, val);
    }
    
    /**
@@ -122,6 +210,7 @@ public class Transaction {
     * specified offset of the specified block.
     * The method first obtains an SLock on the block,
     * then it calls the buffer to retrieve the value.
+    * A read-only transaction gets the value as of its snapshot.
     * @param blk a reference to a disk block
     * @param offset the byte offset within the block
     * @return the string stored at that offset
@@ -129,7 +218,7 @@ public class Transaction {
    public String getString(BlockId blk, int offset) {
       concurMgr.sLock(blk);
       Buffer buff = mybuffers.getBuffer(blk);
-      return buff.contents().getString(offset);
+      return concurMgr.getString(blk, buff.contents(), offset);
    }
    
    /**
@@ -139,21 +228,33 @@ public class Transaction {
     * It then reads the current value at that offset,
     * puts it into an update log record, and 
     * writes that record to the log.
-    * Finally, it calls the buffer to store the value,
-    * passing in the LSN of the log record and the transaction's id. 
+    * Finally, it stores the value, keeping the old one
+    * for the snapshots of read-only transactions,
+    * and marks the buffer as modified with the LSN of the log record
+    * and the transaction's id. 
+    * An optimistic transaction only writes its own copy
+    * of the block, and repeats the write when it commits.
     * @param blk a reference to the disk block
     * @param offset a byte offset within that block
     * @param val the value to be stored
+    * @throws ReadOnlyException if the transaction is read-only
+    * and the block is not in a temporary table
     */
    public void setInt(BlockId blk, int offset, int val, boolean okToLog) {
+      checkWritable(blk);
       concurMgr.xLock(blk);
       Buffer buff = mybuffers.getBuffer(blk);
-      int lsn = -1;
-      if (okToLog)
+      if (concurMgr.defersWrites(blk)) {
+         concurMgr.setInt(blk, buff.contents(), offset, val);
+         defer(blk, () -> setInt(blk, offset, val, okToLog));
+         return;
+      }
+      long lsn = -1;
+      if (okToLog && !readOnly)
          lsn = recoveryMgr.setInt(buff, offset, val);
-      Page p = buff.contents();
-      p.setInt(offset, val);
-      buff.setModified(txnum, lsn);
+      concurMgr.setInt(blk, buff.contents(), offset, val);
+      buff.setModified(txNumber(), lsn);
+      mybuffers.markModified(buff);
    }
    
    /**
@@ -163,21 +264,124 @@ public class Transaction {
     * It then reads the current value at that offset,
     * puts it into an update log record, and 
     * writes that record to the log.
-    * Finally, it calls the buffer to store the value,
-    * passing in the LSN of the log record and the transaction's id. 
+    * Finally, it stores the value, keeping the old one
+    * for the snapshots of read-only transactions,
+    * and marks the buffer as modified with the LSN of the log record
+    * and the transaction's id. 
+    * An optimistic transaction only writes its own copy
+    * of the block, and repeats the write when it commits.
     * @param blk a reference to the disk block
     * @param offset a byte offset within that block
     * @param val the value to be stored
+    * @throws ReadOnlyException if the transaction is read-only
+    * and the block is not in a temporary table
     */
    public void setString(BlockId blk, int offset, String val, boolean okToLog) {
+      checkWritable(blk);
       concurMgr.xLock(blk);
       Buffer buff = mybuffers.getBuffer(blk);
-      int lsn = -1;
-      if (okToLog)
+      if (concurMgr.defersWrites(blk)) {
+         concurMgr.setString(blk, buff.contents(), offset, val);
+         defer(blk, () -> setString(blk, offset, val, okToLog));
+         return;
+      }
+      long lsn = -1;
+      if (okToLog && !readOnly)
          lsn = recoveryMgr.setString(buff, offset, val);
-      Page p = buff.contents();
-      p.setString(offset, val);
-      buff.setModified(txnum, lsn);
+      concurMgr.setString(blk, buff.contents(), offset, val);
+      buff.setModified(txNumber(), lsn);
+      mybuffers.markModified(buff);
+   }
+
+   /**
+    * Lock the table stored in the specified file in the specified mode.
+    * From then on, the transaction locks the records of the table
+    * instead of its blocks.
+    * @param filename the name of the table's file
+    * @param mode the lock mode
+    */
+   public void lockTable(String filename, LockMode mode) {
+      concurMgr.lockTable(filename, mode);
+   }
+
+   /**
+    * Lock the "end of the file" of the table stored
+    * in the specified file in the specified mode:
+    * S for a scan of the table, and IX for an insertion into it.
+    * @param filename the name of the table's file
+    * @param mode the lock mode
+    */
+   public void lockEndOfFile(String filename, LockMode mode) {
+      BlockId dummyblk = new BlockId(filename, END_OF_FILE);
+      concurMgr.lockEndOfFile(dummyblk, mode);
+   }
+
+   /**
+    * Makes the transaction optimistic, unless it is read-only.
+    * It must be called before the transaction accesses the database.
+    * @param optimistic true if the transaction should be optimistic
+    */
+   public void setOptimistic(boolean optimistic) {
+      concurMgr.setOptimistic(optimistic);
+   }
+
+   /**
+    * Sets the isolation level of the transaction.
+    * It only matters to a transaction that locks;
+    * a read-only transaction always reads its snapshot.
+    * @param level the isolation level
+    */
+   public void setIsolation(IsolationLevel level) {
+      concurMgr.setIsolation(level);
+   }
+
+   /**
+    * Returns the isolation level of the transaction.
+    * @return the isolation level
+    */
+   public IsolationLevel isolation() {
+      return concurMgr.isolation();
+   }
+
+   /**
+    * Notes that the transaction's scan has left the specified block.
+    * At the READ_COMMITTED isolation level, the SLocks
+    * on the block and on its records are released.
+    * @param blk a reference to the disk block
+    */
+   public void releaseReadLocks(BlockId blk) {
+      concurMgr.releaseReadLocks(blk);
+   }
+
+   /**
+    * Obtain an SLock on the record in the specified slot
+    * of the specified block, and an IS lock on its table.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record
+    */
+   public void sLockRecord(BlockId blk, int slot) {
+      concurMgr.sLockRecord(blk, slot);
+   }
+
+   /**
+    * Obtain an XLock on the record in the specified slot
+    * of the specified block, and an IX lock on its table.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record
+    */
+   public void xLockRecord(BlockId blk, int slot) {
+      concurMgr.xLockRecord(blk, slot);
+   }
+
+   /**
+    * Obtain an XLock on the record in the specified slot
+    * of the specified block, if no other transaction has locked it.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record
+    * @return true if the record is now XLocked by the transaction
+    */
+   public boolean tryXLockRecord(BlockId blk, int slot) {
+      return concurMgr.tryXLockRecord(blk, slot);
    }
 
    /**
@@ -185,6 +389,7 @@ public class Transaction {
     * This method first obtains an SLock on the 
     * "end of the file", before asking the file manager
     * to return the file size.
+    * No lock is needed if the file is locked as a table.
     * @param filename the name of the file
     * @return the number of blocks in the file
     */
@@ -198,16 +403,70 @@ public class Transaction {
     * Append a new block to the end of the specified file
     * and returns a reference to it.
     * This method first obtains an XLock on the
-    * "end of the file", before performing the append.
+    * "end of the file", before performing the append;
+    * if the file is locked as a table, it obtains an IX lock
+    * on the table instead, so that appenders do not wait for each other.
     * @param filename the name of the file
     * @return a reference to the newly-created disk block
     */
    public BlockId append(String filename) {
       BlockId dummyblk = new BlockId(filename, END_OF_FILE);
       concurMgr.xLock(dummyblk);
+      concurMgr.appended(dummyblk);
       return fm.append(filename);
    }
    
+   /**
+    * Notes that the specified file is being read
+    * sequentially from the specified block on by a scan.
+    * If the scan has no buffer ring and the file is large,
+    * a ring is returned for the scan's later pins,
+    * so that the scan does not flush the buffer pool.
+    * The buffer manager is also asked to read ahead.
+    * No locks are obtained; the blocks are only
+    * brought into the buffer pool.
+    * @param filename the name of the file
+    * @param blknum the next block that will be read
+    * @param ring the scan's buffer ring, or null
+    * @return the ring the scan should pin through, or null
+    */
+   public BufferRing startScan(String filename, int blknum, BufferRing ring) {
+      if (ring == null && bm.isLargeFile(fm.length(filename)))
+         ring = bm.newRing();
+      bm.readAhead(filename, blknum, ring);
+      return ring;
+   }
+
+   /**
+    * Returns a new buffer ring, whatever the size of the file
+    * it will be used for. Used for temporary tables, whose pages
+    * are written and read once and should not displace shared pages.
+    * @return the buffer ring
+    */
+   public BufferRing newBufferRing() {
+      return bm.newRing();
+   }
+
+   /**
+    * Asks the buffer manager to read the specified blocks
+    * into the buffer pool in the background.
+    * No locks are obtained.
+    * @param filename the name of the file
+    * @param startblk the first block to read
+    * @param count the number of blocks to read
+    */
+   public void prefetch(String filename, int startblk, int count) {
+      bm.prefetch(filename, startblk, count, null);
+   }
+
+   /**
+    * Returns true if the transaction is read-only.
+    * @return true if the transaction reads a snapshot
+    */
+   public boolean isReadOnly() {
+      return readOnly;
+   }
+
    public int blockSize() {
       return fm.blockSize();
    }
@@ -216,8 +475,50 @@ public class Transaction {
       return bm.available();
    }
    
-   private static synchronized int nextTxNumber() {
-      nextTxNum++;
-      return nextTxNum;
+   /**
+    * Remembers a write of an optimistic transaction,
+    * to be made again once the transaction is validated,
+    * when the block may no longer be pinned.
+    */
+   private void defer(BlockId blk, Runnable write) {
+      deferred.add(() -> {
+         pin(blk);
+         write.run();
+         unpin(blk);
+      });
+   }
+
+   private void checkWritable(BlockId blk) {
+      if (readOnly && !blk.fileName().startsWith("temp"))
+         throw new ReadOnlyException();
+   }
+
+   /**
+    * Names the transaction by its number, which it gets now
+    * if it does not have one yet; a number costs nothing
+    * until the transaction logs. A read-only transaction
+    * is not numbered just to be named.
+    */
+   public String toString() {
+      return readOnly ? "read-only transaction" : "transaction " + txNumber();
+   }
+
+   /**
+    * Returns the number that the next transaction to need one will get.
+    * It is saved in checkpoints, so that it can be restored at startup.
+    * @return the next transaction number
+    */
+   public static long nextTxNumber() {
+      return lastTxNum.get() + 1;
+   }
+
+   /**
+    * Makes the transaction numbers continue from the specified one,
+    * unless they are past it already.
+    * Called at startup, with the number read from the log.
+    * @param next the next transaction number
+    */
+   public static void restoreTxNumbers(long next) {
+      lastTxNum.accumulateAndGet(next - 1, Math::max);
    }
 }
@@ -0,0 +1,142 @@
+package simpledb.tx;
+
+import java.io.File;
+import java.util.Iterator;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+import simpledb.tx.recovery.*;
+
+/**
+ * Checks lazy transaction numbers and START records.
+ * A child process, whose numbers start above 1000, runs a
+ * transaction that only reads and one that only makes unlogged
+ * changes; neither may add to the log, though the unlogged changes
+ * must be on disk when the second commits. A third transaction logs
+ * an update, which reaches the disk, and is left unfinished;
+ * the process then halts.
+ * After recovery, new transaction numbers must be larger than those
+ * in the log, and must name the transactions, and after a clean
+ * shutdown, a new process must continue from where this one stopped.
+ */
+public class TxNumberTest {
+   private static final String DIRNAME = "txnumbertest";
+   private static SimpleDB db;
+   private static FileMgr fm;
+   private static LogMgr lm;
+   private static BlockId blk;
+   private static int failures = 0;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB.BACKGROUND_WRITER = false;
+      if (args.length > 0) {
+         open();
+         if (args[0].equals("crash"))
+            crash();
+         else
+            continueNumbers(Long.parseLong(args[1]));
+         Runtime.getRuntime().halt(failures);
+      }
+      File dir = new File(DIRNAME);
+      if (dir.exists())
+         for (File f : dir.listFiles())
+            f.delete();
+
+      runChild("crash");
+      open();
+      long max = 0;
+      Iterator<byte[]> iter = lm.iterator();
+      while (iter.hasNext()) {
+         LogRecord rec = LogRecord.createLogRecord(iter.next(), lm.fileDictionary());
+         max = Math.max(max, rec.txNumber());
+      }
+      check(max > 1000, "the log holds no number above 1000");
+      Transaction tx = db.newTx();
+      tx.recover();
+      check(tx.txNumber() > max, "the recovering transaction got the number " + tx.txNumber()
+            + ", which the log already uses");
+      tx.commit();
+      Transaction tx2 = db.newTx();
+      tx2.pin(blk);
+      tx2.setInt(blk, 8, 9, true);
+      long last = tx2.txNumber();
+      check(last > max, "a new transaction got the number " + last
+            + ", which the log already uses");
+      tx2.commit();
+      Transaction tx3 = db.newTx();
+      check(tx3.toString().equals("transaction " + tx3.txNumber()),
+            "a transaction is named " + tx3);
+      tx3.commit();
+      Transaction reader = db.newReadOnlyTx();
+      check(reader.toString().equals("read-only transaction"),
+            "a read-only transaction is named " + reader);
+      reader.commit();
+      db.shutdown();
+
+      runChild("continue", "" + last);
+      System.out.println(failures == 0 ? "TxNumberTest passed"
+                                       : "TxNumberTest: " + failures + " failures");
+   }
+
+   private static void runChild(String... args) throws Exception {
+      String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+      String[] cmd = new String[4 + args.length];
+      cmd[0] = java;
+      cmd[1] = "-cp";
+      cmd[2] = System.getProperty("java.class.path");
+      cmd[3] = TxNumberTest.class.getName();
+      System.arraycopy(args, 0, cmd, 4, args.length);
+      Process child = new ProcessBuilder(cmd).inheritIO().start();
+      failures += child.waitFor();
+   }
+
+   private static void open() {
+      db = new SimpleDB(DIRNAME, 400, 8);
+      fm = db.fileMgr();
+      lm = db.logMgr();
+      blk = new BlockId("testfile", 0);
+   }
+
+   private static void crash() {
+      Transaction.restoreTxNumbers(1001);
+      Transaction tx1 = db.newTx();
+      tx1.append("testfile");
+      tx1.commit();
+
+      long end = lm.endOfLog();
+      Transaction reader = db.newTx();
+      reader.pin(blk);
+      reader.getInt(blk, 0);
+      reader.commit();
+      Transaction unlogged = db.newTx();
+      unlogged.pin(blk);
+      unlogged.setInt(blk, 0, 7, false);
+      unlogged.commit();
+      check(lm.endOfLog() == end, "transactions that logged nothing wrote "
+            + (lm.endOfLog() - end) + " bytes to the log");
+      Page p = new Page(fm.blockSize());
+      fm.read(blk, p);
+      check(p.getInt(0) == 7, "the unlogged change was not written at commit");
+
+      Transaction tx4 = db.newTx();
+      tx4.pin(blk);
+      tx4.setInt(blk, 4, 8, true);
+      db.bufferMgr().flushAll(tx4.txNumber());  // which flushes its log records
+      // tx4 stops here without committing or rolling back
+   }
+
+   private static void continueNumbers(long last) {
+      check(RecoveryMgr.wasShutDownCleanly(fm, lm), "the clean shutdown was not recognized");
+      Transaction tx = db.newTx();
+      check(tx.txNumber() > last, "the number " + tx.txNumber()
+            + " does not continue after " + last);
+      tx.commit();
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
@@ -1,51 +1,511 @@
 package simpledb.tx.concurrency;
 
 import java.util.*;
-import simpledb.file.BlockId;
+import simpledb.file.*;
+import simpledb.tx.Transaction;
+import static simpledb.tx.concurrency.LockMode.*;
 
 /**
  * The concurrency manager for the transaction.
- * Each transaction has its own concurrency manager. 
- * The concurrency manager keeps track of which locks the 
+ * Each transaction has its own concurrency manager.
+ * The concurrency manager keeps track of which locks the
  * transaction currently has, and interacts with the
- * global lock table as needed. 
+ * global lock table as needed.
+ * <P>
+ * Tables are locked hierarchically: a transaction locks
+ * the table (that is, its file) in an intention mode,
+ * and then the records it reads or writes in S or X mode.
+ * Once a transaction has locked a table, its blocks are no longer
+ * locked individually: reading a block needs no further lock,
+ * and writing one needs an IX lock on the table.
+ * When a transaction has locked too many records of a table,
+ * its lock is escalated to an S or X lock on the whole table,
+ * and the record locks that this covers are released.
+ * The locks are held until the transaction ends, unless its
+ * isolation level is {@link IsolationLevel#READ_COMMITTED};
+ * then the SLocks on the records of a block are released
+ * when the transaction's scan leaves the block.
+ * Files that are not locked as tables, such as index files,
+ * are locked block by block.
+ * <P>
+ * A read-only transaction takes no locks at all. It reads a snapshot
+ * of the database as of its start, which the old versions of the values
+ * written by later or unfinished transactions are restored from;
+ * see {@link VersionStore}. So readers and writers never wait
+ * for each other; writers only wait for writers.
+ * The values written by a read-only transaction, which can only be
+ * in its own temporary tables, are not versioned.
+ * <P>
+ * An optimistic transaction takes no locks while it runs either.
+ * It reads the committed values, noting the version number of each
+ * block it reads, and keeps its writes in private copies of the blocks;
+ * the locks it asks for are only remembered. At commit it is validated:
+ * it obtains the XLocks and IX locks it asked for,
+ * and checks that the blocks it read have not changed since.
+ * If so, it continues as an ordinary locking transaction,
+ * which writes the values to the buffers; otherwise it must abort.
+ * An optimistic transaction validates all its reads,
+ * whatever its isolation level. Its temporary tables
+ * are written directly, like those of a read-only transaction.
  * @author Edward Sciore
  */
 public class ConcurrencyMgr {
 
    /**
-    * The global lock table. This variable is static because 
+    * The global lock table. This variable is static because
     * all transactions share the same table.
     */
    private static LockTable locktbl = new LockTable();
-   private Map<BlockId,String> locks  = new HashMap<BlockId,String>();
+   private static VersionStore versions = new VersionStore();
+   private static int escalation = 1000;
+   private Map<Object,LockMode> locks = new HashMap<>();
+   private Map<String,Integer> recordCounts = new HashMap<>();
+   private Map<BlockId,List<RecordKey>> readLocks = new HashMap<>();
+   private IsolationLevel isolation = IsolationLevel.SERIALIZABLE;
+   private boolean optimistic = false;
+   private Map<BlockId,Long> readVersions = new HashMap<>();
+   private Map<BlockId,Page> shadows = new HashMap<>();
+   private Transaction tx;
+   private VersionStore.Snapshot snapshot = null;
+   private VersionStore.Writer writer = null;
+
+   /**
+    * Create the concurrency manager for the specified transaction.
+    * The transaction's number is only asked for
+    * when the first lock is requested.
+    * @param tx the transaction
+    */
+   public ConcurrencyMgr(Transaction tx) {
+      this(tx, false);
+   }
+
+   /**
+    * Create the concurrency manager for the specified transaction,
+    * which reads a snapshot of the database if it is read-only.
+    * @param tx the transaction
+    * @param readOnly true if the transaction is read-only
+    */
+   public ConcurrencyMgr(Transaction tx, boolean readOnly) {
+      this.tx = tx;
+      if (readOnly)
+         snapshot = versions.begin();
+   }
+
+   /**
+    * Sets the number of record locks that a transaction can hold
+    * on a table before they are escalated to a table lock.
+    * @param n the escalation threshold
+    */
+   public static void setEscalationThreshold(int n) {
+      escalation = Math.max(1, n);
+   }
+
+   /**
+    * Sets the isolation level of the transaction.
+    * @param level the isolation level
+    */
+   public void setIsolation(IsolationLevel level) {
+      isolation = level;
+   }
+
+   /**
+    * Returns the isolation level of the transaction.
+    * @return the isolation level
+    */
+   public IsolationLevel isolation() {
+      return isolation;
+   }
+
+   /**
+    * Makes the transaction optimistic, unless it is read-only.
+    * It must be called before the transaction accesses the database.
+    * @param optimistic true if the transaction is optimistic
+    */
+   public void setOptimistic(boolean optimistic) {
+      this.optimistic = optimistic && snapshot == null;
+   }
+
+   /**
+    * Returns true if the transaction is optimistic
+    * and has not been validated yet.
+    * @return true if the transaction takes no locks until it commits
+    */
+   public boolean isOptimistic() {
+      return optimistic;
+   }
+
+   /**
+    * Returns true if the writes to the specified block are
+    * kept private until the transaction is validated.
+    * @param blk a reference to the disk block
+    * @return true if the transaction defers writing the block
+    */
+   public boolean defersWrites(BlockId blk) {
+      return optimistic && !isTemp(blk);
+   }
 
    /**
     * Obtain an SLock on the block, if necessary.
     * The method will ask the lock table for an SLock
-    * if the transaction currently has no locks on that block.
+    * if the transaction currently has no locks on that block,
+    * and the block's file is not locked as a table.
+    * An optimistic transaction notes the version of the block.
     * @param blk a reference to the disk block
     */
    public void sLock(BlockId blk) {
-      if (locks.get(blk) == null) {
-         locktbl.sLock(blk);
-         locks.put(blk, "S");
-      }
+      if (snapshot != null)
+         return;
+      if (optimistic && !isTemp(blk))
+         readVersions.computeIfAbsent(blk, versions::version);
+      if (!locks.containsKey(blk.fileName()))
+         lock(blk, S);
    }
 
    /**
     * Obtain an XLock on the block, if necessary.
     * If the transaction does not have an XLock on that block,
-    * then the method first gets an SLock on that block
-    * (if necessary), and then upgrades it to an XLock.
+    * then the method asks the lock table for one, which
+    * upgrades the transaction's SLock if it has one.
+    * If the block's file is locked as a table,
+    * an IX lock on the table is obtained instead.
     * @param blk a reference to the disk block
     */
    public void xLock(BlockId blk) {
-      if (!hasXLock(blk)) {
-         sLock(blk);
-         locktbl.xLock(blk);
-         locks.put(blk, "X");
+      if (snapshot != null)
+         return;
+      if (locks.containsKey(blk.fileName()))
+         lock(blk.fileName(), IX);
+      else
+         lock(blk, X);
+   }
+
+   /**
+    * Obtain a lock in the specified mode on the table
+    * stored in the specified file, if necessary.
+    * From then on, the blocks of the file are not locked individually.
+    * @param filename the name of the table's file
+    * @param mode the lock mode
+    */
+   public void lockTable(String filename, LockMode mode) {
+      if (snapshot == null)
+         lock(filename, mode);
+   }
+
+   /**
+    * Obtain a lock in the specified mode on the end of a table's file,
+    * which stands for the records that may be inserted into the table.
+    * A scan locks it in S mode and an insertion in IX mode,
+    * so insertions wait for the scans that would miss them,
+    * but not for each other, and updates and deletions
+    * do not wait at all.
+    * @param eofblk the end-of-file block of the table's file
+    * @param mode the lock mode
+    */
+   public void lockEndOfFile(BlockId eofblk, LockMode mode) {
+      if (snapshot == null)
+         lock(eofblk, mode);
+   }
+
+   /**
+    * Obtain an SLock on the record in the specified slot,
+    * after an IS lock on its table.
+    * Nothing more is needed if the table lock covers the record.
+    * @param blk the block of the record
+    * @param slot the slot of the record
+    */
+   public void sLockRecord(BlockId blk, int slot) {
+      if (snapshot != null)
+         return;
+      String tbl = blk.fileName();
+      lock(tbl, IS);
+      if (locks.get(tbl).covers(S))
+         return;
+      RecordKey rec = new RecordKey(blk, slot);
+      if (locks.containsKey(rec))
+         return;
+      if (recordCount(tbl) >= escalation)
+         escalate(tbl, S);
+      else {
+         lock(rec, S);
+         recordCounts.merge(tbl, 1, Integer::sum);
+         if (isolation == IsolationLevel.READ_COMMITTED)
+            readLocks.computeIfAbsent(blk, b -> new ArrayList<>()).add(rec);
+      }
+   }
+
+   /**
+    * Obtain an XLock on the record in the specified slot,
+    * after an IX lock on its table.
+    * Nothing more is needed if the table is XLocked.
+    * @param blk the block of the record
+    * @param slot the slot of the record
+    */
+   public void xLockRecord(BlockId blk, int slot) {
+      if (snapshot != null)
+         return;
+      String tbl = blk.fileName();
+      lock(tbl, IX);
+      if (locks.get(tbl) == X)
+         return;
+      RecordKey rec = new RecordKey(blk, slot);
+      LockMode held = locks.get(rec);
+      if (held == X)
+         return;
+      if (held == null && recordCount(tbl) >= escalation)
+         escalate(tbl, X);
+      else {
+         lock(rec, X);
+         if (held == null)
+            recordCounts.merge(tbl, 1, Integer::sum);
+      }
+   }
+
+   /**
+    * Obtain an XLock on the record in the specified slot
+    * if that can be done without waiting for another transaction.
+    * Used to claim an empty slot for an insertion;
+    * a slot emptied by a transaction that has not yet committed
+    * stays locked, and the caller can look for another one.
+    * @param blk the block of the record
+    * @param slot the slot of the record
+    * @return true if the transaction now has an XLock on the record
+    */
+   public boolean tryXLockRecord(BlockId blk, int slot) {
+      if (snapshot != null)
+         return true;
+      String tbl = blk.fileName();
+      lock(tbl, IX);
+      if (locks.get(tbl) == X)
+         return true;
+      RecordKey rec = new RecordKey(blk, slot);
+      LockMode held = locks.get(rec);
+      if (held == X)
+         return true;
+      if (!optimistic && !locktbl.tryLock(rec, tx.txNumber(), X))
+         return false;
+      locks.put(rec, X);
+      if (held == null)
+         recordCounts.merge(tbl, 1, Integer::sum);
+      return true;
+   }
+
+   /**
+    * Release the SLocks on the records of the specified block,
+    * and on the block itself, if the isolation level is
+    * READ_COMMITTED. Locks that have been upgraded
+    * to XLocks are kept.
+    * @param blk a reference to the disk block
+    */
+   public void releaseReadLocks(BlockId blk) {
+      if (isolation != IsolationLevel.READ_COMMITTED || optimistic)
+         return;
+      List<RecordKey> recs = readLocks.remove(blk);
+      if (recs != null)
+         for (RecordKey rec : recs)
+            if (locks.get(rec) == S) {
+               unlock(rec);
+               recordCounts.merge(blk.fileName(), -1, Integer::sum);
+            }
+      if (locks.get(blk) == S)
+         unlock(blk);
+   }
+
+   /**
+    * Return the integer at the specified offset of the page
+    * of the specified block, as of the transaction's snapshot
+    * if it is read-only. An optimistic transaction reads its own
+    * copy of the block if it has written it, and the committed value
+    * otherwise. The caller must have locked it otherwise.
+    * @param blk a reference to the disk block
+    * @param p the page holding the block
+    * @param offset the byte offset within the page
+    * @return the integer stored at that offset
+    */
+   public int getInt(BlockId blk, Page p, int offset) {
+      if (snapshot != null)
+         return versions.getInt(snapshot, blk, p, offset);
+      if (defersWrites(blk)) {
+         Page shadow = shadows.get(blk);
+         if (shadow != null)
+            return shadow.getInt(offset);
+         return versions.getInt(VersionStore.COMMITTED, blk, p, offset);
+      }
+      return p.getInt(offset);
+   }
+
+   /**
+    * Returns true if the integer at the specified offset of the page
+    * of the specified block has the specified value, and the transaction
+    * that wrote it has committed, so that it cannot be rolled back.
+    * A read-only or optimistic transaction only checks the value it reads.
+    * @param blk a reference to the disk block
+    * @param p the page holding the block
+    * @param offset the byte offset within the page
+    * @param val the expected value
+    * @return true if the committed value is the expected one
+    */
+   public boolean isCommittedInt(BlockId blk, Page p, int offset, int val) {
+      if (snapshot != null || defersWrites(blk))
+         return getInt(blk, p, offset) == val;
+      return versions.isCommittedInt(blk, p, offset, val);
+   }
+
+   /**
+    * Return the string at the specified offset of the page
+    * of the specified block, as of the transaction's snapshot
+    * if it is read-only. An optimistic transaction reads its own
+    * copy of the block if it has written it, and the committed value
+    * otherwise. The caller must have locked it otherwise.
+    * @param blk a reference to the disk block
+    * @param p the page holding the block
+    * @param offset the byte offset within the page
+    * @return the string stored at that offset
+    */
+   public String getString(BlockId blk, Page p, int offset) {
+      if (snapshot != null)
+         return versions.getString(snapshot, blk, p, offset);
+      if (defersWrites(blk)) {
+         Page shadow = shadows.get(blk);
+         if (shadow != null)
+            return shadow.getString(offset);
+         return versions.getString(VersionStore.COMMITTED, blk, p, offset);
+      }
+      return p.getString(offset);
+   }
+
+   /**
+    * Store an integer at the specified offset of the page
+    * of the specified block, after saving the bytes it replaces
+    * for the snapshots that must not see it.
+    * An optimistic transaction writes its own copy of the block.
+    * The caller must have XLocked the block or record.
+    * @param blk a reference to the disk block
+    * @param p the page holding the block
+    * @param offset the byte offset within the page
+    * @param val the value to be stored
+    */
+   public void setInt(BlockId blk, Page p, int offset, int val) {
+      if (snapshot != null) {
+         p.setInt(offset, val);
+         return;
+      }
+      if (defersWrites(blk)) {
+         shadow(blk, p).setInt(offset, val);
+         return;
+      }
+      versions.setInt(writer(), blk, p, offset, val);
+   }
+
+   /**
+    * Store a string at the specified offset of the page
+    * of the specified block, after saving the bytes it replaces
+    * for the snapshots that must not see it.
+    * An optimistic transaction writes its own copy of the block.
+    * The caller must have XLocked the block or record.
+    * @param blk a reference to the disk block
+    * @param p the page holding the block
+    * @param offset the byte offset within the page
+    * @param val the value to be stored
+    */
+   public void setString(BlockId blk, Page p, int offset, String val) {
+      if (snapshot != null) {
+         p.setString(offset, val);
+         return;
+      }
+      if (defersWrites(blk)) {
+         shadow(blk, p).setString(offset, val);
+         return;
+      }
+      versions.setString(writer(), blk, p, offset, val);
+   }
+
+   /**
+    * Notes that the transaction appended a block to the file
+    * of the specified end-of-file block. The version number of
+    * that block changes when the transaction commits, so that the
+    * optimistic transactions that read the size of the file fail.
+    * @param eofblk the end-of-file block of the file
+    */
+   public void appended(BlockId eofblk) {
+      if (snapshot == null)
+         writer().blocks.add(eofblk);
+   }
+
+   /**
+    * Validates the transaction, if it is optimistic.
+    * The XLocks and IX locks that it asked for are obtained first.
+    * Waiting for them is short, since optimistic transactions
+    * only hold locks while they commit; a deadlock fails
+    * the validation. Then the blocks it read are checked
+    * to still have the version numbers it noted. If both succeed,
+    * the transaction becomes an ordinary locking transaction;
+    * otherwise the locks are released, and
+    * a {@link ValidationException} is thrown.
+    */
+   public void validate() {
+      if (!optimistic)
+         return;
+      Map<Object,LockMode> held = new HashMap<>();
+      boolean valid = true;
+      try {
+         for (Map.Entry<Object,LockMode> e : locks.entrySet()) {
+            LockMode mode = writeMode(e.getValue());
+            if (mode != null) {
+               locktbl.lock(e.getKey(), tx.txNumber(), mode);
+               held.put(e.getKey(), mode);
+            }
+         }
+      }
+      catch (LockAbortException e) {
+         valid = false;
+      }
+      if (valid) {
+         Set<BlockId> writes = new HashSet<>(shadows.keySet());
+         if (writer != null)
+            writes.addAll(writer.blocks);
+         valid = versions.validate(readVersions, writes);
+      }
+      if (!valid) {
+         for (Object item : held.keySet())
+            locktbl.unlock(item, tx.txNumber());
+         throw new ValidationException();
+      }
+      optimistic = false;
+      locks = held;
+      readVersions.clear();
+      shadows.clear();
+   }
+
+   /**
+    * Make the transaction's writes visible to the snapshots
+    * that start from now on, end its own snapshot,
+    * and release all locks.
+    * Called once the commit record is on disk.
+    */
+   public void commit() {
+      if (writer != null)
+         versions.commit(writer);
+      endTransaction();
+   }
+
+   /**
+    * Discard the old versions of the transaction's writes,
+    * which the rollback has restored, end its own snapshot,
+    * and release all locks.
+    */
+   public void rollback() {
+      if (writer != null)
+         versions.rollback(writer);
+      endTransaction();
+   }
+
+   private void endTransaction() {
+      writer = null;
+      if (snapshot != null) {
+         versions.end(snapshot);
+         snapshot = null;
       }
+      release();
    }
 
    /**
@@ -53,13 +513,121 @@ public class ConcurrencyMgr {
     * unlock each one.
     */
    public void release() {
-      for (BlockId blk : locks.keySet()) 
-         locktbl.unlock(blk);
+      if (!optimistic)
+         for (Object item : locks.keySet())
+            locktbl.unlock(item, tx.txNumber());
       locks.clear();
+      recordCounts.clear();
+      readLocks.clear();
+      readVersions.clear();
+      shadows.clear();
+   }
+
+   /**
+    * Locks the item in the combination of the specified mode
+    * and the mode in which the transaction already holds it.
+    * An optimistic transaction only remembers the lock.
+    */
+   private void lock(Object item, LockMode mode) {
+      LockMode held = locks.get(item);
+      LockMode target = (held == null) ? mode : held.combine(mode);
+      if (target == held)
+         return;
+      if (!optimistic)
+         locktbl.lock(item, tx.txNumber(), target);
+      locks.put(item, target);
    }
 
-   private boolean hasXLock(BlockId blk) {
-      String locktype = locks.get(blk);
-      return locktype != null && locktype.equals("X");
+   private void unlock(Object item) {
+      if (!optimistic)
+         locktbl.unlock(item, tx.txNumber());
+      locks.remove(item);
+   }
+
+   /**
+    * Returns the copy of the block that the optimistic transaction
+    * writes, making it from the committed values the first time.
+    * Making the copy reads the block, so its version is noted.
+    */
+   private Page shadow(BlockId blk, Page p) {
+      Page shadow = shadows.get(blk);
+      if (shadow == null) {
+         readVersions.computeIfAbsent(blk, versions::version);
+         shadow = versions.copy(VersionStore.COMMITTED, blk, p, tx.blockSize());
+         shadows.put(blk, shadow);
+      }
+      return shadow;
+   }
+
+   private VersionStore.Writer writer() {
+      if (writer == null)
+         writer = new VersionStore.Writer();
+      return writer;
+   }
+
+   private boolean isTemp(BlockId blk) {
+      return blk.fileName().startsWith("temp");
+   }
+
+   /**
+    * Returns the part of a lock mode that an optimistic transaction
+    * obtains when it is validated: the mode itself for X and IX,
+    * IX for SIX, and null for the modes that only read.
+    */
+   private static LockMode writeMode(LockMode mode) {
+      if (mode == X || mode == IX)
+         return mode;
+      return (mode == SIX) ? IX : null;
+   }
+
+   /**
+    * Replaces the record locks on the table by a table lock
+    * in the specified mode, combined with the intention lock
+    * already held; an S lock combined with IX becomes SIX,
+    * which does not cover the XLocked records.
+    */
+   private void escalate(String tbl, LockMode mode) {
+      lock(tbl, mode);
+      LockMode tblmode = locks.get(tbl);
+      Iterator<Map.Entry<Object,LockMode>> iter = locks.entrySet().iterator();
+      while (iter.hasNext()) {
+         Map.Entry<Object,LockMode> e = iter.next();
+         if (e.getKey() instanceof RecordKey
+               && ((RecordKey) e.getKey()).blk.fileName().equals(tbl)
+               && tblmode.covers(e.getValue())) {
+            if (!optimistic)
+               locktbl.unlock(e.getKey(), tx.txNumber());
+            iter.remove();
+            recordCounts.merge(tbl, -1, Integer::sum);
+         }
+      }
+   }
+
+   private int recordCount(String tbl) {
+      return recordCounts.getOrDefault(tbl, 0);
+   }
+
+   /**
+    * The lockable item for a record: its block and slot.
+    */
+   private static class RecordKey {
+      BlockId blk;
+      int slot;
+
+      RecordKey(BlockId blk, int slot) {
+         this.blk = blk;
+         this.slot = slot;
+      }
+
+      public boolean equals(Object obj) {
+         if (!(obj instanceof RecordKey))
+            return false;
+         RecordKey r = (RecordKey) obj;
+         return slot == r.slot && blk.equals(r.blk);
+      }
+
+      public int hashCode() {
+         return 31 * blk.hashCode() + slot;
+      }
    }
 }
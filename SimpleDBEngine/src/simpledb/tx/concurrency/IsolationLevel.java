@@ -0,0 +1,15 @@
+package simpledb.tx.concurrency;
+
+/**
+ * The isolation levels of a transaction that locks.
+ * A SERIALIZABLE transaction holds all its locks until it ends.
+ * A READ_COMMITTED transaction releases the SLocks on the records
+ * of a block when its scan leaves the block, and does not lock
+ * the end of a table's file against insertions;
+ * it only reads committed values, but reading them again
+ * may give other values, or other records.
+ * @author Edward Sciore
+ */
+public enum IsolationLevel {
+   READ_COMMITTED, SERIALIZABLE
+}
@@ -0,0 +1,61 @@
+package simpledb.tx.concurrency;
+
+/**
+ * The modes of a lock.
+ * Blocks and records are locked in S (shared) or X (exclusive) mode.
+ * Tables are also locked in the intention modes:
+ * IS and IX announce S and X locks on records of the table,
+ * and SIX is an S lock on the table together with IX.
+ * @author Edward Sciore
+ */
+public enum LockMode {
+   IS, IX, S, SIX, X;
+
+   private static final boolean[][] COMPATIBLE = {
+      //  IS     IX     S      SIX    X
+      {  true,  true,  true,  true,  false },  // IS
+      {  true,  true,  false, false, false },  // IX
+      {  true,  false, true,  false, false },  // S
+      {  true,  false, false, false, false },  // SIX
+      {  false, false, false, false, false },  // X
+   };
+
+   /**
+    * Returns true if a lock in this mode can be held
+    * together with a lock in the specified mode
+    * by another transaction.
+    * @param other the mode of the other lock
+    * @return true if the modes are compatible
+    */
+   public boolean compatibleWith(LockMode other) {
+      return COMPATIBLE[ordinal()][other.ordinal()];
+   }
+
+   /**
+    * Returns the weakest mode that grants everything
+    * that this mode and the specified one grant.
+    * @param other another mode
+    * @return the combination of the two modes
+    */
+   public LockMode combine(LockMode other) {
+      if (this == other)
+         return this;
+      if (this == X || other == X)
+         return X;
+      if (this == IS)
+         return other;
+      if (other == IS)
+         return this;
+      return SIX;  // two of IX, S and SIX
+   }
+
+   /**
+    * Returns true if this mode grants everything
+    * that the specified mode grants.
+    * @param other another mode
+    * @return true if this mode covers the other one
+    */
+   public boolean covers(LockMode other) {
+      return combine(other) == this;
+   }
+}
@@ -1,103 +1,409 @@
 package simpledb.tx.concurrency;
 
 import java.util.*;
-import simpledb.file.BlockId;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.*;
 
 /**
- * The lock table, which provides methods to lock and unlock blocks.
- * If a transaction requests a lock that causes a conflict with an
- * existing lock, then that transaction is placed on a wait list.
- * There is only one wait list for all blocks.
- * When the last lock on a block is unlocked, then all transactions
- * are removed from the wait list and rescheduled.
- * If one of those transactions discovers that the lock it is waiting for
- * is still locked, it will place itself back on the wait list.
+ * The lock table, which provides methods to lock and unlock items:
+ * blocks, records and tables.
+ * An item can be any object with suitable equals and hashCode methods.
+ * Each lock has a {@link LockMode}; a transaction holds at most
+ * one lock on an item, in the mode that combines all it asked for.
+ * <P>
+ * The table is divided into stripes, each guarding the locks
+ * of the items that hash to it, so that transactions locking
+ * different items rarely contend.
+ * Each locked item has its own queue: the transactions holding
+ * a lock on it, and the requests waiting for one, in arrival order.
+ * Requests are granted first-come first-served; a request waits
+ * if it conflicts with a holder or with an earlier waiting request,
+ * so a stream of readers cannot starve a writer.
+ * A transaction upgrading its lock goes to
+ * the front of the queue, since it already holds the item.
+ * <P>
+ * A transaction that must wait records the transactions it waits for
+ * in a waits-for graph. If that closes a cycle, the transactions
+ * are deadlocked. If a request in the cycle waits only because of
+ * the queue order, that is, it conflicts with no holder,
+ * the deadlock is resolved by granting it out of turn.
+ * Otherwise the requesting transaction is chosen as the victim:
+ * its request is withdrawn and a {@link LockAbortException} is thrown.
+ * A wait that lasts too long (currently 10 seconds) is aborted as well,
+ * since a transaction can also wait for something the graph does not see,
+ * such as a buffer.
  * @author Edward Sciore
  */
 class LockTable {
    private static final long MAX_TIME = 10000; // 10 seconds
-   
-   private Map<BlockId,Integer> locks = new HashMap<BlockId,Integer>();
-   
+   private static final int NUM_STRIPES = 64;
+
+   private Stripe[] stripes = new Stripe[NUM_STRIPES];
+   private Map<Long,Waiter> waitsFor = new HashMap<>();
+
+   LockTable() {
+      for (int i=0; i<NUM_STRIPES; i++)
+         stripes[i] = new Stripe();
+   }
+
    /**
-    * Grant an SLock on the specified block.
-    * If an XLock exists when the method is called,
-    * then the calling thread will be placed on a wait list
-    * until the lock is released.
-    * If the thread remains on the wait list for a certain 
-    * amount of time (currently 10 seconds),
-    * then an exception is thrown.
-    * @param blk a reference to the disk block
+    * Grant a lock in the specified mode on the specified item
+    * to the specified transaction.
+    * If the transaction already holds a lock on the item,
+    * the mode must cover that lock's mode, and the lock is upgraded.
+    * If the request conflicts with a lock held by another transaction,
+    * or with a request waiting ahead of it, then the calling thread
+    * waits until the request can be granted.
+    * @param item the item to lock
+    * @param txnum the id of the requesting transaction
+    * @param mode the mode of the lock
     */
-   public synchronized void sLock(BlockId blk) {
+   void lock(Object item, long txnum, LockMode mode) {
+      Stripe s = stripe(item);
+      s.lock.lock();
       try {
-         long timestamp = System.currentTimeMillis();
-         while (hasXlock(blk) && !waitingTooLong(timestamp))
-            wait(MAX_TIME);
-         if (hasXlock(blk))
-            throw new LockAbortException();
-         int val = getLockVal(blk);  // will not be negative
-         locks.put(blk, val+1);
+         LockQueue q = s.queues.computeIfAbsent(item, b -> new LockQueue());
+         Request req = new Request(txnum, mode, s.lock.newCondition());
+         if (q.canGrantNow(req)) {
+            q.holders.put(txnum, mode);
+            return;
+         }
+         q.enqueue(req);
+         updateWaiting(q);
+         try {
+            awaitGrant(s, q, req);
+         }
+         catch (LockAbortException e) {
+            q.waiting.remove(req);
+            stopWaiting(q.grantWaiters());
+            updateWaiting(q);
+            if (q.isEmpty())
+               s.queues.remove(item);
+            throw e;
+         }
+         finally {
+            stopWaiting(txnum);
+         }
       }
-      catch(InterruptedException e) {
-         throw new LockAbortException();
+      finally {
+         s.lock.unlock();
       }
    }
-   
+
    /**
-    * Grant an XLock on the specified block.
-    * If a lock of any type exists when the method is called,
-    * then the calling thread will be placed on a wait list
-    * until the locks are released.
-    * If the thread remains on the wait list for a certain 
-    * amount of time (currently 10 seconds),
-    * then an exception is thrown.
-    * @param blk a reference to the disk block
+    * Grant a lock in the specified mode on the specified item
+    * to the specified transaction, if that can be done without waiting.
+    * @param item the item to lock
+    * @param txnum the id of the requesting transaction
+    * @param mode the mode of the lock
+    * @return true if the lock was granted
     */
-   synchronized void xLock(BlockId blk) {
+   boolean tryLock(Object item, long txnum, LockMode mode) {
+      Stripe s = stripe(item);
+      s.lock.lock();
       try {
-         long timestamp = System.currentTimeMillis();
-         while (hasOtherSLocks(blk) && !waitingTooLong(timestamp))
-            wait(MAX_TIME);
-         if (hasOtherSLocks(blk))
+         LockQueue q = s.queues.computeIfAbsent(item, b -> new LockQueue());
+         if (!q.canGrantNow(new Request(txnum, mode, null))) {
+            if (q.isEmpty())
+               s.queues.remove(item);
+            return false;
+         }
+         q.holders.put(txnum, mode);
+         return true;
+      }
+      finally {
+         s.lock.unlock();
+      }
+   }
+
+   /**
+    * Release the specified transaction's lock on the specified item,
+    * and grant the waiting requests that no longer conflict.
+    * @param item the locked item
+    * @param txnum the id of the transaction
+    */
+   void unlock(Object item, long txnum) {
+      Stripe s = stripe(item);
+      s.lock.lock();
+      try {
+         LockQueue q = s.queues.get(item);
+         if (q == null)
+            return;
+         q.holders.remove(txnum);
+         stopWaiting(q.grantWaiters());
+         updateWaiting(q);
+         if (q.isEmpty())
+            s.queues.remove(item);
+      }
+      finally {
+         s.lock.unlock();
+      }
+   }
+
+   /**
+    * Waits until the request is granted. Each time the thread
+    * starts to wait, the transactions blocking the request
+    * are recorded in the waits-for graph, which is then
+    * checked for a cycle through the requesting transaction.
+    */
+   private void awaitGrant(Stripe s, LockQueue q, Request req) {
+      long deadline = System.currentTimeMillis() + MAX_TIME;
+      try {
+         while (!req.granted) {
+            if (startWaiting(new Waiter(s, q, req)))
+               throw new LockAbortException();
+            if (req.granted)
+               return;
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+               throw new LockAbortException();
+            req.cond.await(remaining, TimeUnit.MILLISECONDS);
+         }
+      }
+      catch (InterruptedException e) {
+         if (!req.granted)
             throw new LockAbortException();
-         locks.put(blk, -1);
+         Thread.currentThread().interrupt();
       }
-      catch(InterruptedException e) {
-         throw new LockAbortException();
+   }
+
+   /**
+    * Records that the transaction waits for the blockers of its request,
+    * and returns true if that closes a cycle of waiting transactions
+    * that cannot be resolved by granting a request out of turn.
+    * Since the transaction may close several cycles,
+    * the search is repeated after each resolved one.
+    */
+   private boolean startWaiting(Waiter w) {
+      synchronized (waitsFor) {
+         waitsFor.put(w.req.txnum, w);
+         while (!w.req.granted) {
+            List<Long> cycle = new ArrayList<>();
+            if (!findPath(w.blockers, w.req.txnum, new HashSet<>(), cycle))
+               return false;
+            cycle.add(w.req.txnum);
+            if (!resolve(cycle))
+               return true;
+         }
+         return false;
       }
    }
-   
+
+   private boolean resolve(List<Long> cycle) {
+      for (long tx : cycle)
+         if (grantOutOfTurn(waitsFor.get(tx)))
+            return true;
+      return false;
+   }
+
    /**
-    * Release a lock on the specified block.
-    * If this lock is the last lock on that block,
-    * then the waiting transactions are notified.
-    * @param blk a reference to the disk block
+    * Grants the waiter's request if it conflicts with no holder.
+    * The queue belongs to another stripe than the caller's,
+    * or to the caller's own; its lock is only tried,
+    * so that two threads resolving deadlocks cannot block each other.
     */
-   synchronized void unlock(BlockId blk) {
-      int val = getLockVal(blk);
-      if (val > 1)
-         locks.put(blk, val-1);
-      else {
-         locks.remove(blk);
-         notifyAll();
-      }
-   }
-   
-   private boolean hasXlock(BlockId blk) {
-      return getLockVal(blk) < 0;
-   }
-   
-   private boolean hasOtherSLocks(BlockId blk) {
-      return getLockVal(blk) > 1;
-   }
-   
-   private boolean waitingTooLong(long starttime) {
-      return System.currentTimeMillis() - starttime > MAX_TIME;
-   }
-   
-   private int getLockVal(BlockId blk) {
-      Integer ival = locks.get(blk);
-      return (ival == null) ? 0 : ival.intValue();
+   private boolean grantOutOfTurn(Waiter w) {
+      if (!w.stripe.lock.tryLock())
+         return false;
+      try {
+         if (w.req.granted || !w.q.compatible(w.req))
+            return false;
+         w.q.waiting.remove(w.req);
+         w.q.grant(w.req);
+         waitsFor.remove(w.req.txnum);
+         updateWaiting(w.q);
+         return true;
+      }
+      finally {
+         w.stripe.lock.unlock();
+      }
+   }
+
+   /**
+    * Records the current blockers of the requests waiting in the queue.
+    * They have fewer after a lock is released, and the graph
+    * should not report a deadlock that is gone; they have more
+    * after an upgrade is queued ahead of them,
+    * or a request behind them is granted out of turn.
+    */
+   private void updateWaiting(LockQueue q) {
+      synchronized (waitsFor) {
+         for (Request r : q.waiting) {
+            Waiter w = waitsFor.get(r.txnum);
+            if (w != null && w.req == r)
+               w.blockers = q.blockers(r);
+         }
+      }
+   }
+
+   private void stopWaiting(long txnum) {
+      synchronized (waitsFor) {
+         waitsFor.remove(txnum);
+      }
+   }
+
+   /**
+    * Removes the waiters whose requests have just been granted
+    * from the graph, so that their old blockers are not taken
+    * for edges of a cycle before their threads wake up.
+    */
+   private void stopWaiting(List<Request> granted) {
+      if (granted.isEmpty())
+         return;
+      synchronized (waitsFor) {
+         for (Request r : granted) {
+            Waiter w = waitsFor.get(r.txnum);
+            if (w != null && w.req == r)
+               waitsFor.remove(r.txnum);
+         }
+      }
+   }
+
+   /**
+    * Looks for a path of waiting transactions from one of
+    * the specified transactions to the target, and adds
+    * the transactions on the path to the list.
+    * A waiter whose request has been granted waits no longer.
+    */
+   private boolean findPath(Set<Long> from, long target, Set<Long> visited,
+                            List<Long> path) {
+      for (long tx : from) {
+         if (tx == target)
+            return true;
+         Waiter w = waitsFor.get(tx);
+         if (w != null && !w.req.granted && visited.add(tx)) {
+            path.add(tx);
+            if (findPath(w.blockers, target, visited, path))
+               return true;
+            path.remove(path.size()-1);
+         }
+      }
+      return false;
+   }
+
+   private Stripe stripe(Object item) {
+      return stripes[Math.floorMod(item.hashCode(), NUM_STRIPES)];
+   }
+
+   private static class Stripe {
+      ReentrantLock lock = new ReentrantLock();
+      Map<Object,LockQueue> queues = new HashMap<>();
+   }
+
+   private static class Request {
+      long txnum;
+      LockMode mode;
+      volatile boolean granted = false;
+      Condition cond;
+
+      Request(long txnum, LockMode mode, Condition cond) {
+         this.txnum = txnum;
+         this.mode = mode;
+         this.cond = cond;
+      }
+   }
+
+   /**
+    * A transaction waiting for a lock, and the transactions
+    * it waits for.
+    */
+   private static class Waiter {
+      Stripe stripe;
+      LockQueue q;
+      Request req;
+      Set<Long> blockers;
+
+      Waiter(Stripe stripe, LockQueue q, Request req) {
+         this.stripe = stripe;
+         this.q = q;
+         this.req = req;
+         blockers = q.blockers(req);
+      }
+   }
+
+   /**
+    * The locks held on an item, and the requests waiting for one.
+    * The holders map each transaction to the mode of its lock.
+    */
+   private static class LockQueue {
+      Map<Long,LockMode> holders = new HashMap<>();
+      LinkedList<Request> waiting = new LinkedList<>();
+
+      boolean isEmpty() {
+         return holders.isEmpty() && waiting.isEmpty();
+      }
+
+      boolean canGrantNow(Request req) {
+         return (waiting.isEmpty() || isUpgrade(req)) && compatible(req);
+      }
+
+      /**
+       * Adds the request to the queue. An upgrade goes
+       * after the other upgrades, but before the other requests.
+       */
+      void enqueue(Request req) {
+         if (!isUpgrade(req)) {
+            waiting.addLast(req);
+            return;
+         }
+         ListIterator<Request> iter = waiting.listIterator();
+         while (iter.hasNext())
+            if (!isUpgrade(iter.next())) {
+               iter.previous();
+               break;
+            }
+         iter.add(req);
+      }
+
+      /**
+       * Grants the waiting requests in order,
+       * up to the first one that conflicts with a holder.
+       * @return the granted requests
+       */
+      List<Request> grantWaiters() {
+         List<Request> granted = new ArrayList<>();
+         while (!waiting.isEmpty() && compatible(waiting.getFirst())) {
+            Request req = waiting.removeFirst();
+            grant(req);
+            granted.add(req);
+         }
+         return granted;
+      }
+
+      void grant(Request req) {
+         holders.put(req.txnum, req.mode);
+         req.granted = true;
+         req.cond.signal();
+      }
+
+      /**
+       * Returns the transactions that keep the request from
+       * being granted: the conflicting holders, and the
+       * transactions with conflicting requests ahead of it.
+       */
+      Set<Long> blockers(Request req) {
+         Set<Long> result = new HashSet<>();
+         for (Map.Entry<Long,LockMode> e : holders.entrySet())
+            if (e.getKey() != req.txnum && !req.mode.compatibleWith(e.getValue()))
+               result.add(e.getKey());
+         for (Request r : waiting) {
+            if (r == req)
+               break;
+            if (r.txnum != req.txnum && !req.mode.compatibleWith(r.mode))
+               result.add(r.txnum);
+         }
+         return result;
+      }
+
+      private boolean isUpgrade(Request req) {
+         return holders.containsKey(req.txnum);
+      }
+
+      boolean compatible(Request req) {
+         for (Map.Entry<Long,LockMode> e : holders.entrySet())
+            if (e.getKey() != req.txnum && !req.mode.compatibleWith(e.getValue()))
+               return false;
+         return true;
+      }
    }
 }
@@ -0,0 +1,84 @@
+package simpledb.tx.concurrency;
+
+import static simpledb.tx.concurrency.LockMode.*;
+
+/**
+ * Checks the deadlock detection of the lock table.
+ * A real cycle of waiting transactions must abort one of them,
+ * and a transaction whose request has already been granted
+ * must not be taken for a waiting one.
+ */
+public class LockTableTest {
+   private static int failures = 0;
+
+   public static void main(String[] args) throws InterruptedException {
+      realCycle();
+      for (int i=0; i<20; i++)
+         grantedWaiter(i);
+      System.out.println(failures == 0 ? "LockTableTest passed"
+                                       : "LockTableTest: " + failures + " failures");
+   }
+
+   /**
+    * Transaction 1 holds a and waits for b;
+    * transaction 2 holds b and asks for a.
+    */
+   private static void realCycle() throws InterruptedException {
+      LockTable lt = new LockTable();
+      lt.lock("a", 1, X);
+      lt.lock("b", 2, X);
+      Thread t1 = new Thread(() -> {
+         lt.lock("b", 1, X);
+         lt.unlock("b", 1);
+         lt.unlock("a", 1);
+      });
+      t1.start();
+      Thread.sleep(200);  // until transaction 1 waits
+      try {
+         lt.lock("a", 2, X);
+         check(false, "deadlock of transactions 1 and 2 not detected");
+      }
+      catch (LockAbortException e) {
+         System.out.println("deadlock detected");
+      }
+      lt.unlock("b", 2);
+      t1.join();
+   }
+
+   /**
+    * Transaction 4 waits for transaction 3's lock on an item,
+    * which 3 then releases; 3 immediately asks for the item again,
+    * and must wait for 4, which is no longer waiting.
+    */
+   private static void grantedWaiter(int i) throws InterruptedException {
+      LockTable lt = new LockTable();
+      String item = "c" + i;
+      lt.lock(item, 3, X);
+      Thread t4 = new Thread(() -> {
+         lt.lock(item, 4, X);
+         try {
+            Thread.sleep(100);
+         }
+         catch (InterruptedException e) {}
+         lt.unlock(item, 4);
+      });
+      t4.start();
+      Thread.sleep(100);  // until transaction 4 waits
+      lt.unlock(item, 3);
+      try {
+         lt.lock(item, 3, X);
+         lt.unlock(item, 3);
+      }
+      catch (LockAbortException e) {
+         check(false, "transaction 3 aborted, but 4 was not waiting");
+      }
+      t4.join();
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
@@ -0,0 +1,15 @@
+package simpledb.tx.concurrency;
+
+/**
+ * A runtime exception indicating that an optimistic transaction
+ * failed its validation at commit: a block it read has changed,
+ * or an item it writes is locked by another transaction.
+ * Like the other lock aborts, the transaction must be rolled back,
+ * and can then be retried.
+ * @author Edward Sciore
+ */
+@SuppressWarnings("serial")
+public class ValidationException extends LockAbortException {
+   public ValidationException() {
+   }
+}
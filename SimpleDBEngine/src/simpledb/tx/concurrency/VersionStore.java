@@ -0,0 +1,338 @@
+package simpledb.tx.concurrency;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import simpledb.file.*;
+
+/**
+ * The old versions of the values that transactions have written,
+ * which let a transaction read the database as of a snapshot.
+ * <P>
+ * Before a value in a page is overwritten, the bytes it replaces
+ * are saved in the chain of versions of its block, with the
+ * transaction that wrote it. When a writer commits, it gets the
+ * next commit timestamp. A snapshot is the last commit timestamp
+ * at the time the snapshot started: it sees the writes of the
+ * transactions that committed by then, and a value is read
+ * by taking the current bytes of the page and restoring the old
+ * bytes of the other writes, from the newest to the oldest.
+ * <P>
+ * The versions of a writer are discarded when it rolls back,
+ * since the rollback has restored the old values,
+ * and once no active snapshot is older than its commit.
+ * The chains are divided into stripes, like the lock table;
+ * a write saves its version and changes the page
+ * while holding the block's stripe, and so does a read.
+ * <P>
+ * Each block also has a version number, which changes whenever
+ * a transaction that wrote the block commits, at the same moment
+ * that its writes become visible. An optimistic transaction
+ * notes the version of each block it reads, and is validated
+ * by checking that none of them has changed.
+ * The numbers are kept in a fixed table indexed by the hash
+ * of the block, so two blocks may share a number;
+ * that only makes some validations fail needlessly.
+ * @author Edward Sciore
+ */
+class VersionStore {
+   private static final int NUM_STRIPES = 64;
+   private static final int NUM_VERSIONS = 1 << 16;
+
+   /**
+    * The snapshot that sees every committed transaction,
+    * which optimistic transactions read.
+    */
+   static final Snapshot COMMITTED = new Snapshot(Long.MAX_VALUE);
+
+   private Stripe[] stripes = new Stripe[NUM_STRIPES];
+   private long clock = 0;
+   private TreeMap<Long,Integer> snapshots = new TreeMap<>();
+   private ArrayDeque<Writer> pending = new ArrayDeque<>();
+   private AtomicLongArray blockVersions = new AtomicLongArray(NUM_VERSIONS);
+
+   VersionStore() {
+      for (int i=0; i<NUM_STRIPES; i++)
+         stripes[i] = new Stripe();
+   }
+
+   /**
+    * Starts a snapshot of the transactions committed so far.
+    * @return the snapshot
+    */
+   synchronized Snapshot begin() {
+      Snapshot s = new Snapshot(clock);
+      snapshots.merge(s.ts, 1, Integer::sum);
+      return s;
+   }
+
+   /**
+    * Ends the snapshot, and discards the versions
+    * that no remaining snapshot needs.
+    * @param s the snapshot
+    */
+   void end(Snapshot s) {
+      List<Writer> done = new ArrayList<>();
+      synchronized (this) {
+         snapshots.computeIfPresent(s.ts, (ts, n) -> (n == 1) ? null : n - 1);
+         long oldest = snapshots.isEmpty() ? Long.MAX_VALUE : snapshots.firstKey();
+         while (!pending.isEmpty() && pending.peekFirst().commitTs <= oldest)
+            done.add(pending.removeFirst());
+      }
+      for (Writer w : done)
+         discard(w);
+   }
+
+   /**
+    * Gives the writer the next commit timestamp,
+    * which makes its writes visible to later snapshots,
+    * and changes the version numbers of the blocks it wrote.
+    * Its versions are kept while an earlier snapshot is active.
+    * @param w the committing writer
+    */
+   void commit(Writer w) {
+      synchronized (this) {
+         w.commitTs = ++clock;
+         newVersions(w.blocks);
+         if (!snapshots.isEmpty()) {
+            pending.addLast(w);
+            return;
+         }
+      }
+      discard(w);
+   }
+
+   /**
+    * Discards the versions of a writer that rolled back.
+    * @param w the writer
+    */
+   void rollback(Writer w) {
+      discard(w);
+   }
+
+   /**
+    * Returns the version number of the specified block.
+    * @param blk a reference to the disk block
+    * @return the block's current version number
+    */
+   long version(BlockId blk) {
+      return blockVersions.get(slot(blk));
+   }
+
+   /**
+    * Validates an optimistic transaction: checks that the blocks
+    * it read still have the version numbers it noted, and if so
+    * changes the version numbers of the blocks it is about to write.
+    * Until it commits, the transactions that read those blocks
+    * will fail their validation, and so will a transaction that
+    * read a block when its new value was still invisible.
+    * @param reads the version number of each block read
+    * @param writes the blocks to be written
+    * @return true if the transaction is valid
+    */
+   synchronized boolean validate(Map<BlockId,Long> reads, Collection<BlockId> writes) {
+      for (Map.Entry<BlockId,Long> e : reads.entrySet())
+         if (version(e.getKey()) != e.getValue())
+            return false;
+      newVersions(writes);
+      return true;
+   }
+
+   int getInt(Snapshot s, BlockId blk, Page p, int offset) {
+      Stripe st = stripe(blk);
+      synchronized (st) {
+         List<Version> chain = st.chains.get(blk);
+         if (chain == null)
+            return p.getInt(offset);
+         return new Page(read(s, chain, p, offset, Integer.BYTES)).getInt(0);
+      }
+   }
+
+   String getString(Snapshot s, BlockId blk, Page p, int offset) {
+      Stripe st = stripe(blk);
+      synchronized (st) {
+         List<Version> chain = st.chains.get(blk);
+         if (chain == null)
+            return p.getString(offset);
+         int length = new Page(read(s, chain, p, offset, Integer.BYTES)).getInt(0);
+         byte[] b = read(s, chain, p, offset + Integer.BYTES, length);
+         return new String(b, Page.CHARSET);
+      }
+   }
+
+   /**
+    * Returns true if the integer at the specified offset of the page
+    * has the specified value, and no writer that has not yet committed
+    * has changed it; such a writer might still restore the old value.
+    * @param blk a reference to the disk block
+    * @param p the page holding the block
+    * @param offset the byte offset within the page
+    * @param val the expected value
+    * @return true if the value is committed
+    */
+   boolean isCommittedInt(BlockId blk, Page p, int offset, int val) {
+      Stripe st = stripe(blk);
+      synchronized (st) {
+         if (p.getInt(offset) != val)
+            return false;
+         List<Version> chain = st.chains.getOrDefault(blk, Collections.emptyList());
+         for (Version v : chain)
+            if (v.writer.commitTs == 0 && v.overlaps(offset, Integer.BYTES))
+               return false;
+         return true;
+      }
+   }
+
+   void setInt(Writer w, BlockId blk, Page p, int offset, int val) {
+      Stripe st = stripe(blk);
+      synchronized (st) {
+         save(w, st, blk, p, offset, Integer.BYTES);
+         p.setInt(offset, val);
+      }
+   }
+
+   /**
+    * Saves the bytes that the new string overwrites:
+    * its length and its characters. The old characters
+    * beyond the new ones are not changed.
+    */
+   void setString(Writer w, BlockId blk, Page p, int offset, String val) {
+      int length = Integer.BYTES + val.getBytes(Page.CHARSET).length;
+      Stripe st = stripe(blk);
+      synchronized (st) {
+         save(w, st, blk, p, offset, length);
+         p.setString(offset, val);
+      }
+   }
+
+   /**
+    * Returns a copy of the page of the specified block
+    * as the snapshot sees it.
+    * @param s the snapshot
+    * @param blk a reference to the disk block
+    * @param p the page holding the block
+    * @param length the size of the page
+    * @return the copy
+    */
+   Page copy(Snapshot s, BlockId blk, Page p, int length) {
+      Stripe st = stripe(blk);
+      synchronized (st) {
+         List<Version> chain = st.chains.getOrDefault(blk, Collections.emptyList());
+         return new Page(read(s, chain, p, 0, length));
+      }
+   }
+
+   private void save(Writer w, Stripe st, BlockId blk, Page p, int offset, int length) {
+      byte[] old = new byte[length];
+      for (int i=0; i<length; i++)
+         old[i] = p.getByte(offset + i);
+      st.chains.computeIfAbsent(blk, b -> new ArrayList<>()).add(new Version(w, offset, old));
+      w.blocks.add(blk);
+   }
+
+   /**
+    * Reads the bytes at the specified offset of the page,
+    * and restores the old bytes of the writes that the snapshot
+    * does not see, from the newest write to the oldest.
+    */
+   private byte[] read(Snapshot s, List<Version> chain, Page p, int offset, int length) {
+      byte[] b = new byte[length];
+      for (int i=0; i<length; i++)
+         b[i] = p.getByte(offset + i);
+      ListIterator<Version> iter = chain.listIterator(chain.size());
+      while (iter.hasPrevious()) {
+         Version v = iter.previous();
+         if (!s.sees(v.writer))
+            v.restore(b, offset);
+      }
+      return b;
+   }
+
+   private void discard(Writer w) {
+      for (BlockId blk : w.blocks) {
+         Stripe st = stripe(blk);
+         synchronized (st) {
+            List<Version> chain = st.chains.get(blk);
+            if (chain == null)
+               continue;
+            chain.removeIf(v -> v.writer == w);
+            if (chain.isEmpty())
+               st.chains.remove(blk);
+         }
+      }
+      w.blocks.clear();
+   }
+
+   private void newVersions(Collection<BlockId> blks) {
+      for (BlockId blk : blks)
+         blockVersions.incrementAndGet(slot(blk));
+   }
+
+   private int slot(BlockId blk) {
+      return Math.floorMod(blk.hashCode(), NUM_VERSIONS);
+   }
+
+   private Stripe stripe(BlockId blk) {
+      return stripes[Math.floorMod(blk.hashCode(), NUM_STRIPES)];
+   }
+
+   private static class Stripe {
+      Map<BlockId,List<Version>> chains = new HashMap<>();
+   }
+
+   /**
+    * The bytes of a page that a write replaced.
+    */
+   private static class Version {
+      Writer writer;
+      int offset;
+      byte[] old;
+
+      Version(Writer writer, int offset, byte[] old) {
+         this.writer = writer;
+         this.offset = offset;
+         this.old = old;
+      }
+
+      boolean overlaps(int boffset, int length) {
+         return offset < boffset + length && boffset < offset + old.length;
+      }
+
+      /**
+       * Copies the old bytes that fall within the
+       * bytes read from the specified offset.
+       */
+      void restore(byte[] b, int boffset) {
+         int start = Math.max(offset, boffset);
+         int end = Math.min(offset + old.length, boffset + b.length);
+         for (int i=start; i<end; i++)
+            b[i - boffset] = old[i - offset];
+      }
+   }
+
+   /**
+    * A transaction that writes versioned values.
+    * Its commit timestamp is 0 until it commits.
+    * Its blocks are those whose version numbers
+    * change when it commits.
+    */
+   static class Writer {
+      volatile long commitTs = 0;
+      Set<BlockId> blocks = new HashSet<>();
+   }
+
+   /**
+    * The last commit timestamp when a snapshot started.
+    */
+   static class Snapshot {
+      long ts;
+
+      Snapshot(long ts) {
+         this.ts = ts;
+      }
+
+      boolean sees(Writer w) {
+         long c = w.commitTs;
+         return c != 0 && c <= ts;
+      }
+   }
+}
@@ -0,0 +1,65 @@
+package simpledb.tx.recovery;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import simpledb.file.BlockId;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+
+/**
+ * Measures the log kept on disk and the restart time
+ * after a period of continuous updates, with and without
+ * the checkpointer.
+ * Each worker thread repeatedly updates its own block and commits.
+ * The "crash" leaves the database's dirty pages unwritten;
+ * a second database on the same directory then recovers it.
+ */
+public class CheckpointBenchmark {
+   private static final int WORKERS = 4;
+   private static final int DURATION = 5000;  // milliseconds
+   private static final int INTERVAL = 200;   // milliseconds between checkpoints
+
+   public static void main(String[] args) throws InterruptedException {
+      SimpleDB.LOG_SEGMENT_SIZE = 1 << 16;
+      run("checkpointbenchmark-off", false);
+      run("checkpointbenchmark-on", true);
+   }
+
+   private static void run(String dirname, boolean checkpoints) throws InterruptedException {
+      SimpleDB db = new SimpleDB(dirname, 400, 64);
+      while (db.fileMgr().length("data") < WORKERS)
+         db.fileMgr().append("data");
+      if (checkpoints)
+         db.startCheckpointer(INTERVAL);
+      AtomicBoolean stop = new AtomicBoolean(false);
+      Thread[] threads = new Thread[WORKERS];
+      for (int w=0; w<WORKERS; w++) {
+         BlockId blk = new BlockId("data", w);
+         threads[w] = new Thread(() -> {
+            for (int k=0; !stop.get(); k++) {
+               Transaction tx = db.newTx();
+               tx.pin(blk);
+               for (int i=0; i<20; i++)
+                  tx.setInt(blk, i*Integer.BYTES, k, true);
+               tx.commit();
+            }
+         });
+         threads[w].start();
+      }
+      Thread.sleep(DURATION);
+      stop.set(true);
+      for (Thread t : threads)
+         t.join();
+      db.stopCheckpointer();
+      int segments = db.logMgr().segmentCount();
+
+      SimpleDB restarted = new SimpleDB(dirname, 400, 64);
+      Transaction tx = restarted.newTx();
+      long start = System.nanoTime();
+      tx.recover();
+      long ms = (System.nanoTime() - start) / 1000000;
+      tx.commit();
+      System.out.printf("checkpoints %-3s: %5d log segments (%6d KB), recovery %5d ms%n",
+                        checkpoints ? "on" : "off", segments,
+                        segments * (long) SimpleDB.LOG_SEGMENT_SIZE / 1024, ms);
+   }
+}
@@ -1,15 +1,28 @@
 package simpledb.tx.recovery;
 
-import simpledb.file.Page;
+import simpledb.file.*;
 import simpledb.log.LogMgr;
 import simpledb.tx.Transaction;
 
 /**
  * The CHECKPOINT log record.
+ * A checkpoint is taken while transactions keep running.
+ * Rather than listing the dirty pages and the active transactions,
+ * the record holds the two LSNs that recovery derives from them:
+ * the LSN from which the changes not yet on disk must be redone,
+ * and the first LSN that an active transaction may need to be undone.
+ * It also holds the next transaction number, so that the numbers
+ * given after a restart are not found in the log.
  * @author Edward Sciore
  */
 public class CheckpointRecord implements LogRecord {
-   public CheckpointRecord() {
+   private long redoLSN, undoLSN, nextTxNum;
+
+   public CheckpointRecord(Page p) {
+      LogFields f = new LogFields(p, null);
+      redoLSN = f.nextLong();
+      undoLSN = f.nextLong();
+      nextTxNum = f.nextLong();
    }
 
    public int op() {
@@ -20,30 +33,81 @@ public class CheckpointRecord implements LogRecord {
     * Checkpoint records have no associated transaction,
     * and so the method returns a "dummy", negative txid.
     */
-   public int txNumber() {
+   public long txNumber() {
       return -1; // dummy value
    }
 
+   /**
+    * Returns -1, because checkpoint records
+    * belong to no transaction's chain.
+    */
+   public long prevLSN() {
+      return -1;
+   }
+
+   /**
+    * Returns the LSN from which recovery must read the log:
+    * the smaller of the redo and the undo LSN.
+    * @return the first LSN needed by recovery
+    */
+   public long recoveryLSN() {
+      return Math.min(redoLSN, undoLSN);
+   }
+
+   /**
+    * Returns the number that the next transaction
+    * was to get when the checkpoint was taken.
+    * @return the next transaction number
+    */
+   public long nextTxNumber() {
+      return nextTxNum;
+   }
+
    /**
     * Does nothing, because a checkpoint record
     * contains no undo information.
     */
    public void undo(Transaction tx) {}
 
+   /**
+    * Returns null, because a checkpoint record
+    * changes no block.
+    */
+   public BlockId block() {
+      return null;
+   }
+
+   /**
+    * Does nothing, because a checkpoint record
+    * contains no redo information.
+    */
+   public void redo(Page p) {}
+
+   /**
+    * Does nothing, because a checkpoint record
+    * contains no undo information.
+    */
+   public void undo(Page p) {}
+
    public String toString() {
-      return "<CHECKPOINT>";
+      return "<CHECKPOINT " + redoLSN + " " + undoLSN + " " + nextTxNum + ">";
    }
 
    /** 
     * A static method to write a checkpoint record to the log.
     * This log record contains the CHECKPOINT operator,
-    * and nothing else.
-    * @return the LSN of the last log value
-    */
-   public static int writeToLog(LogMgr lm) {
-      byte[] rec = new byte[Integer.BYTES];
-      Page p = new Page(rec);
-      p.setInt(0, CHECKPOINT);
-      return lm.append(rec);
+    * followed by the redo LSN, the undo LSN
+    * and the next transaction number.
+    * @return the LSN of the record
+    */
+   public static long writeToLog(LogMgr lm, long redoLSN, long undoLSN, long nextTxNum) {
+      int reclen = 1 + LogFields.longSize(redoLSN) + LogFields.longSize(undoLSN)
+                     + LogFields.longSize(nextTxNum);
+      return lm.append(reclen, (p, pos) -> {
+         pos = LogFields.putOp(p, pos, CHECKPOINT);
+         pos = LogFields.putLong(p, pos, redoLSN);
+         pos = LogFields.putLong(p, pos, undoLSN);
+         LogFields.putLong(p, pos, nextTxNum);
+      });
    }
 }
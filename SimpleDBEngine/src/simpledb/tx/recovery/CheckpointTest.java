@@ -0,0 +1,141 @@
+package simpledb.tx.recovery;
+
+import java.io.File;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.buffer.BufferMgr;
+import simpledb.log.LogMgr;
+import simpledb.tx.Transaction;
+
+/**
+ * Checks recovery from a crash after a checkpoint
+ * that truncated the log.
+ * A child process runs two transactions and commits the first,
+ * writes all pages and takes a checkpoint, which deletes the
+ * log segments before the active transaction's first record,
+ * but not the later ones that are needed to undo it.
+ * After the checkpoint, one transaction commits and two more
+ * updates are left uncommitted, and the process halts.
+ * This process then recovers the database: the committed values
+ * must be on disk, and the uncommitted ones undone, including
+ * those written to disk before the checkpoint.
+ */
+public class CheckpointTest {
+   private static final String DIRNAME = "checkpointtest";
+   private static FileMgr fm;
+   private static BufferMgr bm;
+   private static LogMgr lm;
+   private static SimpleDB db;
+   private static BlockId blk0, blk1, blk2;
+   private static int failures = 0;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB.LOG_SEGMENT_SIZE = 4 * 400;
+      SimpleDB.BACKGROUND_WRITER = false;
+      if (args.length > 0 && args[0].equals("crash")) {
+         open();
+         crash();
+      }
+      File dir = new File(DIRNAME);
+      if (dir.exists())
+         for (File f : dir.listFiles())
+            f.delete();
+      String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+      Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                         CheckpointTest.class.getName(), "crash")
+                      .inheritIO().start();
+      failures += child.waitFor();
+
+      open();
+      Transaction tx = db.newTx();
+      tx.recover();
+      tx.commit();
+      Page p0 = read(blk0), p1 = read(blk1), p2 = read(blk2);
+      for (int i=0; i<6; i++) {
+         int pos = i * Integer.BYTES;
+         check(p0.getInt(pos) == 4900 + i, "committed value " + p0.getInt(pos) + " in block 0");
+         check(p1.getInt(pos) == 0, "uncommitted value " + p1.getInt(pos) + " in block 1");
+         check(p2.getInt(pos) == 300 + i, "committed value " + p2.getInt(pos) + " in block 2");
+      }
+      check(p1.getString(30).isEmpty(), "uncommitted string " + p1.getString(30) + " in block 1");
+      check(p2.getString(30).isEmpty(), "uncommitted string " + p2.getString(30) + " in block 2");
+      System.out.println(failures == 0 ? "CheckpointTest passed"
+                                       : "CheckpointTest: " + failures + " failures");
+   }
+
+   private static void open() {
+      db = new SimpleDB(DIRNAME, 400, 8);
+      fm = db.fileMgr();
+      bm = db.bufferMgr();
+      lm = db.logMgr();
+      blk0 = new BlockId("testfile", 0);
+      blk1 = new BlockId("testfile", 1);
+      blk2 = new BlockId("testfile", 2);
+   }
+
+   /**
+    * Runs in the child process, and halts it
+    * with the number of failed checks as its status.
+    * The transactions are numbered 1 to 5 in the order
+    * of their first access to the database.
+    */
+   private static void crash() {
+      Transaction tx0 = db.newTx();
+      for (int i=0; i<3; i++)
+         tx0.append("testfile");
+      tx0.commit();
+
+      // enough log records to fill several segments,
+      // with tx2 starting halfway through them
+      Transaction tx1 = db.newTx();
+      Transaction tx2 = null;
+      tx1.pin(blk0);
+      for (int r=0; r<50; r++) {
+         if (r == 25) {
+            tx2 = db.newTx();
+            tx2.pin(blk1);
+            for (int i=0; i<6; i++)
+               tx2.setInt(blk1, i*Integer.BYTES, 200 + i, true);
+         }
+         for (int i=0; i<6; i++)
+            tx1.setInt(blk0, i*Integer.BYTES, r*100 + i, true);
+      }
+      tx1.commit();
+
+      // the uncommitted values of tx2 are written too
+      bm.flushAll(2);
+      bm.flushAll(3);
+      int before = lm.segmentCount();
+      RecoveryMgr.checkpoint(fm, lm, bm);
+      int after = lm.segmentCount();
+      check(after < before, "the checkpoint kept all " + before + " log segments");
+
+      Transaction tx3 = db.newTx();
+      tx3.pin(blk2);
+      for (int i=0; i<6; i++)
+         tx3.setInt(blk2, i*Integer.BYTES, 300 + i, true);
+      tx3.commit();
+
+      tx2.setString(blk1, 30, "tx2", true);
+      Transaction tx4 = db.newTx();
+      tx4.pin(blk2);
+      tx4.setString(blk2, 30, "tx4", true);
+      bm.flushAll(5);
+      // tx2 and tx4 stop here without committing or rolling back
+      Runtime.getRuntime().halt(failures);
+   }
+
+   // Read the value of the block that made it to disk.
+   private static Page read(BlockId blk) {
+      Page p = new Page(fm.blockSize());
+      fm.read(blk, p);
+      return p;
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
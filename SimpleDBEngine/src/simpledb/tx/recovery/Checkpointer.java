@@ -0,0 +1,101 @@
+package simpledb.tx.recovery;
+
+import simpledb.file.FileMgr;
+import simpledb.log.LogMgr;
+import simpledb.buffer.BufferMgr;
+
+/**
+ * A background thread that takes a fuzzy checkpoint
+ * at regular intervals, so that the log that recovery reads,
+ * and the log kept on disk, stay bounded under continuous load.
+ * <P>
+ * A round does nothing if nothing has been logged since the
+ * previous checkpoint. Otherwise it first writes the unpinned pages
+ * that have been dirty since before the previous checkpoint,
+ * so that a page that stays in the pool does not hold back
+ * the redo LSN, and then calls {@link RecoveryMgr#checkpoint}.
+ */
+public class Checkpointer implements Runnable {
+   private FileMgr fm;
+   private LogMgr lm;
+   private BufferMgr bm;
+   private long interval;
+   private long lastBegin = 0, lastEnd = -1;
+   private volatile boolean stopped = false;
+   private Thread thread = null;
+
+   /**
+    * Creates a checkpointer for the specified database.
+    * @param fm the file manager
+    * @param lm the log manager
+    * @param bm the buffer manager
+    * @param interval the time between checkpoints, in milliseconds
+    */
+   public Checkpointer(FileMgr fm, LogMgr lm, BufferMgr bm, long interval) {
+      this.fm = fm;
+      this.lm = lm;
+      this.bm = bm;
+      this.interval = interval;
+   }
+
+   /**
+    * Starts the checkpointer in a daemon thread of its own.
+    */
+   public synchronized void start() {
+      thread = new Thread(this, "checkpointer");
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+   public void run() {
+      while (!stopped) {
+         synchronized (this) {
+            try {
+               wait(interval);
+            }
+            catch (InterruptedException e) {
+               return;
+            }
+         }
+         if (!stopped)
+            checkpointRound();
+      }
+   }
+
+   /**
+    * Stops the checkpointer, and waits for its current round,
+    * if any, to finish, so that the caller can go on to
+    * take a checkpoint of its own.
+    */
+   public void stop() {
+      Thread t;
+      synchronized (this) {
+         stopped = true;
+         notifyAll();
+         t = thread;
+      }
+      if (t == null || t == Thread.currentThread())
+         return;
+      boolean interrupted = false;
+      while (t.isAlive()) {
+         try {
+            t.join();
+         }
+         catch (InterruptedException e) {
+            interrupted = true;
+         }
+      }
+      if (interrupted)
+         Thread.currentThread().interrupt();
+   }
+
+   private void checkpointRound() {
+      long begin = lm.endOfLog();
+      if (begin == lastEnd)
+         return;
+      bm.flushOlderThan(lastBegin);
+      lastBegin = begin;
+      RecoveryMgr.checkpoint(fm, lm, bm);
+      lastEnd = lm.endOfLog();
+   }
+}
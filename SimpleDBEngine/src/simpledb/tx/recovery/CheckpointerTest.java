@@ -0,0 +1,130 @@
+package simpledb.tx.recovery;
+
+import java.io.File;
+import java.util.*;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.buffer.BufferMgr;
+import simpledb.log.LogMgr;
+import simpledb.tx.Transaction;
+
+/**
+ * Checks checkpoints taken concurrently with each other
+ * and with shutdown.
+ * Several threads commit updates while the checkpointer runs
+ * continuously and two more threads take checkpoints of their own,
+ * so that log segments are truncated by several threads at once.
+ * The checkpointer is then repeatedly started and stopped while
+ * transactions commit, and must have stopped whenever the
+ * stop returns.
+ * The segments on disk must then be exactly those that the log
+ * counts, with no deleted segment recreated, and no checkpoint
+ * may still be running once the database has been shut down:
+ * the log must end where the shutdown left it, so that the
+ * database reopens as cleanly shut down, with every committed value.
+ */
+public class CheckpointerTest {
+   private static final String DIRNAME = "checkpointertest";
+   private static final int WORKERS = 4, TXS = 150;
+   private static volatile boolean done = false;
+   private static int failures = 0;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB.LOG_SEGMENT_SIZE = 4 * 400;
+      SimpleDB.BACKGROUND_WRITER = false;
+      File dir = new File(DIRNAME);
+      if (dir.exists())
+         for (File f : dir.listFiles())
+            f.delete();
+      SimpleDB db = new SimpleDB(DIRNAME, 400, 8);
+      FileMgr fm = db.fileMgr();
+      LogMgr lm = db.logMgr();
+      BufferMgr bm = db.bufferMgr();
+      Transaction tx = db.newTx();
+      for (int b=0; b<WORKERS; b++)
+         tx.append("testfile");
+      tx.commit();
+
+      db.startCheckpointer(1);
+      List<Thread> threads = new ArrayList<>();
+      for (int b=0; b<WORKERS; b++) {
+         BlockId blk = new BlockId("testfile", b);
+         threads.add(new Thread(() -> update(db, blk, TXS)));
+      }
+      List<Thread> checkpointers = new ArrayList<>();
+      for (int i=0; i<2; i++)
+         checkpointers.add(new Thread(() -> {
+            while (!done)
+               RecoveryMgr.checkpoint(fm, lm, bm);
+         }));
+      for (Thread t : checkpointers)
+         t.start();
+      for (Thread t : threads)
+         t.start();
+      for (Thread t : threads)
+         t.join();
+      done = true;
+      for (Thread t : checkpointers)
+         t.join();
+
+      // the checkpointer must be gone as soon as it has been stopped
+      BlockId blk0 = new BlockId("testfile", 0);
+      for (int i=0; i<200; i++) {
+         db.startCheckpointer(1);
+         update(db, blk0, 1);
+         Thread.sleep(1);
+         db.stopCheckpointer();
+         check(!checkpointerRuns(), "the checkpointer still runs after being stopped");
+      }
+      update(db, blk0, TXS);
+
+      db.shutdown();
+      long end = lm.endOfLog();
+      Thread.sleep(20);
+      check(lm.endOfLog() == end, "the log grew after shutdown");
+      check(!checkpointerRuns(), "the checkpointer still runs after shutdown");
+
+      SortedSet<Integer> segs = new TreeSet<>();
+      for (String name : dir.list())
+         if (name.matches(SimpleDB.LOG_FILE + "\\.[0-9]+"))
+            segs.add(Integer.parseInt(name.substring(SimpleDB.LOG_FILE.length() + 1)));
+      check(segs.size() == lm.segmentCount(), "the log counts " + lm.segmentCount()
+            + " segments, but " + segs.size() + " are on disk");
+      check(segs.last() - segs.first() + 1 == segs.size(), "deleted segments were recreated: " + segs);
+
+      SimpleDB db2 = new SimpleDB(DIRNAME, 400, 8);
+      check(RecoveryMgr.wasShutDownCleanly(db2.fileMgr(), db2.logMgr()),
+            "the shutdown was not recognized as clean");
+      Page p = new Page(400);
+      for (int b=0; b<WORKERS; b++) {
+         db2.fileMgr().read(new BlockId("testfile", b), p);
+         check(p.getInt(0) == TXS - 1, "block " + b + " holds " + p.getInt(0));
+      }
+      System.out.println(failures == 0 ? "CheckpointerTest passed"
+                                       : "CheckpointerTest: " + failures + " failures");
+   }
+
+   private static void update(SimpleDB db, BlockId blk, int count) {
+      for (int i=0; i<count; i++) {
+         Transaction tx = db.newTx();
+         tx.pin(blk);
+         for (int pos=0; pos<40; pos+=Integer.BYTES)
+            tx.setInt(blk, pos, i, true);
+         tx.commit();
+      }
+   }
+
+   private static boolean checkpointerRuns() {
+      for (Thread t : Thread.getAllStackTraces().keySet())
+         if (t.getName().equals("checkpointer") && t.isAlive())
+            return true;
+      return false;
+   }
+
+   private static synchronized void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
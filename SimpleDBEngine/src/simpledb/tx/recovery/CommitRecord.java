@@ -1,6 +1,6 @@
 package simpledb.tx.recovery;
 
-import simpledb.file.Page;
+import simpledb.file.*;
 import simpledb.log.LogMgr;
 import simpledb.tx.Transaction;
 
@@ -9,27 +9,53 @@ import simpledb.tx.Transaction;
  * @author Edward Sciore
  */
 public class CommitRecord implements LogRecord {
-   private int txnum;
+   private long txnum;
+   private long prevLSN;
 
    public CommitRecord(Page p) {
-      int tpos = Integer.BYTES;
-      txnum = p.getInt(tpos);
+      LogFields f = new LogFields(p, null);
+      txnum = f.nextLong();
+      prevLSN = f.nextLong();
    }
 
    public int op() {
       return COMMIT;
    }
 
-   public int txNumber() {
+   public long txNumber() {
       return txnum;
    }
 
+   public long prevLSN() {
+      return prevLSN;
+   }
+
    /**
     * Does nothing, because a commit record
     * contains no undo information.
     */
    public void undo(Transaction tx) {}
 
+   /**
+    * Returns null, because a commit record
+    * changes no block.
+    */
+   public BlockId block() {
+      return null;
+   }
+
+   /**
+    * Does nothing, because a commit record
+    * contains no redo information.
+    */
+   public void redo(Page p) {}
+
+   /**
+    * Does nothing, because a commit record
+    * contains no undo information.
+    */
+   public void undo(Page p) {}
+
    public String toString() {
       return "<COMMIT " + txnum + ">";
    }
@@ -37,14 +63,15 @@ public class CommitRecord implements LogRecord {
    /** 
     * A static method to write a commit record to the log.
     * This log record contains the COMMIT operator,
-    * followed by the transaction id.
-    * @return the LSN of the last log value
+    * followed by the transaction id and the LSN of
+    * the transaction's previous log record.
+    * @return the LSN of the record
     */
-   public static int writeToLog(LogMgr lm, int txnum) {
-      byte[] rec = new byte[2*Integer.BYTES];
-      Page p = new Page(rec);
-      p.setInt(0, COMMIT);
-      p.setInt(Integer.BYTES, txnum);
-      return lm.append(rec);
+   public static long writeToLog(LogMgr lm, long txnum, long prevLSN) {
+      return lm.append(1 + LogFields.longSize(txnum) + LogFields.longSize(prevLSN), (p, pos) -> {
+         pos = LogFields.putOp(p, pos, COMMIT);
+         pos = LogFields.putLong(p, pos, txnum);
+         LogFields.putLong(p, pos, prevLSN);
+      });
    }
 }
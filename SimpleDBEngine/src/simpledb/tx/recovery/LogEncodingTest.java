@@ -0,0 +1,81 @@
+package simpledb.tx.recovery;
+
+import java.io.File;
+import java.util.*;
+import simpledb.file.*;
+import simpledb.log.*;
+
+/**
+ * Checks the compact encoding of log records.
+ * Numbers at the edges of each variable-length size,
+ * and negative ones, must read back unchanged;
+ * a typical SETINT record must be small;
+ * a temporary file must get no id but keep its name;
+ * and a reopened log must map the ids of its records
+ * to the same files, including ids assigned after
+ * the dictionary outgrew its first block.
+ */
+public class LogEncodingTest {
+   private static final String LOGFILE = "logencoding.log";
+   private static final int[] NUMBERS = {
+      0, 1, 63, 64, 127, 128, 16383, 16384, 2097151, 2097152,
+      Integer.MAX_VALUE, -1, -64, -65, Integer.MIN_VALUE };
+   private static final int NUM_FILES = 100;
+   private static int failures = 0;
+
+   public static void main(String[] args) {
+      File dir = new File("logencodingtest");
+      if (dir.exists())
+         for (File f : dir.listFiles())
+            f.delete();  // left by an earlier run
+      LogMgr lm = new LogMgr(new FileMgr(dir, 400), LOGFILE);
+
+      List<String> expected = new ArrayList<>();
+      for (int n : NUMBERS) {
+         BlockId blk = new BlockId("numbers", Math.abs(n % 100000));
+         SetIntRecord.writeToLog(lm, Math.abs(n % 1000), 1L << (Math.abs(n) % 63), blk, Math.abs(n % 400), n, ~n);
+         expected.add("<SETINT " + Math.abs(n % 1000) + " " + blk + " "
+                      + Math.abs(n % 400) + " " + n + " " + ~n + ">");
+      }
+      check(lm.fileDictionary().idOf("temp1") == FileDictionary.NO_ID,
+            "a temporary file was given an id");
+      BlockId tempblk = new BlockId("temp1", 7);
+      SetIntRecord.writeToLog(lm, 3, -1, tempblk, 12, 5, 6);
+      expected.add("<SETINT 3 " + tempblk + " 12 5 6>");
+      for (int i=0; i<NUM_FILES; i++) {
+         BlockId blk = new BlockId("table" + i + ".tbl", i);
+         SetStringRecord.writeToLog(lm, i, -1, blk, 20, "v" + i, "w" + i);
+         expected.add("<SETSTRING " + i + " " + blk + " 20 v" + i + " w" + i + ">");
+      }
+
+      // a SETINT of a small value, as a transaction typically writes
+      BlockId blk = new BlockId("student.tbl", 3);
+      SetIntRecord.writeToLog(lm, 12, 4000, blk, 24, 2018, 2019);
+      expected.add("<SETINT 12 " + blk + " 24 2018 2019>");
+      byte[] last = lm.iterator().next();
+      check(last.length <= 12, "a typical SETINT record takes " + last.length + " bytes");
+
+      readBack(lm, expected, "the live log");
+      readBack(new LogMgr(new FileMgr(dir, 400), LOGFILE), expected, "the reopened log");
+      System.out.println(failures == 0 ? "LogEncodingTest passed"
+                                       : "LogEncodingTest: " + failures + " failures");
+   }
+
+   private static void readBack(LogMgr lm, List<String> expected, String which) {
+      List<String> found = new ArrayList<>();
+      Iterator<byte[]> iter = lm.iterator();
+      while (iter.hasNext()) {
+         LogRecord rec = LogRecord.createLogRecord(iter.next(), lm.fileDictionary());
+         found.add(String.valueOf(rec));
+      }
+      Collections.reverse(found);
+      check(found.equals(expected), which + " reads back different records");
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
@@ -0,0 +1,123 @@
+package simpledb.tx.recovery;
+
+import simpledb.file.*;
+import simpledb.log.FileDictionary;
+
+/**
+ * The encoding of the fields of a log record.
+ * A record starts with a one-byte operator, followed by its fields:
+ * numbers are variable-length integers (signed values are
+ * zigzag-encoded, so that small negative values stay short),
+ * LSNs and transaction numbers are variable-length longs,
+ * strings are length-exact, and a block is written as
+ * the id of its file, followed by the file name if the file
+ * has no id, and the block number.
+ * <P>
+ * The static methods compute sizes and write fields
+ * at a given position, returning the position after the field.
+ * An instance reads the fields of a record in order.
+ */
+class LogFields {
+   private Page p;
+   private int pos;
+   private FileDictionary files;
+
+   /**
+    * Creates a reader for the fields of a record,
+    * positioned after its operator.
+    * @param p the page holding the record
+    * @param files the dictionary of file ids
+    */
+   LogFields(Page p, FileDictionary files) {
+      this.p = p;
+      this.files = files;
+      pos = 1;
+   }
+
+   int nextInt() {
+      int n = p.getVarInt(pos);
+      pos += Page.varIntSize(n);
+      return n;
+   }
+
+   long nextLong() {
+      long n = p.getVarLong(pos);
+      pos += Page.varLongSize(n);
+      return n;
+   }
+
+   int nextSignedInt() {
+      int z = nextInt();
+      return (z >>> 1) ^ -(z & 1);
+   }
+
+   String nextString() {
+      String s = p.getExactString(pos);
+      pos += Page.exactLength(s);
+      return s;
+   }
+
+   BlockId nextBlock() {
+      int fileid = nextInt();
+      String filename = (fileid == FileDictionary.NO_ID) ? nextString() : files.nameOf(fileid);
+      return new BlockId(filename, nextInt());
+   }
+
+   static int intSize(int n) {
+      return Page.varIntSize(n);
+   }
+
+   static int longSize(long n) {
+      return Page.varLongSize(n);
+   }
+
+   static int signedIntSize(int n) {
+      return Page.varIntSize(zigzag(n));
+   }
+
+   static int stringSize(String s) {
+      return Page.exactLength(s);
+   }
+
+   static int blockSize(int fileid, BlockId blk) {
+      int size = intSize(fileid) + intSize(blk.number());
+      if (fileid == FileDictionary.NO_ID)
+         size += stringSize(blk.fileName());
+      return size;
+   }
+
+   static int putOp(Page p, int pos, int op) {
+      p.setByte(pos, (byte) op);
+      return pos + 1;
+   }
+
+   static int putInt(Page p, int pos, int n) {
+      p.setVarInt(pos, n);
+      return pos + intSize(n);
+   }
+
+   static int putLong(Page p, int pos, long n) {
+      p.setVarLong(pos, n);
+      return pos + longSize(n);
+   }
+
+   static int putSignedInt(Page p, int pos, int n) {
+      return putInt(p, pos, zigzag(n));
+   }
+
+   static int putString(Page p, int pos, String s) {
+      p.setExactString(pos, s);
+      return pos + stringSize(s);
+   }
+
+   static int putBlock(Page p, int pos, int fileid, BlockId blk) {
+      pos = putInt(p, pos, fileid);
+      if (fileid == FileDictionary.NO_ID)
+         pos = putString(p, pos, blk.fileName());
+      return putInt(p, pos, blk.number());
+   }
+
+   private static int zigzag(int n) {
+      return (n << 1) ^ (n >> 31);
+   }
+}
@@ -1,6 +1,7 @@
 package simpledb.tx.recovery;
 
-import simpledb.file.Page;
+import simpledb.file.*;
+import simpledb.log.FileDictionary;
 import simpledb.tx.Transaction;
 
 /**
@@ -23,7 +24,15 @@ public interface LogRecord {
     * the log record.
     * @return the log record's transaction id
     */
-   int txNumber();
+   long txNumber();
+
+   /**
+    * Returns the LSN of the previous log record
+    * written by the record's transaction,
+    * or -1 if the record has no predecessor.
+    * @return the LSN of the transaction's previous record
+    */
+   long prevLSN();
 
    /**
     * Undoes the operation encoded by this log record.
@@ -33,16 +42,46 @@ public interface LogRecord {
     */
    void undo(Transaction tx);
 
+   /**
+    * Returns the block changed by the operation encoded by
+    * this log record, or null if the record changes no block.
+    * @return the changed block
+    */
+   BlockId block();
+
+   /**
+    * Redoes the operation encoded by this log record
+    * on the page holding its block.
+    * Redoing an update writes its new value, so it can be
+    * repeated any number of times.
+    * The only log record types for which this method
+    * does anything interesting are SETINT and SETSTRING.
+    * @param p the page holding the record's block
+    */
+   void redo(Page p);
+
+   /**
+    * Undoes the operation encoded by this log record
+    * on the page holding its block, without logging it.
+    * Used by recovery, which writes the recovered pages
+    * before it takes a checkpoint.
+    * @param p the page holding the record's block
+    */
+   void undo(Page p);
+
    /**
     * Interpret the bytes returned by the log iterator.
-    * @param bytes
-    * @return
+    * The first byte of a record is its operator;
+    * the encoding of the other fields is described in {@link LogFields}.
+    * @param bytes the bytes of the record
+    * @param files the dictionary of the file ids used by the records
+    * @return the log record
     */
-   static LogRecord createLogRecord(byte[] bytes) {
+   static LogRecord createLogRecord(byte[] bytes, FileDictionary files) {
       Page p = new Page(bytes);
-      switch (p.getInt(0)) {
+      switch (p.getByte(0)) {
       case CHECKPOINT: 
-         return new CheckpointRecord();
+         return new CheckpointRecord(p);
       case START: 
          return new StartRecord(p);
       case COMMIT: 
@@ -50,9 +89,9 @@ public interface LogRecord {
       case ROLLBACK: 
          return new RollbackRecord(p);
       case SETINT: 
-         return new SetIntRecord(p);
+         return new SetIntRecord(p, files);
       case SETSTRING: 
-         return new SetStringRecord(p);
+         return new SetStringRecord(p, files);
       default:
          return null;
       }
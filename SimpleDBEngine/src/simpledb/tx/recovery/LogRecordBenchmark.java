@@ -0,0 +1,100 @@
+package simpledb.tx.recovery;
+
+import java.lang.management.ManagementFactory;
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+import simpledb.server.SimpleDB;
+
+/**
+ * Measures the bytes allocated and the time taken per
+ * update log record, when the record is first serialized
+ * into its own array and then appended (as the records
+ * used to be written), and when it is serialized directly
+ * into the log buffer.
+ * Allocation is measured with the JVM's per-thread
+ * allocation counter.
+ * The sizes of the records in the original fixed-width,
+ * undo-only format and in the compact undo/redo format
+ * are printed first.
+ */
+public class LogRecordBenchmark {
+   private static final int WARMUP = 200000;
+   private static final int RECORDS = 1000000;
+
+   public static void main(String[] args) {
+      SimpleDB db = new SimpleDB("logrecordbenchmark", 4096, 8);
+      LogMgr lm = db.logMgr();
+      BlockId blk = new BlockId("studenttable.tbl", 17);
+      int fileid = lm.fileDictionary().idOf(blk.fileName());
+      int fixedblk = 2*Integer.BYTES + Page.maxLength(blk.fileName().length()) + 2*Integer.BYTES;
+      long prev = 123456;  // the LSN of the transaction's previous record
+      int compactblk = 1 + LogFields.intSize(1) + LogFields.longSize(prev)
+                       + LogFields.blockSize(fileid, blk) + LogFields.intSize(40);
+      System.out.printf("setint record:    %3d bytes fixed, %3d bytes compact%n",
+                        fixedblk + Integer.BYTES, compactblk + LogFields.signedIntSize(12345)
+                                                               + LogFields.signedIntSize(12346));
+      System.out.printf("setstring record: %3d bytes fixed, %3d bytes compact%n",
+                        fixedblk + Page.maxLength(12), compactblk + LogFields.stringSize("an old value")
+                                                               + LogFields.stringSize("a new value"));
+      run("setint, via array   ", () -> arraySetInt(lm, 1, blk, 40, 12345));
+      run("setint, in place    ", () -> SetIntRecord.writeToLog(lm, 1, prev, blk, 40, 12345, 12346));
+      run("setstring, via array", () -> arraySetString(lm, 1, blk, 40, "an old value"));
+      run("setstring, in place ", () -> SetStringRecord.writeToLog(lm, 1, prev, blk, 40,
+                                                                    "an old value", "a new value"));
+   }
+
+   private static void run(String name, Runnable writer) {
+      for (int i=0; i<WARMUP; i++)
+         writer.run();
+      long bytes0 = allocatedBytes();
+      long start = System.nanoTime();
+      for (int i=0; i<RECORDS; i++)
+         writer.run();
+      long ns = System.nanoTime() - start;
+      long bytes = allocatedBytes() - bytes0;
+      System.out.printf("%s: %6.1f bytes/record  %6.1f ns/record%n",
+                        name, (double) bytes / RECORDS, (double) ns / RECORDS);
+   }
+
+   private static long allocatedBytes() {
+      com.sun.management.ThreadMXBean mx =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      return mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+   }
+
+   // the serialization and format used before records were written in place
+
+   private static long arraySetInt(LogMgr lm, int txnum, BlockId blk, int offset, int val) {
+      int tpos = Integer.BYTES;
+      int fpos = tpos + Integer.BYTES;
+      int bpos = fpos + Page.maxLength(blk.fileName().length());
+      int opos = bpos + Integer.BYTES;
+      int vpos = opos + Integer.BYTES;
+      byte[] rec = new byte[vpos + Integer.BYTES];
+      Page p = new Page(rec);
+      p.setInt(0, LogRecord.SETINT);
+      p.setInt(tpos, txnum);
+      p.setString(fpos, blk.fileName());
+      p.setInt(bpos, blk.number());
+      p.setInt(opos, offset);
+      p.setInt(vpos, val);
+      return lm.append(rec);
+   }
+
+   private static long arraySetString(LogMgr lm, int txnum, BlockId blk, int offset, String val) {
+      int tpos = Integer.BYTES;
+      int fpos = tpos + Integer.BYTES;
+      int bpos = fpos + Page.maxLength(blk.fileName().length());
+      int opos = bpos + Integer.BYTES;
+      int vpos = opos + Integer.BYTES;
+      byte[] rec = new byte[vpos + Page.maxLength(val.length())];
+      Page p = new Page(rec);
+      p.setInt(0, LogRecord.SETSTRING);
+      p.setInt(tpos, txnum);
+      p.setString(fpos, blk.fileName());
+      p.setInt(bpos, blk.number());
+      p.setInt(opos, offset);
+      p.setString(vpos, val);
+      return lm.append(rec);
+   }
+}
@@ -0,0 +1,112 @@
+package simpledb.tx.recovery;
+
+import java.io.File;
+import java.util.*;
+import simpledb.file.*;
+import simpledb.log.LogMgr;
+
+/**
+ * Checks that each type of log record, serialized in place
+ * into the log buffer, reads back with the values it was written with,
+ * including the LSN of its transaction's previous record
+ * and transaction numbers too large for an int.
+ * Enough records are written to fill several log pages,
+ * and the strings include characters that the charset
+ * of the pages cannot encode, which must read back
+ * the way the charset's own encoder replaces them,
+ * as must strings written to a page, whose length fields
+ * must count the bytes that the encoder produces.
+ */
+public class LogRecordTest {
+   private static final String LOGFILE = "logrecord.log";
+   private static final String[] VALUES = { "", "abc", "h\u00e9llo", "\u65e5\u672c", "a\ud83d\ude00b" };
+   private static int failures = 0;
+
+   public static void main(String[] args) {
+      File dir = new File("logrecordtest");
+      if (dir.exists())
+         for (File f : dir.listFiles())
+            f.delete();  // left by an earlier run
+      LogMgr lm = new LogMgr(new FileMgr(dir, 400), LOGFILE, 2*400, 8*400);
+
+      List<String> expected = new ArrayList<>();
+      List<Long> prevs = new ArrayList<>();
+      for (int i=0; i<50; i++) {
+         BlockId blk = new BlockId("file" + i, i*3);
+         String val = VALUES[i % VALUES.length];
+         String stored = new String(val.getBytes(Page.CHARSET), Page.CHARSET);
+         long tx = (i % 5 == 4) ? (1L << 40) + i : i;
+         long lsn = StartRecord.writeToLog(lm, tx);
+         expected.add("<START " + tx + ">");
+         prevs.add(-1L);
+         prevs.add(lsn);
+         lsn = SetIntRecord.writeToLog(lm, tx, lsn, blk, 4*i, -i, i);
+         expected.add("<SETINT " + tx + " " + blk + " " + 4*i + " " + -i + " " + i + ">");
+         prevs.add(lsn);
+         lsn = SetStringRecord.writeToLog(lm, tx, lsn, blk, 8*i, val, "new");
+         expected.add("<SETSTRING " + tx + " " + blk + " " + 8*i + " " + stored + " new>");
+         prevs.add(lsn);
+         if (i % 2 == 0) {
+            CommitRecord.writeToLog(lm, tx, lsn);
+            expected.add("<COMMIT " + tx + ">");
+         }
+         else {
+            RollbackRecord.writeToLog(lm, tx, lsn);
+            expected.add("<ROLLBACK " + tx + ">");
+         }
+         if (i % 10 == 9) {
+            CheckpointRecord.writeToLog(lm, lsn, 10*i, tx + 1);
+            expected.add("<CHECKPOINT " + lsn + " " + 10*i + " " + (tx + 1) + ">");
+            prevs.add(-1L);
+         }
+      }
+
+      // the iterator returns the newest record first
+      Collections.reverse(expected);
+      Collections.reverse(prevs);
+      Iterator<byte[]> iter = lm.iterator();
+      int n = 0;
+      while (iter.hasNext() && n < expected.size()) {
+         LogRecord rec = LogRecord.createLogRecord(iter.next(), lm.fileDictionary());
+         String s = (rec == null) ? "null" : rec.toString();
+         check(s.equals(expected.get(n)), "read " + s + " instead of " + expected.get(n));
+         check(rec == null || rec.prevLSN() == prevs.get(n),
+               s + " links to the wrong previous record");
+         n++;
+      }
+      check(n == expected.size() && !iter.hasNext(),
+            "the log holds a different number of records than were written");
+      pageStrings();
+      System.out.println(failures == 0 ? "LogRecordTest passed"
+                                       : "LogRecordTest: " + failures + " failures");
+   }
+
+   private static void pageStrings() {
+      char[] chars = { 'a', '\u00e9', '\ud83d', '\ude00', '\u65e5' };
+      Random rand = new Random(12);
+      Page p = new Page(400);
+      for (int i=0; i<1000; i++) {
+         char[] cs = new char[rand.nextInt(10)];
+         for (int j=0; j<cs.length; j++)
+            cs[j] = chars[rand.nextInt(chars.length)];
+         String s = new String(cs);
+         byte[] b = s.getBytes(Page.CHARSET);
+         String stored = new String(b, Page.CHARSET);
+         p.setInt(100, 7);
+         p.setString(0, s);
+         check(p.getBytes(0).length == b.length && p.getString(0).equals(stored),
+               "setString stored " + p.getString(0) + " for " + stored);
+         p.setExactString(50, s);
+         check(p.getExactString(50).equals(stored) && Page.exactLength(s) == 1 + b.length,
+               "setExactString stored " + p.getExactString(50) + " for " + stored);
+         check(p.getInt(100) == 7, "a string overwrote the bytes after it");
+      }
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
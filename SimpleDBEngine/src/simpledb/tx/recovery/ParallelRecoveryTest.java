@@ -0,0 +1,108 @@
+package simpledb.tx.recovery;
+
+import java.io.File;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.tx.Transaction;
+
+/**
+ * Checks recovery with several threads.
+ * A child process commits values in many more blocks than
+ * there are buffers, and an unfinished transaction then
+ * updates every other block, so that some of its updates
+ * reach the disk when their pages are replaced.
+ * The process halts, and the database is recovered by four threads
+ * with the same small number of buffers.
+ * Every block must then hold its committed values on disk,
+ * including the blocks whose buffers recovery had to reuse.
+ */
+public class ParallelRecoveryTest {
+   private static final String DIRNAME = "parallelrecoverytest";
+   private static final int BLOCKS = 40;
+   private static SimpleDB db;
+   private static FileMgr fm;
+   private static int failures = 0;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB.BACKGROUND_WRITER = false;
+      if (args.length > 0 && args[0].equals("crash")) {
+         open();
+         crash();
+      }
+      File dir = new File(DIRNAME);
+      if (dir.exists())
+         for (File f : dir.listFiles())
+            f.delete();
+      String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+      Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                         ParallelRecoveryTest.class.getName(), "crash")
+                      .inheritIO().start();
+      failures += child.waitFor();
+
+      open();
+      int uncommitted = 0;
+      for (int b=0; b<BLOCKS; b+=2)
+         if (read(b).getInt(0) == -b)
+            uncommitted++;
+      check(uncommitted > 0, "no uncommitted page was written before the crash");
+
+      RecoveryMgr.setRecoveryThreads(4);
+      Transaction tx = db.newTx();
+      tx.recover();
+      tx.commit();
+      for (int b=0; b<BLOCKS; b++) {
+         Page p = read(b);
+         for (int i=0; i<6; i++) {
+            int pos = i * Integer.BYTES;
+            check(p.getInt(pos) == 1000*b + i, "value " + p.getInt(pos) + " at " + pos + " of block " + b);
+         }
+      }
+      System.out.println(failures == 0 ? "ParallelRecoveryTest passed"
+                                       : "ParallelRecoveryTest: " + failures + " failures");
+   }
+
+   private static void open() {
+      db = new SimpleDB(DIRNAME, 400, 8);
+      fm = db.fileMgr();
+   }
+
+   /**
+    * Runs in the child process, and halts it
+    * with the number of failed checks as its status.
+    */
+   private static void crash() {
+      Transaction tx1 = db.newTx();
+      for (int b=0; b<BLOCKS; b++) {
+         BlockId blk = tx1.append("testfile");
+         tx1.pin(blk);
+         for (int i=0; i<6; i++)
+            tx1.setInt(blk, i*Integer.BYTES, 1000*b + i, true);
+         tx1.unpin(blk);
+      }
+      tx1.commit();
+
+      Transaction tx2 = db.newTx();
+      for (int b=0; b<BLOCKS; b+=2) {
+         BlockId blk = new BlockId("testfile", b);
+         tx2.pin(blk);
+         tx2.setInt(blk, 0, -b, true);
+         tx2.unpin(blk);
+      }
+      // tx2 stops here without committing or rolling back
+      Runtime.getRuntime().halt(failures);
+   }
+
+   // Read the value of the block that made it to disk.
+   private static Page read(int b) {
+      Page p = new Page(fm.blockSize());
+      fm.read(new BlockId("testfile", b), p);
+      return p;
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
@@ -0,0 +1,56 @@
+package simpledb.tx.recovery;
+
+import simpledb.file.BlockId;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+
+/**
+ * Measures the restart time after a crash
+ * for an increasing number of recovery threads.
+ * Each run writes the same log: committed transactions
+ * followed by unfinished ones, which update many blocks,
+ * none of which reach the disk before the "crash".
+ * A second database on the same directory then recovers it.
+ */
+public class RecoveryBenchmark {
+   private static final int BLOCKS = 2000;
+   private static final int TXS = 200;
+   private static final int UPDATES = 100;  // per transaction
+
+   public static void main(String[] args) {
+      SimpleDB.BACKGROUND_WRITER = false;
+      int max = Runtime.getRuntime().availableProcessors();
+      for (int n=1; n<=max; n*=2)
+         run("recoverybenchmark-" + n, n);
+   }
+
+   private static void run(String dirname, int nthreads) {
+      // the unfinished transactions keep their locks,
+      // so each run updates a file of its own
+      String filename = "data" + nthreads;
+      SimpleDB db = new SimpleDB(dirname, 400, 64);
+      while (db.fileMgr().length(filename) < BLOCKS)
+         db.fileMgr().append(filename);
+      for (int t=0; t<TXS; t++) {
+         Transaction tx = db.newTx();
+         for (int i=0; i<UPDATES; i++) {
+            BlockId blk = new BlockId(filename, (t*UPDATES + i) % BLOCKS);
+            tx.pin(blk);
+            tx.setInt(blk, (i%50)*Integer.BYTES, t, true);
+            tx.unpin(blk);
+         }
+         if (t < TXS - TXS/10)
+            tx.commit();
+      }
+      db.logMgr().flush(db.logMgr().endOfLog() - 1);
+
+      SimpleDB.RECOVERY_THREADS = nthreads;
+      SimpleDB restarted = new SimpleDB(dirname, 400, 64);
+      Transaction tx = restarted.newTx();
+      long start = System.nanoTime();
+      tx.recover();
+      long ms = (System.nanoTime() - start) / 1000000;
+      tx.commit();
+      System.out.printf("%2d recovery threads: %5d ms%n", nthreads, ms);
+   }
+}
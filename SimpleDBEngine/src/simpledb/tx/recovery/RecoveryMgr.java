@@ -1,6 +1,8 @@
 package simpledb.tx.recovery;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import simpledb.file.*;
 import simpledb.log.*;
 import simpledb.buffer.*;
@@ -9,54 +11,211 @@ import static simpledb.tx.recovery.LogRecord.*;
 
 /**
  * The recovery manager.  Each transaction has its own recovery manager.
+ * <P>
+ * Update records hold both the old and the new value,
+ * so a committed transaction's changes can be redone from the log.
+ * A commit therefore only flushes the log (a no-force policy);
+ * the modified pages are written later, when their buffers
+ * are replaced or by the background writer,
+ * after the log records for their changes.
+ * The exception are changes made without a log record,
+ * such as the initial values of a new page, which
+ * cannot be redone: the pages holding them are written
+ * and forced before the commit record.
+ * A rollback logs the values it restores, so that redoing
+ * the log repeats the rollback as well.
+ * <P>
+ * Each log record holds the LSN of its transaction's previous
+ * record, so a rollback reads only the transaction's own records.
+ * A transaction's START record is only written with its first
+ * update record, and a transaction that logged nothing
+ * writes no COMMIT or ROLLBACK record either.
+ * <P>
+ * Checkpoints are fuzzy: they are taken while transactions run,
+ * and record where recovery must start reading the log,
+ * which also tells the log manager which segments it can delete.
+ * <P>
+ * Recovery sorts the log records it reads by block,
+ * and recovers the blocks in parallel with a pool of threads.
+ * <P>
+ * A clean shutdown writes every page and a checkpoint, and then
+ * a marker file holding the end of the log. If the log still
+ * ends there at the next startup, recovery can be skipped.
+ * <P>
+ * Transaction numbers must not repeat those in the log,
+ * so the next number is saved in each checkpoint record
+ * and in the marker, and restored at startup.
  * @author Edward Sciore
  */
 public class RecoveryMgr {
+   private static final String CLEAN_MARKER = "simpledb.clean";
+   private static int recoveryThreads = Runtime.getRuntime().availableProcessors();
+   private FileMgr fm;
    private LogMgr lm;
    private BufferMgr bm;
    private Transaction tx;
-   private int txnum;
+   private long txnum = -1;
+   private long lastLSN = -1;
+   private Collection<Buffer> modified;
 
    /**
     * Create a recovery manager for the specified transaction.
-    * @param txnum the ID of the specified transaction
+    * Nothing is logged until the transaction's first update.
+    * @param tx the transaction
+    * @param modified the buffers modified by the transaction
     */
-   public RecoveryMgr(Transaction tx, int txnum, LogMgr lm, BufferMgr bm) {
+   public RecoveryMgr(Transaction tx, FileMgr fm, LogMgr lm, BufferMgr bm,
+                      Collection<Buffer> modified) {
       this.tx = tx;
-      this.txnum = txnum;
+      this.modified = modified;
+      this.fm = fm;
       this.lm = lm;
       this.bm = bm;
-      StartRecord.writeToLog(lm, txnum);
+   }
+
+   /**
+    * Sets the number of threads that recover blocks in parallel.
+    * @param n the number of recovery threads
+    */
+   public static void setRecoveryThreads(int n) {
+      recoveryThreads = Math.max(1, n);
    }
 
    /**
     * Write a commit record to the log, and flushes it to disk.
+    * Only those of the transaction's modified pages that
+    * hold changes that were not logged are written.
+    * A transaction that logged nothing has no record to write.
     */
    public void commit() {
-      bm.flushAll(txnum);
-      int lsn = CommitRecord.writeToLog(lm, txnum);
+      if (bm.flushUnlogged(modified))
+         fm.forceAll();
+      if (txnum < 0)
+         return;
+      long lsn = CommitRecord.writeToLog(lm, txnum, lastLSN);
       lm.flush(lsn);
+      lm.release(txnum);
    }
 
    /**
-    * Write a rollback record to the log and flush it to disk.
+    * Undo the transaction's changes, then write
+    * a rollback record to the log and flush it to disk.
+    * The restored pages are written as well, so that
+    * the unlogged changes that the rollback could not undo
+    * are as durable as they would be after a commit.
+    * They are written even if another transaction has modified
+    * them since, as it can under record locking.
+    * A transaction that logged nothing has nothing to undo.
     */
    public void rollback() {
+      if (txnum < 0) {
+         if (bm.flushUnlogged(modified))
+            fm.forceAll();
+         return;
+      }
       doRollback();
-      bm.flushAll(txnum);
-      int lsn = RollbackRecord.writeToLog(lm, txnum);
+      bm.flush(modified);
+      fm.forceAll();
+      long lsn = RollbackRecord.writeToLog(lm, txnum, lastLSN);
       lm.flush(lsn);
+      lm.release(txnum);
    }
 
    /**
-    * Recover uncompleted transactions from the log
-    * and then write a quiescent checkpoint record to the log and flush it.
+    * Recover the database from the log: redo the changes logged
+    * since the last checkpoint and undo those of uncompleted transactions.
+    * The pages that recovery changed are then written,
+    * and a checkpoint is taken.
+    * Recovery logs nothing, so the transaction's
+    * first update will still write its START record.
     */
    public void recover() {
-      doRecover();
-      bm.flushAll(txnum);
-      int lsn = CheckpointRecord.writeToLog(lm);
+      Collection<Buffer> recovered = doRecover();
+      bm.flushAll(tx.txNumber(), recovered);
+      checkpoint(fm, lm, bm);
+   }
+
+   /**
+    * Takes a checkpoint without stopping the running transactions.
+    * The redo LSN is the smallest recovery LSN of the dirty pages,
+    * or the end of the log if there is none; the undo LSN is the
+    * first LSN needed by an active transaction.
+    * The end of the log is read before the pages are examined,
+    * and an update notes the page's recovery LSN before it logs
+    * its change, so no change that is missed by the scan
+    * precedes the redo LSN.
+    * The data files are forced before the record is written,
+    * since the pages written earlier are no longer covered by redo.
+    * Finally the log segments before both LSNs are deleted.
+    * Checkpoints are taken one at a time, so that a checkpoint
+    * never truncates the log behind a later one.
+    * @param fm the file manager
+    * @param lm the log manager
+    * @param bm the buffer manager
+    */
+   public static synchronized void checkpoint(FileMgr fm, LogMgr lm, BufferMgr bm) {
+      long begin = lm.endOfLog();
+      long redoLSN = Math.min(begin, bm.minRecoveryLSN());
+      long undoLSN = lm.retainedFrom();
+      long nextTxNum = Transaction.nextTxNumber();
+      fm.forceAll();
+      long lsn = CheckpointRecord.writeToLog(lm, redoLSN, undoLSN, nextTxNum);
       lm.flush(lsn);
+      lm.truncate(Math.min(redoLSN, undoLSN));
+   }
+
+   /**
+    * Shuts the database down cleanly: writes the dirty pages,
+    * takes a checkpoint, and writes the clean-shutdown marker,
+    * which holds the end of the log and the next transaction number.
+    * No marker is written if a transaction is still active,
+    * since its changes would need to be undone by recovery.
+    * @param fm the file manager
+    * @param lm the log manager
+    * @param bm the buffer manager
+    * @return true if the marker was written
+    */
+   public static boolean shutdown(FileMgr fm, LogMgr lm, BufferMgr bm) {
+      bm.flushAll();
+      checkpoint(fm, lm, bm);
+      long end = lm.endOfLog();
+      if (lm.retainedFrom() < end)
+         return false;
+      Page p = new Page(fm.blockSize());
+      p.setVarLong(0, end);
+      p.setVarLong(Page.varLongSize(end), Transaction.nextTxNumber());
+      BlockId blk = (fm.length(CLEAN_MARKER) == 0) ? fm.append(CLEAN_MARKER)
+                                                   : new BlockId(CLEAN_MARKER, 0);
+      fm.write(blk, p);
+      fm.force(CLEAN_MARKER);
+      return true;
+   }
+
+   /**
+    * Returns true if the database was shut down cleanly,
+    * that is, if the clean-shutdown marker exists and the log
+    * still ends where it ended at shutdown.
+    * If so, the transaction numbers continue from the marker's.
+    * The marker is deleted, so that a crash after this startup
+    * is recovered; and should the deletion not reach the disk,
+    * the next record flushed to the log invalidates the marker.
+    * It must be called before any transaction has been started.
+    * @param fm the file manager
+    * @param lm the log manager
+    * @return true if recovery can be skipped
+    */
+   public static boolean wasShutDownCleanly(FileMgr fm, LogMgr lm) {
+      boolean clean = false;
+      if (fm.length(CLEAN_MARKER) > 0) {
+         Page p = new Page(fm.blockSize());
+         fm.read(new BlockId(CLEAN_MARKER, 0), p);
+         long end = p.getVarLong(0);
+         clean = (end == lm.endOfLog());
+         if (clean)
+            Transaction.restoreTxNumbers(p.getVarLong(Page.varLongSize(end)));
+      }
+      fm.delete(CLEAN_MARKER);
+      return clean;
    }
 
    /**
@@ -65,10 +224,13 @@ public class RecoveryMgr {
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setInt(Buffer buff, int offset, int newval) {
+   public long setInt(Buffer buff, int offset, int newval) {
+      start();
       int oldval = buff.contents().getInt(offset);
       BlockId blk = buff.block();
-      return SetIntRecord.writeToLog(lm, txnum, blk, offset, oldval);
+      buff.setRecoveryLSN(lm.endOfLog());
+      lastLSN = SetIntRecord.writeToLog(lm, txnum, lastLSN, blk, offset, oldval, newval);
+      return lastLSN;
    }
 
    /**
@@ -77,52 +239,201 @@ public class RecoveryMgr {
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setString(Buffer buff, int offset, String newval) {
+   public long setString(Buffer buff, int offset, String newval) {
+      start();
       String oldval = buff.contents().getString(offset);
       BlockId blk = buff.block();
-      return SetStringRecord.writeToLog(lm, txnum, blk, offset, oldval);
+      buff.setRecoveryLSN(lm.endOfLog());
+      lastLSN = SetStringRecord.writeToLog(lm, txnum, lastLSN, blk, offset, oldval, newval);
+      return lastLSN;
    }
 
    /**
-    * Rollback the transaction, by iterating
-    * through the log records until it finds 
-    * the transaction's START record,
-    * calling undo() for each of the transaction's
-    * log records.
+    * Writes the transaction's START record before its first
+    * update record. The transaction retains the log from there,
+    * which it does before appending, so that a checkpoint
+    * taken meanwhile cannot let the record be deleted.
+    */
+   private void start() {
+      if (txnum >= 0)
+         return;
+      txnum = tx.txNumber();
+      lm.retain(txnum, lm.endOfLog());
+      lastLSN = StartRecord.writeToLog(lm, txnum);
+   }
+
+   /**
+    * Rollback the transaction, by following
+    * the chain of its log records back from the last one
+    * until it finds the transaction's START record,
+    * calling undo() for each of them.
+    * The records that the undos write are not followed.
     */
    private void doRollback() {
-      Iterator<byte[]> iter = lm.iterator();
-      while (iter.hasNext()) {
-         byte[] bytes = iter.next();
-         LogRecord rec = LogRecord.createLogRecord(bytes); 
-         if (rec.txNumber() == txnum) {
-            if (rec.op() == START)
-               return;
-            rec.undo(tx);
-         }
+      long lsn = lastLSN;
+      while (lsn >= 0) {
+         byte[] bytes = lm.read(lsn);
+         LogRecord rec = LogRecord.createLogRecord(bytes, lm.fileDictionary());
+         if (rec.op() == START)
+            return;
+         rec.undo(tx);
+         lsn = rec.prevLSN();
       }
    }
 
    /**
     * Do a complete database recovery.
-    * The method iterates through the log records.
-    * Whenever it finds a log record for an unfinished
-    * transaction, it calls undo() on that record.
-    * The method stops when it encounters a CHECKPOINT record
-    * or the end of the log.
+    * The method reads the log records back to the last
+    * CHECKPOINT record, and then on back to the LSN
+    * that the checkpoint says recovery needs
+    * (or to the start of the log, if there is no checkpoint).
+    * It then recovers each block that the records change:
+    * it redoes the block's updates in log order,
+    * which restores the state of the block at the time
+    * of the crash, whether or not the page had been written,
+    * and then undoes the updates of the unfinished transactions,
+    * from the last to the first.
+    * Blocks of temporary files are skipped, since those files
+    * are deleted when the system restarts.
+    * The transaction numbers continue after the largest one read
+    * and the checkpoint's next number; only then does the recovering
+    * transaction get its own number, which marks the recovered pages.
+    * @return the buffers that hold the recovered blocks
     */
-   private void doRecover() {
-      Collection<Integer> finishedTxs = new ArrayList<>();
-      Iterator<byte[]> iter = lm.iterator();
+   private Collection<Buffer> doRecover() {
+      long start = System.currentTimeMillis();
+      Progress progress = new Progress(start);
+      List<LogRecord> recs = new ArrayList<>();
+      Collection<Long> finishedTxs = new HashSet<>();
+      long firstNeeded = -1;
+      long nextTxNum = 0;
+      LogIterator iter = lm.iterator();
+      int nread = 0;
       while (iter.hasNext()) {
          byte[] bytes = iter.next();
-         LogRecord rec = LogRecord.createLogRecord(bytes);
-         if (rec.op() == CHECKPOINT)
-            return;
-         if (rec.op() == COMMIT || rec.op() == ROLLBACK)
+         if (iter.lsn() < firstNeeded)
+            break;
+         LogRecord rec = LogRecord.createLogRecord(bytes, lm.fileDictionary());
+         nextTxNum = Math.max(nextTxNum, rec.txNumber() + 1);
+         if (rec.op() == CHECKPOINT && firstNeeded < 0) {
+            CheckpointRecord ckpt = (CheckpointRecord) rec;
+            firstNeeded = ckpt.recoveryLSN();
+            nextTxNum = Math.max(nextTxNum, ckpt.nextTxNumber());
+         }
+         else if (rec.op() == COMMIT || rec.op() == ROLLBACK)
             finishedTxs.add(rec.txNumber());
-         else if (!finishedTxs.contains(rec.txNumber()))
-            rec.undo(tx);
+         else if (rec.block() != null && !rec.block().fileName().startsWith("temp"))
+            recs.add(rec);
+         if (++nread % 1024 == 0 && progress.due())
+            System.out.println("recovery: read " + nread + " log records");
+      }
+
+      // the work list of each block: its updates in log order,
+      // followed by the unfinished ones in reverse log order
+      Map<BlockId,List<LogRecord>> redos = new HashMap<>();
+      Map<BlockId,List<LogRecord>> undos = new HashMap<>();
+      for (int i=recs.size()-1; i>=0; i--) {
+         LogRecord rec = recs.get(i);
+         redos.computeIfAbsent(rec.block(), b -> new ArrayList<>()).add(rec);
+      }
+      for (LogRecord rec : recs)
+         if (!finishedTxs.contains(rec.txNumber()))
+            undos.computeIfAbsent(rec.block(), b -> new ArrayList<>()).add(rec);
+      Transaction.restoreTxNumbers(nextTxNum);
+      return recoverBlocks(redos, undos, tx.txNumber(), progress);
+   }
+
+   /**
+    * Recovers the blocks with a pool of threads, one task per block,
+    * reporting the progress while it waits for them.
+    * Each thread pins one block at a time, so the pool
+    * is limited to half of the available buffers.
+    * A recovered block's buffer may be reused for another block
+    * before the pool is done, in which case it was written first.
+    */
+   private Collection<Buffer> recoverBlocks(Map<BlockId,List<LogRecord>> redos,
+                                            Map<BlockId,List<LogRecord>> undos, long recoverer,
+                                            Progress progress) {
+      int total = redos.size();
+      int nthreads = Math.min(recoveryThreads, Math.max(1, bm.available() / 2));
+      AtomicInteger done = new AtomicInteger(0);
+      Collection<Buffer> recovered = ConcurrentHashMap.newKeySet();
+      ExecutorService pool = Executors.newFixedThreadPool(nthreads, r -> {
+         Thread t = new Thread(r, "recovery");
+         t.setDaemon(true);
+         return t;
+      });
+      List<Future<?>> results = new ArrayList<>();
+      for (BlockId blk : redos.keySet()) {
+         List<LogRecord> redo = redos.get(blk);
+         List<LogRecord> undo = undos.getOrDefault(blk, Collections.emptyList());
+         results.add(pool.submit(() -> {
+            recovered.add(recoverBlock(blk, redo, undo, recoverer));
+            done.incrementAndGet();
+         }));
+      }
+      pool.shutdown();
+      try {
+         while (!pool.awaitTermination(1, TimeUnit.SECONDS))
+            progress.report(done.get(), total);
+         for (Future<?> f : results)
+            f.get();
+      }
+      catch (InterruptedException e) {
+         pool.shutdownNow();
+         throw new RuntimeException("recovery interrupted");
+      }
+      catch (ExecutionException e) {
+         throw new RuntimeException("recovery failed", e.getCause());
+      }
+      return recovered;
+   }
+
+   private Buffer recoverBlock(BlockId blk, List<LogRecord> redo, List<LogRecord> undo,
+                               long recoverer) {
+      Buffer buff = bm.pin(blk);
+      try {
+         Page p = buff.contents();
+         for (LogRecord rec : redo)
+            rec.redo(p);
+         for (LogRecord rec : undo)
+            rec.undo(p);
+         buff.setModified(recoverer, -1);
+         return buff;
+      }
+      finally {
+         bm.unpin(buff);
+      }
+   }
+
+   /**
+    * Reports the progress of a recovery that takes
+    * more than a second, at most once a second.
+    */
+   private static class Progress {
+      private long start, last;
+
+      Progress(long start) {
+         this.start = start;
+         last = start;
+      }
+
+      boolean due() {
+         long now = System.currentTimeMillis();
+         if (now - last < 1000)
+            return false;
+         last = now;
+         return true;
+      }
+
+      void report(int done, int total) {
+         if (!due())
+            return;
+         long elapsed = last - start;
+         String eta = (done == 0) ? "unknown"
+                                  : ((total - done) * elapsed / done / 1000) + "s";
+         System.out.println("recovery: " + done + " of " + total
+                            + " blocks recovered, time left " + eta);
       }
    }
 }
@@ -0,0 +1,100 @@
+package simpledb.tx.recovery;
+
+import java.io.File;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.tx.Transaction;
+
+/**
+ * Checks that recovery redoes committed changes
+ * whose pages never reached the disk.
+ * A child process commits a transaction that sets the initial
+ * values of a block without logging them, and then one that
+ * updates them with logging, and halts without writing any page.
+ * This process then checks that the unlogged values are on disk,
+ * since a commit writes them, but that the logged updates are not,
+ * and that they are there once the database is recovered.
+ */
+public class RedoTest {
+   private static final String DIRNAME = "redotest";
+   private static SimpleDB db;
+   private static FileMgr fm;
+   private static BlockId blk;
+   private static int failures = 0;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB.BACKGROUND_WRITER = false;
+      if (args.length > 0 && args[0].equals("crash")) {
+         open();
+         crash();
+      }
+      File dir = new File(DIRNAME);
+      if (dir.exists())
+         for (File f : dir.listFiles())
+            f.delete();
+      String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+      Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                         RedoTest.class.getName(), "crash")
+                      .inheritIO().start();
+      failures += child.waitFor();
+
+      open();
+      Page p = read(blk);
+      for (int i=0; i<6; i++)
+         check(p.getInt(i*Integer.BYTES) == i, "unlogged value " + i + " was not written at commit");
+      check(p.getInt(6*Integer.BYTES) == 0, "a logged update was written at commit");
+
+      Transaction tx = db.newTx();
+      tx.recover();
+      tx.commit();
+      p = read(blk);
+      for (int i=0; i<6; i++) {
+         int pos = (6+i) * Integer.BYTES;
+         check(p.getInt(pos) == 100 + i, "committed value " + p.getInt(pos) + " was not redone");
+      }
+      check(p.getString(60).equals("redo"), "committed string was not redone");
+      System.out.println(failures == 0 ? "RedoTest passed"
+                                       : "RedoTest: " + failures + " failures");
+   }
+
+   private static void open() {
+      db = new SimpleDB(DIRNAME, 400, 8);
+      fm = db.fileMgr();
+      blk = new BlockId("testfile", 0);
+   }
+
+   /**
+    * Runs in the child process, and halts it
+    * with the number of failed checks as its status.
+    */
+   private static void crash() {
+      Transaction tx1 = db.newTx();
+      tx1.append("testfile");
+      tx1.pin(blk);
+      for (int i=0; i<6; i++)
+         tx1.setInt(blk, i*Integer.BYTES, i, false);
+      tx1.commit();
+
+      Transaction tx2 = db.newTx();
+      tx2.pin(blk);
+      for (int i=0; i<6; i++)
+         tx2.setInt(blk, (6+i)*Integer.BYTES, 100 + i, true);
+      tx2.setString(blk, 60, "redo", true);
+      tx2.commit();
+      Runtime.getRuntime().halt(failures);
+   }
+
+   // Read the value of the block that made it to disk.
+   private static Page read(BlockId blk) {
+      Page p = new Page(fm.blockSize());
+      fm.read(blk, p);
+      return p;
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
@@ -0,0 +1,53 @@
+package simpledb.tx.recovery;
+
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+import simpledb.plan.Planner;
+
+/**
+ * Measures the startup time of a database after a clean
+ * shutdown and after a crash.
+ * Each run inserts the same records into a table of its own
+ * directory, without checkpoints, and then either calls
+ * {@link SimpleDB#shutdown()} or just stops using the database.
+ * A second database on the same directory then starts up.
+ */
+public class RestartBenchmark {
+   private static final int TXS = 200;
+   private static final int INSERTS = 20;  // per transaction
+
+   public static void main(String[] args) {
+      SimpleDB.CHECKPOINT_INTERVAL = 0;
+      SimpleDB.BUFFER_SIZE = 256;
+      run("restartbenchmark-crash", false);
+      run("restartbenchmark-clean", true);
+   }
+
+   private static void run(String dirname, boolean clean) {
+      SimpleDB db = new SimpleDB(dirname);
+      Planner planner = db.planner();
+      Transaction tx = db.newTx();
+      planner.executeUpdate("create table T(A int, B varchar(20))", tx);
+      tx.commit();
+      for (int t=0; t<TXS; t++) {
+         tx = db.newTx();
+         for (int i=0; i<INSERTS; i++) {
+            int n = t*INSERTS + i;
+            planner.executeUpdate("insert into T(A, B) values (" + n + ", 'rec" + n + "')", tx);
+         }
+         tx.commit();
+      }
+      if (clean)
+         db.shutdown();
+      else {
+         db.stopCheckpointer();
+         db.bufferMgr().stopBackgroundWriter();
+      }
+
+      long start = System.nanoTime();
+      SimpleDB restarted = new SimpleDB(dirname);
+      long ms = (System.nanoTime() - start) / 1000000;
+      restarted.shutdown();
+      System.out.printf("restart after %-5s: %5d ms%n", clean ? "clean" : "crash", ms);
+   }
+}
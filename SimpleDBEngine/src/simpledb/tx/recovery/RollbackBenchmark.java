@@ -0,0 +1,45 @@
+package simpledb.tx.recovery;
+
+import simpledb.file.BlockId;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+
+/**
+ * Measures the time to roll back a short transaction
+ * that started behind a long-running one, for an increasing
+ * number of the long transaction's log records written in between.
+ * A rollback that follows the transaction's chain of log records
+ * takes the same time however long the interleaved log is;
+ * a rollback that scanned the log back to the START record
+ * would grow with it.
+ */
+public class RollbackBenchmark {
+   private static final int SHORT_UPDATES = 10;
+   private static final int REPEATS = 20;
+
+   public static void main(String[] args) {
+      SimpleDB db = new SimpleDB("rollbackbenchmark", 4096, 64);
+      db.bufferMgr().stopBackgroundWriter();
+      BlockId longblk = db.fileMgr().append("longtx");
+      BlockId shortblk = db.fileMgr().append("shorttx");
+      for (int interleaved : new int[] {1000, 10000, 100000}) {
+         long total = 0;
+         for (int r=0; r<REPEATS; r++) {
+            Transaction longtx = db.newTx();
+            Transaction shorttx = db.newTx();
+            longtx.pin(longblk);
+            shorttx.pin(shortblk);
+            for (int i=0; i<SHORT_UPDATES; i++)
+               shorttx.setInt(shortblk, i*Integer.BYTES, i, true);
+            for (int i=0; i<interleaved; i++)
+               longtx.setInt(longblk, (i%100)*Integer.BYTES, i, true);
+            long start = System.nanoTime();
+            shorttx.rollback();
+            total += System.nanoTime() - start;
+            longtx.commit();
+         }
+         System.out.printf("%6d interleaved records: %8.1f us per rollback%n",
+                           interleaved, total / 1000.0 / REPEATS);
+      }
+   }
+}
@@ -0,0 +1,85 @@
+package simpledb.tx.recovery;
+
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.tx.Transaction;
+
+/**
+ * Checks rollback along a transaction's chain of log records.
+ * Three transactions interleave many updates, the same value being
+ * updated several times, so that the first records of a transaction
+ * have left the log buffer by the time it rolls back.
+ * A rolled-back transaction's values must be restored, in the right
+ * order, and those of the other transactions must be left alone,
+ * also when a second transaction rolls back after the first.
+ */
+public class RollbackTest {
+   private static final int ROUNDS = 100;
+   private static BlockId blk0, blk1, blk2;
+   private static int failures = 0;
+
+   public static void main(String[] args) {
+      SimpleDB.LOG_BUFFER_SIZE = 4 * 400;
+      SimpleDB db = new SimpleDB("rollbacktest", 400, 8);
+      Transaction tx0 = db.newTx();
+      blk0 = tx0.append("testfile");
+      blk1 = tx0.append("testfile");
+      blk2 = tx0.append("testfile");
+      tx0.pin(blk0);
+      tx0.pin(blk1);
+      tx0.pin(blk2);
+      for (int i=0; i<6; i++) {
+         tx0.setInt(blk0, i*Integer.BYTES, i, true);
+         tx0.setInt(blk1, i*Integer.BYTES, 10 + i, true);
+         tx0.setInt(blk2, i*Integer.BYTES, 20 + i, true);
+      }
+      tx0.setString(blk0, 30, "zero", true);
+      tx0.commit();
+
+      Transaction tx1 = db.newTx();
+      Transaction tx2 = db.newTx();
+      Transaction tx3 = db.newTx();
+      tx1.pin(blk0);
+      tx2.pin(blk1);
+      tx3.pin(blk2);
+      for (int r=1; r<=ROUNDS; r++)
+         for (int i=0; i<6; i++) {
+            tx1.setInt(blk0, i*Integer.BYTES, 1000*r + i, true);
+            tx2.setInt(blk1, i*Integer.BYTES, 2000*r + i, true);
+            tx3.setInt(blk2, i*Integer.BYTES, 3000*r + i, true);
+            if (r % 10 == 0 && i == 0)
+               tx1.setString(blk0, 30, "tx1 round " + r, true);
+         }
+
+      tx1.rollback();
+      for (int i=0; i<6; i++) {
+         int pos = i * Integer.BYTES;
+         check(tx2.getInt(blk1, pos) == 2000*ROUNDS + i, "tx2 lost its value at " + pos);
+         check(tx3.getInt(blk2, pos) == 3000*ROUNDS + i, "tx3 lost its value at " + pos);
+      }
+
+      tx2.rollback();
+      tx3.commit();
+      Transaction tx4 = db.newTx();
+      tx4.pin(blk0);
+      tx4.pin(blk1);
+      tx4.pin(blk2);
+      for (int i=0; i<6; i++) {
+         int pos = i * Integer.BYTES;
+         check(tx4.getInt(blk0, pos) == i, "rolled-back value " + tx4.getInt(blk0, pos) + " in block 0");
+         check(tx4.getInt(blk1, pos) == 10 + i, "rolled-back value " + tx4.getInt(blk1, pos) + " in block 1");
+         check(tx4.getInt(blk2, pos) == 3000*ROUNDS + i, "committed value " + tx4.getInt(blk2, pos) + " in block 2");
+      }
+      check(tx4.getString(blk0, 30).equals("zero"), "rolled-back string " + tx4.getString(blk0, 30));
+      tx4.commit();
+      System.out.println(failures == 0 ? "RollbackTest passed"
+                                       : "RollbackTest: " + failures + " failures");
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
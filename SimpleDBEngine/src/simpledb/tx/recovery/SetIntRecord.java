@@ -1,78 +1,103 @@
 package simpledb.tx.recovery;
 
 import simpledb.file.*;
-import simpledb.log.LogMgr;
+import simpledb.log.*;
 import simpledb.tx.Transaction;
 
 public class SetIntRecord implements LogRecord {
-   private int txnum, offset, val;
+   private int offset, oldval, newval;
+   private long txnum, prevLSN;
    private BlockId blk;
 
    /**
     * Create a new setint log record.
-    * @param bb the bytebuffer containing the log values
+    * @param p the page containing the log values
+    * @param files the dictionary of file ids
     */
-   public SetIntRecord(Page p) {
-      int tpos = Integer.BYTES;
-      txnum = p.getInt(tpos);
-      int fpos = tpos + Integer.BYTES;
-      String filename = p.getString(fpos);
-      int bpos = fpos + Page.maxLength(filename.length());
-      int blknum = p.getInt(bpos);
-      blk = new BlockId(filename, blknum);
-      int opos = bpos + Integer.BYTES;
-      offset = p.getInt(opos);
-      int vpos = opos + Integer.BYTES;      
-      val = p.getInt(vpos);
+   public SetIntRecord(Page p, FileDictionary files) {
+      LogFields f = new LogFields(p, files);
+      txnum = f.nextLong();
+      prevLSN = f.nextLong();
+      blk = f.nextBlock();
+      offset = f.nextInt();
+      oldval = f.nextSignedInt();
+      newval = f.nextSignedInt();
    }
 
    public int op() {
       return SETINT;
    }
 
-   public int txNumber() {
+   public long txNumber() {
       return txnum;
    }
 
+   public long prevLSN() {
+      return prevLSN;
+   }
+
    public String toString() {
-      return "<SETINT " + txnum + " " + blk + " " + offset + " " + val + ">";
+      return "<SETINT " + txnum + " " + blk + " " + offset + " " + oldval + " " + newval + ">";
    }
 
    /**
-    * Replace the specified data value with the value saved in the log record.
+    * Replace the specified data value with the old value saved in the log record.
     * The method pins a buffer to the specified block,
     * calls setInt to restore the saved value,
     * and unpins the buffer.
+    * The restore is logged, so that a later redo repeats it.
     * @see simpledb.tx.recovery.LogRecord#undo(int)
     */
    public void undo(Transaction tx) {
       tx.pin(blk);
-      tx.setInt(blk, offset, val, false); // don't log the undo!
+      tx.setInt(blk, offset, oldval, true);
       tx.unpin(blk);
    }
 
+   public BlockId block() {
+      return blk;
+   }
+
+   /**
+    * Write the new value saved in the log record to the page.
+    * @see simpledb.tx.recovery.LogRecord#redo(Page)
+    */
+   public void redo(Page p) {
+      p.setInt(offset, newval);
+   }
+
+   /**
+    * Write the old value saved in the log record to the page.
+    * @see simpledb.tx.recovery.LogRecord#undo(Page)
+    */
+   public void undo(Page p) {
+      p.setInt(offset, oldval);
+   }
+
    /**
     * A static method to write a setInt record to the log.
     * This log record contains the SETINT operator,
-    * followed by the transaction id, the filename, number,
-    * and offset of the modified block, and the previous
-    * integer value at that offset.
-    * @return the LSN of the last log value
+    * followed by the transaction id, the LSN of the transaction's
+    * previous log record, the file id (or name), number,
+    * and offset of the modified block, the previous
+    * integer value at that offset, and the new value.
+    * @return the LSN of the record
     */
-   public static int writeToLog(LogMgr lm, int txnum, BlockId blk, int offset, int val) {
-      int tpos = Integer.BYTES;
-      int fpos = tpos + Integer.BYTES;
-      int bpos = fpos + Page.maxLength(blk.fileName().length());
-      int opos = bpos + Integer.BYTES;
-      int vpos = opos + Integer.BYTES;
-      byte[] rec = new byte[vpos + Integer.BYTES];
-      Page p = new Page(rec);
-      p.setInt(0, SETINT);
-      p.setInt(tpos, txnum);
-      p.setString(fpos, blk.fileName());
-      p.setInt(bpos, blk.number());
-      p.setInt(opos, offset);
-      p.setInt(vpos, val);
-      return lm.append(rec);
+   public static long writeToLog(LogMgr lm, long txnum, long prevLSN,
+                                 BlockId blk, int offset, int oldval, int newval) {
+      int fileid = lm.fileDictionary().idOf(blk.fileName());
+      int reclen = 1 + LogFields.longSize(txnum) + LogFields.longSize(prevLSN)
+                     + LogFields.blockSize(fileid, blk)
+                     + LogFields.intSize(offset) + LogFields.signedIntSize(oldval)
+                     + LogFields.signedIntSize(newval);
+      return lm.append(reclen, (p, pos) -> {
+         pos = LogFields.putOp(p, pos, SETINT);
+         pos = LogFields.putLong(p, pos, txnum);
+         pos = LogFields.putLong(p, pos, prevLSN);
+         pos = LogFields.putBlock(p, pos, fileid, blk);
+         pos = LogFields.putInt(p, pos, offset);
+         pos = LogFields.putSignedInt(p, pos, oldval);
+         LogFields.putSignedInt(p, pos, newval);
+      });
    }
 }
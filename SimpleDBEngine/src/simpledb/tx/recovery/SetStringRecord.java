@@ -1,80 +1,104 @@
 package simpledb.tx.recovery;
 
 import simpledb.file.*;
-import simpledb.log.LogMgr;
+import simpledb.log.*;
 import simpledb.tx.Transaction;
 
 public class SetStringRecord implements LogRecord {
-   private int txnum, offset;
-   private String val;
+   private int offset;
+   private String oldval, newval;
+   private long txnum, prevLSN;
    private BlockId blk;
 
    /**
-    * Create a new setint log record.
-    * @param bb the bytebuffer containing the log values
+    * Create a new setstring log record.
+    * @param p the page containing the log values
+    * @param files the dictionary of file ids
     */
-   public SetStringRecord(Page p) {
-      int tpos = Integer.BYTES;
-      txnum = p.getInt(tpos);
-      int fpos = tpos + Integer.BYTES;
-      String filename = p.getString(fpos);
-      int bpos = fpos + Page.maxLength(filename.length());
-      int blknum = p.getInt(bpos);
-      blk = new BlockId(filename, blknum);
-      int opos = bpos + Integer.BYTES;
-      offset = p.getInt(opos);
-      int vpos = opos + Integer.BYTES;      
-      val = p.getString(vpos);
+   public SetStringRecord(Page p, FileDictionary files) {
+      LogFields f = new LogFields(p, files);
+      txnum = f.nextLong();
+      prevLSN = f.nextLong();
+      blk = f.nextBlock();
+      offset = f.nextInt();
+      oldval = f.nextString();
+      newval = f.nextString();
    }
 
    public int op() {
       return SETSTRING;
    }
 
-   public int txNumber() {
+   public long txNumber() {
       return txnum;
    }
 
+   public long prevLSN() {
+      return prevLSN;
+   }
+
    public String toString() {
-      return "<SETSTRING " + txnum + " " + blk + " " + offset + " " + val + ">";
+      return "<SETSTRING " + txnum + " " + blk + " " + offset + " " + oldval + " " + newval + ">";
    }
 
    /**
-    * Replace the specified data value with the value saved in the log record.
+    * Replace the specified data value with the old value saved in the log record.
     * The method pins a buffer to the specified block,
-    * calls setInt to restore the saved value,
+    * calls setString to restore the saved value,
     * and unpins the buffer.
+    * The restore is logged, so that a later redo repeats it.
     * @see simpledb.tx.recovery.LogRecord#undo(int)
     */
    public void undo(Transaction tx) {
       tx.pin(blk);
-      tx.setString(blk, offset, val, false); // don't log the undo!
+      tx.setString(blk, offset, oldval, true);
       tx.unpin(blk);
    }
 
+   public BlockId block() {
+      return blk;
+   }
+
+   /**
+    * Write the new value saved in the log record to the page.
+    * @see simpledb.tx.recovery.LogRecord#redo(Page)
+    */
+   public void redo(Page p) {
+      p.setString(offset, newval);
+   }
+
+   /**
+    * Write the old value saved in the log record to the page.
+    * @see simpledb.tx.recovery.LogRecord#undo(Page)
+    */
+   public void undo(Page p) {
+      p.setString(offset, oldval);
+   }
+
    /**
-    * A static method to write a setInt record to the log.
-    * This log record contains the SETINT operator,
-    * followed by the transaction id, the filename, number,
-    * and offset of the modified block, and the previous
-    * integer value at that offset.
-    * @return the LSN of the last log value
+    * A static method to write a setString record to the log.
+    * This log record contains the SETSTRING operator,
+    * followed by the transaction id, the LSN of the transaction's
+    * previous log record, the file id (or name), number,
+    * and offset of the modified block, the previous
+    * string value at that offset, and the new value.
+    * @return the LSN of the record
     */
-   public static int writeToLog(LogMgr lm, int txnum, BlockId blk, int offset, String val) {
-      int tpos = Integer.BYTES;
-      int fpos = tpos + Integer.BYTES;
-      int bpos = fpos + Page.maxLength(blk.fileName().length());
-      int opos = bpos + Integer.BYTES;
-      int vpos = opos + Integer.BYTES;
-      int reclen = vpos + Page.maxLength(val.length());
-      byte[] rec = new byte[reclen];
-      Page p = new Page(rec);
-      p.setInt(0, SETSTRING);
-      p.setInt(tpos, txnum);
-      p.setString(fpos, blk.fileName());
-      p.setInt(bpos, blk.number());
-      p.setInt(opos, offset);
-      p.setString(vpos, val);
-      return lm.append(rec);
+   public static long writeToLog(LogMgr lm, long txnum, long prevLSN,
+                                 BlockId blk, int offset, String oldval, String newval) {
+      int fileid = lm.fileDictionary().idOf(blk.fileName());
+      int reclen = 1 + LogFields.longSize(txnum) + LogFields.longSize(prevLSN)
+                     + LogFields.blockSize(fileid, blk)
+                     + LogFields.intSize(offset) + LogFields.stringSize(oldval)
+                     + LogFields.stringSize(newval);
+      return lm.append(reclen, (p, pos) -> {
+         pos = LogFields.putOp(p, pos, SETSTRING);
+         pos = LogFields.putLong(p, pos, txnum);
+         pos = LogFields.putLong(p, pos, prevLSN);
+         pos = LogFields.putBlock(p, pos, fileid, blk);
+         pos = LogFields.putInt(p, pos, offset);
+         pos = LogFields.putString(p, pos, oldval);
+         LogFields.putString(p, pos, newval);
+      });
    }
 }
\ No newline at end of file
@@ -0,0 +1,115 @@
+package simpledb.tx.recovery;
+
+import java.io.File;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.tx.Transaction;
+
+/**
+ * Checks the clean-shutdown marker.
+ * A child process commits a value without writing its page,
+ * shuts the database down and exits; the value must then be on disk,
+ * and the next startup must find the database cleanly shut down,
+ * but only once, since the marker is deleted.
+ * The database must not be considered cleanly shut down
+ * if a transaction was still active at shutdown,
+ * or if the log grew after the shutdown.
+ */
+public class ShutdownTest {
+   private static final String DIRNAME = "shutdowntest";
+   private static SimpleDB db;
+   private static FileMgr fm;
+   private static BlockId blk;
+   private static int failures = 0;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB.BACKGROUND_WRITER = false;
+      if (args.length > 0) {
+         open();
+         if (args[0].equals("clean"))
+            update(1, false);
+         else if (args[0].equals("active"))
+            update(2, true);
+         else
+            updateAfterShutdown();
+         Runtime.getRuntime().halt(failures);
+      }
+      File dir = new File(DIRNAME);
+      if (dir.exists())
+         for (File f : dir.listFiles())
+            f.delete();
+
+      runChild("clean");
+      open();
+      check(read(blk) == 1, "the committed value was not written at shutdown");
+      check(RecoveryMgr.wasShutDownCleanly(fm, db.logMgr()), "a clean shutdown was not recognized");
+      check(!RecoveryMgr.wasShutDownCleanly(fm, db.logMgr()), "the marker was used twice");
+
+      runChild("active");
+      open();
+      check(!RecoveryMgr.wasShutDownCleanly(fm, db.logMgr()),
+            "a shutdown with an active transaction was taken as clean");
+
+      runChild("after");
+      open();
+      check(!RecoveryMgr.wasShutDownCleanly(fm, db.logMgr()),
+            "a log that grew after shutdown was taken as clean");
+      System.out.println(failures == 0 ? "ShutdownTest passed"
+                                       : "ShutdownTest: " + failures + " failures");
+   }
+
+   private static void runChild(String mode) throws Exception {
+      String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+      Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                         ShutdownTest.class.getName(), mode)
+                      .inheritIO().start();
+      failures += child.waitFor();
+   }
+
+   private static void open() {
+      db = new SimpleDB(DIRNAME, 400, 8);
+      fm = db.fileMgr();
+      blk = new BlockId("testfile", 0);
+   }
+
+   /**
+    * Commits the value in the block, leaving another
+    * transaction active if requested, and shuts down.
+    */
+   private static void update(int val, boolean leaveActive) {
+      Transaction tx1 = db.newTx();
+      if (tx1.size("testfile") == 0)
+         tx1.append("testfile");
+      tx1.pin(blk);
+      tx1.setInt(blk, 0, val, true);
+      tx1.commit();
+      if (leaveActive) {
+         Transaction tx2 = db.newTx();
+         tx2.pin(blk);
+         tx2.setInt(blk, 0, -1, true);
+      }
+      db.shutdown();
+   }
+
+   private static void updateAfterShutdown() {
+      db.shutdown();
+      Transaction tx = db.newTx();
+      tx.pin(blk);
+      tx.setInt(blk, 0, 3, true);
+      tx.commit();
+   }
+
+   // Read the value of the block that made it to disk.
+   private static int read(BlockId blk) {
+      Page p = new Page(fm.blockSize());
+      fm.read(blk, p);
+      return p.getInt(0);
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}
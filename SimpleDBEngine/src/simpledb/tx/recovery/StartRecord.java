@@ -1,34 +1,61 @@
 package simpledb.tx.recovery;
 
-import simpledb.file.Page;
+import simpledb.file.*;
 import simpledb.log.LogMgr;
 import simpledb.tx.Transaction;
 
 public class StartRecord implements LogRecord {
-   private int txnum;
+   private long txnum;
    
    /**
     * Create a log record by reading one other value from the log.
     * @param bb the bytebuffer containing the log values
     */
    public StartRecord(Page p) {
-      int tpos = Integer.BYTES;
-      txnum = p.getInt(tpos);
+      txnum = new LogFields(p, null).nextLong();
    }
    
    public int op() {
       return START;
    }
    
-   public int txNumber() {
+   public long txNumber() {
       return txnum;
    }
+
+   /**
+    * Returns -1, because a start record begins
+    * the transaction's chain of log records.
+    */
+   public long prevLSN() {
+      return -1;
+   }
    
    /**
     * Does nothing, because a start record
     * contains no undo information.
     */
    public void undo(Transaction tx) {}
+
+   /**
+    * Returns null, because a start record
+    * changes no block.
+    */
+   public BlockId block() {
+      return null;
+   }
+
+   /**
+    * Does nothing, because a start record
+    * contains no redo information.
+    */
+   public void redo(Page p) {}
+
+   /**
+    * Does nothing, because a start record
+    * contains no undo information.
+    */
+   public void undo(Page p) {}
    
    public String toString() {
       return "<START " + txnum + ">";
@@ -38,13 +65,12 @@ public class StartRecord implements LogRecord {
     * A static method to write a start record to the log.
     * This log record contains the START operator,
     * followed by the transaction id.
-    * @return the LSN of the last log value
+    * @return the LSN of the record
     */
-   public static int writeToLog(LogMgr lm, int txnum) {
-      byte[] rec = new byte[2*Integer.BYTES];
-      Page p = new Page(rec);
-      p.setInt(0, START);
-      p.setInt(Integer.BYTES, txnum);
-      return lm.append(rec);
+   public static long writeToLog(LogMgr lm, long txnum) {
+      return lm.append(1 + LogFields.longSize(txnum), (p, pos) -> {
+         pos = LogFields.putOp(p, pos, START);
+         LogFields.putLong(p, pos, txnum);
+      });
    }
 }
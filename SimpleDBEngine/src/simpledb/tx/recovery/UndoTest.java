@@ -0,0 +1,120 @@
+package simpledb.tx.recovery;
+
+import java.io.File;
+import simpledb.server.SimpleDB;
+import simpledb.file.*;
+import simpledb.buffer.BufferMgr;
+import simpledb.tx.Transaction;
+
+/**
+ * Checks that recovery undoes uncommitted changes,
+ * including those whose pages reached the disk.
+ * A child process commits the initial values of two blocks.
+ * One transaction then updates the first block, and its page is
+ * written to disk; another updates the second block and rolls back,
+ * without its restored page being written again.
+ * A third transaction updates the second block and is left
+ * unfinished too, and the process halts.
+ * After recovery, both blocks must hold their initial values.
+ */
+public class UndoTest {
+   private static final String DIRNAME = "undotest";
+   private static SimpleDB db;
+   private static FileMgr fm;
+   private static BufferMgr bm;
+   private static BlockId blk0, blk1;
+   private static int failures = 0;
+
+   public static void main(String[] args) throws Exception {
+      SimpleDB.BACKGROUND_WRITER = false;
+      if (args.length > 0 && args[0].equals("crash")) {
+         open();
+         crash();
+      }
+      File dir = new File(DIRNAME);
+      if (dir.exists())
+         for (File f : dir.listFiles())
+            f.delete();
+      String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+      Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                         UndoTest.class.getName(), "crash")
+                      .inheritIO().start();
+      failures += child.waitFor();
+
+      open();
+      check(read(blk0).getInt(0) == 100, "the uncommitted page was not written before the crash");
+      Transaction tx = db.newTx();
+      tx.recover();
+      tx.commit();
+      Page p0 = read(blk0), p1 = read(blk1);
+      for (int i=0; i<6; i++) {
+         int pos = i * Integer.BYTES;
+         check(p0.getInt(pos) == i, "uncommitted value " + p0.getInt(pos) + " in block 0");
+         check(p1.getInt(pos) == 10 + i, "uncommitted value " + p1.getInt(pos) + " in block 1");
+      }
+      check(p0.getString(30).equals("abc"), "uncommitted string " + p0.getString(30) + " in block 0");
+      System.out.println(failures == 0 ? "UndoTest passed"
+                                       : "UndoTest: " + failures + " failures");
+   }
+
+   private static void open() {
+      db = new SimpleDB(DIRNAME, 400, 8);
+      fm = db.fileMgr();
+      bm = db.bufferMgr();
+      blk0 = new BlockId("testfile", 0);
+      blk1 = new BlockId("testfile", 1);
+   }
+
+   /**
+    * Runs in the child process, and halts it
+    * with the number of failed checks as its status.
+    * The transactions are numbered 1 to 4 in the order
+    * of their first access to the database.
+    */
+   private static void crash() {
+      Transaction tx1 = db.newTx();
+      tx1.append("testfile");
+      tx1.append("testfile");
+      tx1.pin(blk0);
+      tx1.pin(blk1);
+      for (int i=0; i<6; i++) {
+         tx1.setInt(blk0, i*Integer.BYTES, i, true);
+         tx1.setInt(blk1, i*Integer.BYTES, 10 + i, true);
+      }
+      tx1.setString(blk0, 30, "abc", true);
+      tx1.commit();
+
+      Transaction tx2 = db.newTx();
+      tx2.pin(blk0);
+      for (int i=0; i<6; i++)
+         tx2.setInt(blk0, i*Integer.BYTES, 100 + i, true);
+      tx2.setString(blk0, 30, "xyz", true);
+      bm.flushAll(2);
+
+      Transaction tx3 = db.newTx();
+      tx3.pin(blk1);
+      for (int i=0; i<6; i++)
+         tx3.setInt(blk1, i*Integer.BYTES, 200 + i, true);
+      tx3.rollback();
+
+      Transaction tx4 = db.newTx();
+      tx4.pin(blk1);
+      tx4.setInt(blk1, 0, 400, true);
+      // tx2 and tx4 stop here without committing or rolling back
+      Runtime.getRuntime().halt(failures);
+   }
+
+   // Read the value of the block that made it to disk.
+   private static Page read(BlockId blk) {
+      Page p = new Page(fm.blockSize());
+      fm.read(blk, p);
+      return p;
+   }
+
+   private static void check(boolean ok, String msg) {
+      if (!ok) {
+         failures++;
+         System.out.println("FAILED: " + msg);
+      }
+   }
+}